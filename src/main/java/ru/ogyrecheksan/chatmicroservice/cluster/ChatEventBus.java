@@ -0,0 +1,26 @@
+package ru.ogyrecheksan.chatmicroservice.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Партиционированная шина событий между узлами (chat.broker.mode=cluster).
+ *
+ * Событие публикуется в партицию (см. EventPartitioner) и доставляется только узлам, которые в нее вступили.
+ * Узел вступает в партиции чатов и пользователей, у которых есть его локальные сессии, поэтому межузловой
+ * трафик растет с числом активных чатов на узле, а не с общим трафиком кластера.
+ * CONTROL_PARTITION получают все узлы – для редких служебных событий (инвалидация кэшей, присутствие пользователей).
+ *
+ * Реализация выбирается через chat.broker.transport.
+ */
+public interface ChatEventBus {
+
+    int CONTROL_PARTITION = -1;
+
+    void publish(int partition, ClusterEvent event);
+
+    void subscribe(Consumer<ClusterEvent> consumer);
+
+    void joinPartition(int partition);
+
+    void leavePartition(int partition);
+}
@@ -0,0 +1,135 @@
+package ru.ogyrecheksan.chatmicroservice.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+import ru.ogyrecheksan.chatmicroservice.service.ChatMembershipCache;
+import ru.ogyrecheksan.chatmicroservice.service.ChatMembershipChangedEvent;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketPresenceListener;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Релей брокерских сообщений между узлами (chat.broker.mode=cluster).
+ *
+ * Каждый узел по-прежнему держит свой simple broker для своих сессий. Перехватчик на brokerChannel
+ * публикует в ChatEventBus все, что приложение отправляет в /topic/chat/{chatId} (партиция чата)
+ * и /user/{userId}/queue/... (партиция получателя), а кадры других узлов отправляет в локальный
+ * brokerChannel – дальше их доставляют simple broker и UserDestinationMessageHandler этого узла.
+ * Узел получает только партиции своих сессий (PartitionSubscriptionManager). WebSocketService не меняется.
+ *
+ * Изменения состава чатов рассылаются в CONTROL_PARTITION: каждый узел сбрасывает свой кэш членства.
+ *
+ * Пересланные сообщения помечаются заголовком RELAY_ORIGIN_HEADER и повторно не релеятся.
+ */
+@Slf4j
+public class ClusterBrokerRelay implements ChannelInterceptor {
+
+    static final String RELAY_ORIGIN_HEADER = "chatRelayOrigin";
+
+    private static final Pattern CHAT_DESTINATION = Pattern.compile("^/topic/chat/(\\d+)$");
+    private static final Pattern USER_DESTINATION = Pattern.compile("^/user/([^/]+)/queue/.+$");
+
+    private final String nodeId;
+    private final ChatEventBus eventBus;
+    private final EventPartitioner partitioner;
+    private final ChatMembershipCache membershipCache;
+    // brokerChannel создается той же конфигурацией, в которую регистрируется этот перехватчик
+    private final ObjectProvider<MessageChannel> brokerChannel;
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ClusterBrokerRelay(String nodeId,
+                              ChatEventBus eventBus,
+                              EventPartitioner partitioner,
+                              ChatMembershipCache membershipCache,
+                              ObjectProvider<MessageChannel> brokerChannel) {
+        this.nodeId = nodeId;
+        this.eventBus = eventBus;
+        this.partitioner = partitioner;
+        this.membershipCache = membershipCache;
+        this.brokerChannel = brokerChannel;
+        eventBus.subscribe(this::onEvent);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        if (headers.containsKey(RELAY_ORIGIN_HEADER)
+                || SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        Integer partition = destination != null ? partitionOf(destination) : null;
+        if (partition == null) {
+            return message;
+        }
+        Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        try {
+            eventBus.publish(partition, ClusterEvent.brokerFrame(nodeId, destination,
+                    contentType != null ? contentType.toString() : null, payload));
+        } catch (Exception e) {
+            // локальная доставка важнее: ошибка транспорта не должна ронять отправку
+            log.error("Failed to relay message to {}", destination, e);
+        }
+        return message;
+    }
+
+    @EventListener
+    public void onMembershipChanged(ChatMembershipChangedEvent event) {
+        try {
+            eventBus.publish(ChatEventBus.CONTROL_PARTITION,
+                    ClusterEvent.membershipChanged(nodeId, event.chatId(), event.userIds()));
+        } catch (Exception e) {
+            // другие узлы увидят изменение по истечении TTL кэша
+            log.error("Failed to relay membership change in chat {}", event.chatId(), e);
+        }
+    }
+
+    private Integer partitionOf(String destination) {
+        Matcher chat = CHAT_DESTINATION.matcher(destination);
+        if (chat.matches()) {
+            return partitioner.forChat(Long.parseLong(chat.group(1)));
+        }
+        Matcher user = USER_DESTINATION.matcher(destination);
+        if (user.matches()) {
+            return partitioner.forUser(WebSocketPresenceListener.toUserId(user.group(1)));
+        }
+        return null;
+    }
+
+    private void onEvent(ClusterEvent event) {
+        if (nodeId.equals(event.originNodeId())) {
+            return;
+        }
+        switch (event.kind()) {
+            case BROKER_FRAME -> deliverLocally(event);
+            case MEMBERSHIP_CHANGED -> membershipCache.evictLocal(event.chatId(), event.userIds());
+            default -> {
+                // присутствие обрабатывает ClusterPresence
+            }
+        }
+    }
+
+    private void deliverLocally(ClusterEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(event.destination());
+        if (event.contentType() != null) {
+            accessor.setContentType(MimeType.valueOf(event.contentType()));
+        }
+        accessor.setHeader(RELAY_ORIGIN_HEADER, event.originNodeId());
+        brokerChannel.getObject().send(MessageBuilder.createMessage(event.payload(), accessor.getMessageHeaders()));
+    }
+}
@@ -0,0 +1,75 @@
+package ru.ogyrecheksan.chatmicroservice.cluster;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Событие шины между узлами.
+ *
+ * BROKER_FRAME        – уже сериализованное сообщение брокера: destination (/topic/chat/{id} или
+ *                       /user/{userId}/queue/...), contentType и payload, как их выставил SimpMessagingTemplate;
+ * MEMBERSHIP_CHANGED  – изменился состав чата chatId для userIds: узлы сбрасывают кэш членства;
+ * PRESENCE_ONLINE / PRESENCE_OFFLINE – на узле-отправителе у пользователя userIds[0] появилась первая /
+ *                       закрылась последняя сессия: в чате chatId или, если chatId == null, вообще;
+ *                       version – номер перехода на узле (растет на 1 с каждым переходом);
+ * PRESENCE_HEARTBEAT  – узел жив, version – номер его последнего опубликованного перехода;
+ * PRESENCE_SYNC_REQUEST – просьба прислать PRESENCE_SNAPSHOT узлу targetNodeId (null – всем узлам);
+ * PRESENCE_SNAPSHOT   – все присутствие узла-отправителя на момент перехода version: userIds – пользователи
+ *                       с сессиями, chatUsers – chatId -> онлайн-пользователи. Заменяет ранее известное состояние узла.
+ *
+ * originNodeId – узел-отправитель (свои события узел не обрабатывает повторно).
+ */
+public record ClusterEvent(Kind kind,
+                           String originNodeId,
+                           String destination,
+                           String contentType,
+                           byte[] payload,
+                           Long chatId,
+                           List<UUID> userIds,
+                           Map<Long, List<UUID>> chatUsers,
+                           Long version,
+                           String targetNodeId) {
+
+    public enum Kind {
+        BROKER_FRAME,
+        MEMBERSHIP_CHANGED,
+        PRESENCE_ONLINE,
+        PRESENCE_OFFLINE,
+        PRESENCE_HEARTBEAT,
+        PRESENCE_SYNC_REQUEST,
+        PRESENCE_SNAPSHOT
+    }
+
+    public static ClusterEvent brokerFrame(String originNodeId, String destination, String contentType, byte[] payload) {
+        return new ClusterEvent(Kind.BROKER_FRAME, originNodeId, destination, contentType, payload,
+                null, null, null, null, null);
+    }
+
+    public static ClusterEvent membershipChanged(String originNodeId, Long chatId, List<UUID> userIds) {
+        return new ClusterEvent(Kind.MEMBERSHIP_CHANGED, originNodeId, null, null, null,
+                chatId, userIds, null, null, null);
+    }
+
+    public static ClusterEvent presenceChanged(String originNodeId, long version, Long chatId, UUID userId,
+                                               boolean online) {
+        return new ClusterEvent(online ? Kind.PRESENCE_ONLINE : Kind.PRESENCE_OFFLINE, originNodeId,
+                null, null, null, chatId, List.of(userId), null, version, null);
+    }
+
+    public static ClusterEvent presenceHeartbeat(String originNodeId, long version) {
+        return new ClusterEvent(Kind.PRESENCE_HEARTBEAT, originNodeId, null, null, null,
+                null, null, null, version, null);
+    }
+
+    public static ClusterEvent presenceSyncRequest(String originNodeId, String targetNodeId) {
+        return new ClusterEvent(Kind.PRESENCE_SYNC_REQUEST, originNodeId, null, null, null,
+                null, null, null, null, targetNodeId);
+    }
+
+    public static ClusterEvent presenceSnapshot(String originNodeId, long version, List<UUID> userIds,
+                                                Map<Long, List<UUID>> chatUsers) {
+        return new ClusterEvent(Kind.PRESENCE_SNAPSHOT, originNodeId, null, null, null,
+                null, userIds, chatUsers, version, null);
+    }
+}
@@ -0,0 +1,321 @@
+package ru.ogyrecheksan.chatmicroservice.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Присутствие пользователей в кластере (chat.broker.mode=cluster): isOnline и getOnlineUsers
+ * WebSocketSubscriptionRegistry учитывают сессии на других узлах.
+ *
+ * Переходы локального реестра (первая/последняя сессия пользователя на узле и в чате) уходят в CONTROL_PARTITION
+ * как PRESENCE_ONLINE/PRESENCE_OFFLINE с номером перехода version. Раз в chat.broker.presence-refresh-ms узел
+ * публикует только PRESENCE_HEARTBEAT с номером последнего перехода – размер не зависит от числа сессий.
+ * Полное состояние (PRESENCE_SNAPSHOT) уходит только по PRESENCE_SYNC_REQUEST: его шлет узел при старте
+ * (всем) и получатель, у которого номер разошелся с известным (пропущенный переход, рестарт узла-отправителя).
+ * Состояние узла, от которого ничего не приходило дольше трех интервалов (узел упал), не учитывается.
+ *
+ * События публикуются одним потоком в порядке переходов; номер перехода и снимок берутся под блокировкой
+ * реестра, поэтому снимок с номером N содержит ровно переходы 1..N.
+ */
+@Slf4j
+public class ClusterPresence implements WebSocketSubscriptionRegistry.ActivityListener,
+        WebSocketSubscriptionRegistry.RemotePresence, DisposableBean {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final String nodeId;
+    private final ChatEventBus eventBus;
+    private final WebSocketSubscriptionRegistry subscriptionRegistry;
+    private final long refreshIntervalMs;
+    private final long expireAfterMs;
+    private final Map<String, NodePresence> nodes = new ConcurrentHashMap<>();
+    // номер последнего локального перехода; меняется под блокировкой реестра
+    private final AtomicLong version = new AtomicLong();
+    // номер последнего опубликованного перехода – пишется и читается только потоком публикации
+    private long publishedVersion;
+    private final AtomicBoolean snapshotQueued = new AtomicBoolean();
+    private final ExecutorService publisher;
+    private final ScheduledExecutorService scheduler;
+
+    public ClusterPresence(String nodeId,
+                           ChatEventBus eventBus,
+                           WebSocketSubscriptionRegistry subscriptionRegistry,
+                           long refreshIntervalMs) {
+        this.nodeId = nodeId;
+        this.eventBus = eventBus;
+        this.subscriptionRegistry = subscriptionRegistry;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.expireAfterMs = refreshIntervalMs * 3;
+        this.publisher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-presence-publish");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-presence-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        eventBus.subscribe(this::onEvent);
+        subscriptionRegistry.addListener(this);
+        subscriptionRegistry.setRemotePresence(this);
+        // свое состояние – всем (после рестарта с тем же nodeId оно заменит старое), чужое – запросом
+        publishSnapshot();
+        publish(ClusterEvent.presenceSyncRequest(nodeId, null));
+        scheduler.scheduleWithFixedDelay(this::refresh, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void userConnected(UUID userId) {
+        publishChange(null, userId, true);
+    }
+
+    @Override
+    public void userDisconnected(UUID userId) {
+        publishChange(null, userId, false);
+    }
+
+    @Override
+    public void userJoinedChat(Long chatId, UUID userId) {
+        publishChange(chatId, userId, true);
+    }
+
+    @Override
+    public void userLeftChat(Long chatId, UUID userId) {
+        publishChange(chatId, userId, false);
+    }
+
+    @Override
+    public Set<UUID> onlineUsers(Long chatId) {
+        long aliveSince = System.currentTimeMillis() - expireAfterMs;
+        Set<UUID> online = new HashSet<>();
+        for (NodePresence node : nodes.values()) {
+            if (node.seenAt > aliveSince) {
+                node.addChatUsers(chatId, online);
+            }
+        }
+        return online;
+    }
+
+    @Override
+    public boolean isOnline(UUID userId) {
+        long aliveSince = System.currentTimeMillis() - expireAfterMs;
+        for (NodePresence node : nodes.values()) {
+            if (node.seenAt > aliveSince && node.hasUser(userId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // вызывается под блокировкой реестра – только ставит событие в очередь
+    private void publishChange(Long chatId, UUID userId, boolean online) {
+        long changeVersion = version.incrementAndGet();
+        publish(ClusterEvent.presenceChanged(nodeId, changeVersion, chatId, userId, online), changeVersion);
+    }
+
+    private void refresh() {
+        try {
+            execute(() -> eventBus.publish(ChatEventBus.CONTROL_PARTITION,
+                    ClusterEvent.presenceHeartbeat(nodeId, publishedVersion)));
+            long aliveSince = System.currentTimeMillis() - expireAfterMs;
+            nodes.values().removeIf(node -> node.seenAt <= aliveSince);
+        } catch (Exception e) {
+            log.error("Failed to refresh cluster presence", e);
+        }
+    }
+
+    private void publishSnapshot() {
+        // несколько запросов подряд (старт узла, расхождение у нескольких получателей) – один снимок
+        if (!snapshotQueued.compareAndSet(false, true)) {
+            return;
+        }
+        subscriptionRegistry.withLocalPresence((users, chats) -> {
+            Map<Long, List<UUID>> chatUsers = new HashMap<>();
+            chats.forEach((chatId, chatOnline) -> chatUsers.put(chatId, List.copyOf(chatOnline)));
+            long snapshotVersion = version.get();
+            execute(() -> {
+                snapshotQueued.set(false);
+                eventBus.publish(ChatEventBus.CONTROL_PARTITION,
+                        ClusterEvent.presenceSnapshot(nodeId, snapshotVersion, List.copyOf(users), chatUsers));
+                publishedVersion = snapshotVersion;
+            });
+        });
+    }
+
+    private void publish(ClusterEvent event) {
+        execute(() -> eventBus.publish(ChatEventBus.CONTROL_PARTITION, event));
+    }
+
+    private void publish(ClusterEvent event, long eventVersion) {
+        execute(() -> {
+            eventBus.publish(ChatEventBus.CONTROL_PARTITION, event);
+            publishedVersion = eventVersion;
+        });
+    }
+
+    private void execute(Runnable task) {
+        try {
+            publisher.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    // пропуск заметят по номеру в следующем heartbeat и запросят снимок
+                    log.error("Failed to publish presence of node {}", nodeId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // узел останавливается: другие узлы уже получили (или не дождутся и забудут) его пустой снимок
+            log.debug("Cluster presence is stopped, dropping presence event");
+        }
+    }
+
+    private void onEvent(ClusterEvent event) {
+        if (nodeId.equals(event.originNodeId())) {
+            return;
+        }
+        switch (event.kind()) {
+            case PRESENCE_ONLINE, PRESENCE_OFFLINE -> {
+                NodePresence node = node(event.originNodeId());
+                if (!node.apply(event.version(), event.chatId(), event.userIds().get(0),
+                        event.kind() == ClusterEvent.Kind.PRESENCE_ONLINE)) {
+                    requestSync(event.originNodeId(), node);
+                }
+            }
+            case PRESENCE_HEARTBEAT -> {
+                NodePresence node = node(event.originNodeId());
+                if (!node.confirm(event.version())) {
+                    requestSync(event.originNodeId(), node);
+                }
+            }
+            case PRESENCE_SNAPSHOT -> node(event.originNodeId())
+                    .replace(event.version(), event.userIds(), event.chatUsers());
+            case PRESENCE_SYNC_REQUEST -> {
+                if (event.targetNodeId() == null || nodeId.equals(event.targetNodeId())) {
+                    publishSnapshot();
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void requestSync(String originNodeId, NodePresence node) {
+        // пока снимок не пришел, не чаще раза в интервал
+        if (node.markSyncRequested(refreshIntervalMs)) {
+            publish(ClusterEvent.presenceSyncRequest(nodeId, originNodeId));
+        }
+    }
+
+    private NodePresence node(String originNodeId) {
+        return nodes.computeIfAbsent(originNodeId, id -> new NodePresence());
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        scheduler.shutdownNow();
+        // пустой снимок: другие узлы сразу перестают считать наших пользователей онлайн
+        publish(ClusterEvent.presenceSnapshot(nodeId, version.get(), List.of(), Map.of()));
+        publisher.shutdown();
+        publisher.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Известное присутствие одного удаленного узла.
+     */
+    private static final class NodePresence {
+
+        private final Set<UUID> users = new HashSet<>();
+        private final Map<Long, Set<UUID>> chatUsers = new HashMap<>();
+        // номер последнего примененного перехода; -1 – снимка еще не было
+        private long version = -1;
+        private long syncRequestedAt;
+        private volatile long seenAt = System.currentTimeMillis();
+
+        /**
+         * @return false, если переход не следующий по номеру и нужен снимок
+         */
+        synchronized boolean apply(long changeVersion, Long chatId, UUID userId, boolean online) {
+            seenAt = System.currentTimeMillis();
+            if (version < 0 || changeVersion > version + 1) {
+                return false;
+            }
+            if (changeVersion <= version) {
+                // уже учтен снимком
+                return true;
+            }
+            version = changeVersion;
+            if (chatId == null) {
+                if (online) {
+                    users.add(userId);
+                } else {
+                    users.remove(userId);
+                }
+                return true;
+            }
+            if (online) {
+                chatUsers.computeIfAbsent(chatId, id -> new HashSet<>()).add(userId);
+                return true;
+            }
+            Set<UUID> chatOnline = chatUsers.get(chatId);
+            if (chatOnline != null && chatOnline.remove(userId) && chatOnline.isEmpty()) {
+                chatUsers.remove(chatId);
+            }
+            return true;
+        }
+
+        /**
+         * @return false, если известное состояние расходится с heartbeat узла
+         */
+        synchronized boolean confirm(long heartbeatVersion) {
+            seenAt = System.currentTimeMillis();
+            return version >= 0 && version == heartbeatVersion;
+        }
+
+        synchronized void replace(long snapshotVersion, List<UUID> snapshotUsers, Map<Long, List<UUID>> snapshotChats) {
+            seenAt = System.currentTimeMillis();
+            version = snapshotVersion;
+            syncRequestedAt = 0;
+            users.clear();
+            users.addAll(snapshotUsers);
+            chatUsers.clear();
+            snapshotChats.forEach((chatId, chatOnline) -> chatUsers.put(chatId, new HashSet<>(chatOnline)));
+        }
+
+        synchronized boolean markSyncRequested(long retryAfterMs) {
+            long now = System.currentTimeMillis();
+            if (now - syncRequestedAt < retryAfterMs) {
+                return false;
+            }
+            syncRequestedAt = now;
+            return true;
+        }
+
+        synchronized void addChatUsers(Long chatId, Set<UUID> target) {
+            Set<UUID> chatOnline = chatUsers.get(chatId);
+            if (chatOnline != null) {
+                target.addAll(chatOnline);
+            }
+        }
+
+        synchronized boolean hasUser(UUID userId) {
+            return users.contains(userId);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ru.ogyrecheksan.chatmicroservice.cluster;
+
+import java.util.UUID;
+
+/**
+ * Отображение чатов и пользователей на партиции шины.
+ *
+ * События чата (/topic/chat/{chatId}) идут в партицию chatId, персональные (/user/{userId}/queue/...) –
+ * в партицию получателя. Число партиций (chat.broker.partitions) должно совпадать на всех узлах.
+ */
+public class EventPartitioner {
+
+    private final int partitions;
+
+    public EventPartitioner(int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("chat.broker.partitions must be positive: " + partitions);
+        }
+        this.partitions = partitions;
+    }
+
+    public int forChat(long chatId) {
+        return (int) Math.floorMod(chatId, (long) partitions);
+    }
+
+    public int forUser(UUID userId) {
+        return Math.floorMod(userId.hashCode(), partitions);
+    }
+}
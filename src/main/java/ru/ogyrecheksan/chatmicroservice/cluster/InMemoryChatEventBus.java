@@ -0,0 +1,60 @@
+package ru.ogyrecheksan.chatmicroservice.cluster;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process шина: узлы одного JVM (например, несколько контекстов в тесте) с одинаковым
+ * chat.broker.cluster-name видят события друг друга. Для production – chat.broker.transport=postgres.
+ */
+public class InMemoryChatEventBus implements ChatEventBus, DisposableBean {
+
+    private static final Map<String, Set<InMemoryChatEventBus>> CLUSTERS = new ConcurrentHashMap<>();
+
+    private final String clusterName;
+    private final Set<Integer> partitions = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<ClusterEvent>> consumers = new CopyOnWriteArrayList<>();
+
+    public InMemoryChatEventBus(String clusterName) {
+        this.clusterName = clusterName;
+        CLUSTERS.computeIfAbsent(clusterName, k -> ConcurrentHashMap.newKeySet()).add(this);
+    }
+
+    @Override
+    public void publish(int partition, ClusterEvent event) {
+        for (InMemoryChatEventBus node : CLUSTERS.getOrDefault(clusterName, Set.of())) {
+            if (node != this && node.partitions.contains(partition)) {
+                node.consumers.forEach(consumer -> consumer.accept(event));
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterEvent> consumer) {
+        consumers.add(consumer);
+    }
+
+    @Override
+    public void joinPartition(int partition) {
+        partitions.add(partition);
+    }
+
+    @Override
+    public void leavePartition(int partition) {
+        partitions.remove(partition);
+    }
+
+    @Override
+    public void destroy() {
+        Set<InMemoryChatEventBus> nodes = CLUSTERS.get(clusterName);
+        if (nodes != null) {
+            nodes.remove(this);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ru.ogyrecheksan.chatmicroservice.cluster;
+
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Держит подписку узла на партиции шины в соответствии с WebSocketSubscriptionRegistry:
+ *  - первая локальная подписка на /topic/chat/{chatId} – вступить в партицию чата
+ *  - первая сессия пользователя на узле – вступить в партицию пользователя (персональные очереди)
+ * и выйти, когда последний такой источник закрылся. Несколько чатов/пользователей могут попасть
+ * в одну партицию, поэтому ведется счетчик ссылок. CONTROL_PARTITION узел слушает всегда.
+ */
+public class PartitionSubscriptionManager implements WebSocketSubscriptionRegistry.ActivityListener {
+
+    private final ChatEventBus eventBus;
+    private final EventPartitioner partitioner;
+    private final Map<Integer, Integer> references = new HashMap<>();
+
+    public PartitionSubscriptionManager(ChatEventBus eventBus,
+                                        EventPartitioner partitioner,
+                                        WebSocketSubscriptionRegistry subscriptionRegistry) {
+        this.eventBus = eventBus;
+        this.partitioner = partitioner;
+        eventBus.joinPartition(ChatEventBus.CONTROL_PARTITION);
+        subscriptionRegistry.addListener(this);
+    }
+
+    @Override
+    public void chatActivated(Long chatId) {
+        acquire(partitioner.forChat(chatId));
+    }
+
+    @Override
+    public void chatDeactivated(Long chatId) {
+        release(partitioner.forChat(chatId));
+    }
+
+    @Override
+    public void userConnected(UUID userId) {
+        acquire(partitioner.forUser(userId));
+    }
+
+    @Override
+    public void userDisconnected(UUID userId) {
+        release(partitioner.forUser(userId));
+    }
+
+    public synchronized boolean isJoined(int partition) {
+        return references.containsKey(partition);
+    }
+
+    private synchronized void acquire(int partition) {
+        if (references.merge(partition, 1, Integer::sum) == 1) {
+            eventBus.joinPartition(partition);
+        }
+    }
+
+    private synchronized void release(int partition) {
+        Integer remaining = references.computeIfPresent(partition, (k, count) -> count > 1 ? count - 1 : null);
+        if (remaining == null) {
+            eventBus.leavePartition(partition);
+        }
+    }
+}
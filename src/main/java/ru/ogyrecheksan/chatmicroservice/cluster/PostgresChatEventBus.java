@@ -0,0 +1,200 @@
+package ru.ogyrecheksan.chatmicroservice.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Шина на PostgreSQL LISTEN/NOTIFY (chat.broker.transport=postgres).
+ *
+ * Партиция – отдельный канал {cluster-name}_p{N}, служебная – {cluster-name}_control.
+ * Публикация – pg_notify через общий пул: внутри транзакции уведомление уходит только после коммита.
+ * Прием – на выделенном соединении (берется из listenerDataSource один раз и не возвращается), которое держит
+ * поток chat-bus-listener: он выполняет LISTEN/UNLISTEN по текущему набору партиций узла и забирает уведомления.
+ *
+ * Payload NOTIFY ограничен ~8000 байт: большие события кладутся в таблицу chat_bus_spill,
+ * а в уведомлении передается только "#id". Строки старше SPILL_RETENTION удаляются фоново.
+ */
+@Slf4j
+public class PostgresChatEventBus implements ChatEventBus, DisposableBean {
+
+    private static final int MAX_INLINE_PAYLOAD_BYTES = 7900;
+    private static final String SPILL_PREFIX = "#";
+    private static final int POLL_TIMEOUT_MS = 100;
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final long SPILL_CLEANUP_INTERVAL_MS = 60_000;
+    private static final String SPILL_RETENTION = "5 minutes";
+
+    private final DataSource listenerDataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final String channelPrefix;
+    private final Set<Integer> partitions = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<ClusterEvent>> consumers = new CopyOnWriteArrayList<>();
+    private final Thread listener;
+    private volatile boolean running = true;
+
+    /**
+     * @param dataSource         пул для публикации и chat_bus_spill
+     * @param listenerDataSource источник постоянного LISTEN-соединения – без ограничителя одновременных
+     *                           соединений, иначе соединение навсегда занимает одно его разрешение
+     */
+    public PostgresChatEventBus(DataSource dataSource, DataSource listenerDataSource,
+                                ObjectMapper objectMapper, String clusterName) {
+        this.listenerDataSource = listenerDataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.objectMapper = objectMapper;
+        this.channelPrefix = clusterName.toLowerCase().replaceAll("[^a-z0-9_]", "_");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS chat_bus_spill ("
+                + "id BIGSERIAL PRIMARY KEY, "
+                + "payload TEXT NOT NULL, "
+                + "created_at TIMESTAMP NOT NULL DEFAULT now())");
+        this.listener = Thread.ofPlatform().name("chat-bus-listener").daemon().start(this::listenLoop);
+    }
+
+    @Override
+    public void publish(int partition, ClusterEvent event) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize cluster event", e);
+        }
+        String notification = json.length <= MAX_INLINE_PAYLOAD_BYTES
+                ? new String(json, StandardCharsets.UTF_8)
+                : SPILL_PREFIX + jdbcTemplate.queryForObject(
+                        "INSERT INTO chat_bus_spill (payload) VALUES (?) RETURNING id",
+                        Long.class, new String(json, StandardCharsets.UTF_8));
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, channel(partition), notification);
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterEvent> consumer) {
+        consumers.add(consumer);
+    }
+
+    @Override
+    public void joinPartition(int partition) {
+        partitions.add(partition);
+    }
+
+    @Override
+    public void leavePartition(int partition) {
+        partitions.remove(partition);
+    }
+
+    private void listenLoop() {
+        Connection connection = null;
+        Set<Integer> listening = new HashSet<>();
+        long lastCleanup = System.currentTimeMillis();
+        while (running) {
+            try {
+                if (connection == null) {
+                    connection = listenerDataSource.getConnection();
+                    connection.setAutoCommit(true);
+                    listening.clear();
+                }
+                syncListening(connection, listening);
+                PGNotification[] notifications = connection.unwrap(PGConnection.class).getNotifications(POLL_TIMEOUT_MS);
+                if (notifications != null) {
+                    for (PGNotification notification : notifications) {
+                        dispatch(notification.getParameter());
+                    }
+                }
+                if (System.currentTimeMillis() - lastCleanup > SPILL_CLEANUP_INTERVAL_MS) {
+                    lastCleanup = System.currentTimeMillis();
+                    jdbcTemplate.update("DELETE FROM chat_bus_spill WHERE created_at < now() - interval '"
+                            + SPILL_RETENTION + "'");
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                // уведомления, пришедшие во время переподключения, теряются – как и у simple broker при рестарте
+                log.warn("Cluster event bus listener failed, reconnecting", e);
+                closeQuietly(connection);
+                connection = null;
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        closeQuietly(connection);
+    }
+
+    /**
+     * LISTEN/UNLISTEN выполняются только в потоке слушателя – соединение не разделяется между потоками.
+     */
+    private void syncListening(Connection connection, Set<Integer> listening) throws SQLException {
+        Set<Integer> wanted = Set.copyOf(partitions);
+        if (wanted.equals(listening)) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (Integer partition : wanted) {
+                if (!listening.contains(partition)) {
+                    statement.execute("LISTEN \"" + channel(partition) + "\"");
+                }
+            }
+            for (Integer partition : listening) {
+                if (!wanted.contains(partition)) {
+                    statement.execute("UNLISTEN \"" + channel(partition) + "\"");
+                }
+            }
+        }
+        listening.clear();
+        listening.addAll(wanted);
+    }
+
+    private void dispatch(String notification) {
+        try {
+            String json = notification.startsWith(SPILL_PREFIX)
+                    ? jdbcTemplate.queryForObject("SELECT payload FROM chat_bus_spill WHERE id = ?",
+                            String.class, Long.parseLong(notification.substring(SPILL_PREFIX.length())))
+                    : notification;
+            ClusterEvent event = objectMapper.readValue(json, ClusterEvent.class);
+            consumers.forEach(consumer -> consumer.accept(event));
+        } catch (Exception e) {
+            log.error("Failed to handle cluster event notification", e);
+        }
+    }
+
+    private String channel(int partition) {
+        return partition == CONTROL_PARTITION ? channelPrefix + "_control" : channelPrefix + "_p" + partition;
+    }
+
+    private void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Failed to close listener connection", e);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        listener.join(POLL_TIMEOUT_MS * 10L);
+    }
+}
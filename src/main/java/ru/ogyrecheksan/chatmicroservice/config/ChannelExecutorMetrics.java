@@ -0,0 +1,131 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Создает исполнители STOMP-каналов и heartbeat-планировщик и публикует их состояние в Micrometer
+ * с тегом channel (inbound, outbound, heartbeat):
+ * chat.websocket.executor.active – занятые потоки (в виртуальном режиме – выполняющиеся задачи),
+ * chat.websocket.executor.queued – задачи в очереди, chat.websocket.executor.pool.size – потоки пула,
+ * chat.websocket.executor.rejected – задачи, отклоненные из-за переполненной очереди.
+ */
+public class ChannelExecutorMetrics implements MeterBinder {
+
+    private final List<Channel> channels = new ArrayList<>();
+
+    /**
+     * Пул фиксированного размера с ограниченной очередью: при переполнении задача отклоняется
+     * (TaskRejectedException у отправителя) и учитывается в chat.websocket.executor.rejected.
+     */
+    public ThreadPoolTaskExecutor platformExecutor(String channel, String threadNamePrefix,
+                                                   int poolSize, int queueCapacity) {
+        Channel metrics = new Channel(channel);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(metrics.countingRejections(new ThreadPoolExecutor.AbortPolicy()));
+        metrics.active = executor::getActiveCount;
+        metrics.queued = executor::getQueueSize;
+        metrics.poolSize = executor::getPoolSize;
+        channels.add(metrics);
+        return executor;
+    }
+
+    /**
+     * Виртуальный поток на задачу: очереди нет, active – число выполняющихся задач.
+     */
+    public TaskExecutor virtualExecutor(String channel, String threadNamePrefix) {
+        Channel metrics = new Channel(channel);
+        AtomicInteger running = new AtomicInteger();
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setTaskDecorator(task -> () -> {
+            running.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+        metrics.active = running::get;
+        metrics.poolSize = running::get;
+        channels.add(metrics);
+        return executor;
+    }
+
+    /**
+     * Планировщик heartbeat'ов; queued – число запланированных задач (по одной на сессию с heartbeat).
+     */
+    public ThreadPoolTaskScheduler scheduler(String channel, String threadNamePrefix, int poolSize) {
+        Channel metrics = new Channel(channel);
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix(threadNamePrefix);
+        scheduler.setRejectedExecutionHandler(metrics.countingRejections(new ThreadPoolExecutor.AbortPolicy()));
+        scheduler.initialize();
+        metrics.active = scheduler::getActiveCount;
+        metrics.queued = () -> scheduler.getScheduledThreadPoolExecutor().getQueue().size();
+        metrics.poolSize = scheduler::getPoolSize;
+        channels.add(metrics);
+        return scheduler;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Channel channel : channels) {
+            Gauge.builder("chat.websocket.executor.active", channel.active, IntSupplier::getAsInt)
+                    .description("Busy threads (running tasks for virtual threads) of a STOMP channel executor")
+                    .tag("channel", channel.name)
+                    .register(registry);
+            Gauge.builder("chat.websocket.executor.queued", channel.queued, IntSupplier::getAsInt)
+                    .description("Tasks waiting in the STOMP channel executor queue")
+                    .tag("channel", channel.name)
+                    .register(registry);
+            Gauge.builder("chat.websocket.executor.pool.size", channel.poolSize, IntSupplier::getAsInt)
+                    .description("Threads of a STOMP channel executor")
+                    .tag("channel", channel.name)
+                    .register(registry);
+            FunctionCounter.builder("chat.websocket.executor.rejected", channel.rejected, AtomicLong::get)
+                    .description("Tasks rejected by a STOMP channel executor")
+                    .tag("channel", channel.name)
+                    .register(registry);
+        }
+    }
+
+    private static final class Channel {
+
+        private final String name;
+        private final AtomicLong rejected = new AtomicLong();
+        private IntSupplier active = () -> 0;
+        private IntSupplier queued = () -> 0;
+        private IntSupplier poolSize = () -> 0;
+
+        private Channel(String name) {
+            this.name = name;
+        }
+
+        private RejectedExecutionHandler countingRejections(RejectedExecutionHandler delegate) {
+            return (task, executor) -> {
+                rejected.incrementAndGet();
+                delegate.rejectedExecution(task, executor);
+            };
+        }
+    }
+}
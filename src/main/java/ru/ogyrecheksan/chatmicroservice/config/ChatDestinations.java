@@ -0,0 +1,61 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+/**
+ * Разбор STOMP destination чата без regex и аллокаций (кадр SEND/SUBSCRIBE проверяется на каждый typing).
+ *
+ * Чатовые destinations:
+ *  - /topic/chat/{chatId}         – ровно так, без хвоста
+ *  - /app/chat/{chatId}[...]      – после цифр допускается любой хвост (/sendMessage, /typing, ...)
+ *
+ * Результат – chatId (>= 0), NONE для прочих destinations и MALFORMED, если id не помещается в long.
+ */
+public final class ChatDestinations {
+
+    /** Destination не относится к чату – проверка членства не нужна. */
+    public static final long NONE = -1;
+    /** Destination чата с id вне диапазона long – такого чата нет. */
+    public static final long MALFORMED = -2;
+
+    private static final String TOPIC_PREFIX = "/topic/chat/";
+    private static final String APP_PREFIX = "/app/chat/";
+
+    private ChatDestinations() {
+    }
+
+    public static long chatId(String destination) {
+        // Первые символы различают /topic, /app и все остальное (/user/..., /queue/...) за одно сравнение
+        if (destination.length() < 2 || destination.charAt(0) != '/') {
+            return NONE;
+        }
+        char first = destination.charAt(1);
+        if (first == 't' && destination.startsWith(TOPIC_PREFIX)) {
+            return parseId(destination, TOPIC_PREFIX.length(), false);
+        }
+        if (first == 'a' && destination.startsWith(APP_PREFIX)) {
+            return parseId(destination, APP_PREFIX.length(), true);
+        }
+        return NONE;
+    }
+
+    private static long parseId(String destination, int start, boolean suffixAllowed) {
+        int length = destination.length();
+        int end = start;
+        long id = 0;
+        boolean overflow = false;
+        while (end < length) {
+            int digit = destination.charAt(end) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (id > (Long.MAX_VALUE - digit) / 10) {
+                overflow = true;
+            }
+            id = id * 10 + digit;
+            end++;
+        }
+        if (end == start || (end < length && !suffixAllowed)) {
+            return NONE;
+        }
+        return overflow ? MALFORMED : id;
+    }
+}
@@ -0,0 +1,61 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+import lombok.Getter;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Пользователь STOMP-сессии, созданный WebSocketSecurityInterceptor на CONNECT после проверки JWT.
+ *
+ * Неизменяемый: userId разобран один раз, имя (им адресуются /user/{name}/queue/...) – его строка.
+ * Хранит снимок членства на момент CONNECT (отсортированные chatIds, эпоха ChatMembershipCache и время),
+ * чтобы SEND/SUBSCRIBE проверялись без поиска в кэше, пока снимок актуален (ChatMembershipCache.isSnapshotValid).
+ * authorization – заголовок Authorization из CONNECT: с ним STOMP-обработчики ходят в user-service от имени
+ * пользователя (null, если сессия аутентифицирована при handshake). В toString не попадает.
+ */
+public final class ChatPrincipal implements Principal {
+
+    @Getter
+    private final UUID userId;
+    private final String name;
+    private final long[] chatIds;
+    @Getter
+    private final long snapshotEpoch;
+    @Getter
+    private final long snapshotTakenAtNanos;
+    @Getter
+    private final String authorization;
+
+    /**
+     * @param chatIds активные чаты пользователя по возрастанию id (массив копируется)
+     * @param authorization заголовок Authorization ("Bearer ...") из CONNECT или null
+     */
+    public ChatPrincipal(UUID userId, long[] chatIds, long snapshotEpoch, long snapshotTakenAtNanos,
+                         String authorization) {
+        this.userId = userId;
+        this.name = userId.toString();
+        this.chatIds = chatIds.clone();
+        this.snapshotEpoch = snapshotEpoch;
+        this.snapshotTakenAtNanos = snapshotTakenAtNanos;
+        this.authorization = authorization;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Участник чата по снимку на момент CONNECT.
+     */
+    public boolean isSnapshotMember(long chatId) {
+        return Arrays.binarySearch(chatIds, chatId) >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,87 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.messaging.MessageChannel;
+import ru.ogyrecheksan.chatmicroservice.cluster.ChatEventBus;
+import ru.ogyrecheksan.chatmicroservice.cluster.ClusterBrokerRelay;
+import ru.ogyrecheksan.chatmicroservice.cluster.ClusterPresence;
+import ru.ogyrecheksan.chatmicroservice.cluster.EventPartitioner;
+import ru.ogyrecheksan.chatmicroservice.cluster.InMemoryChatEventBus;
+import ru.ogyrecheksan.chatmicroservice.cluster.PartitionSubscriptionManager;
+import ru.ogyrecheksan.chatmicroservice.cluster.PostgresChatEventBus;
+import ru.ogyrecheksan.chatmicroservice.service.ChatMembershipCache;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import javax.sql.DataSource;
+
+/**
+ * Cluster-режим брокера: chat.broker.mode=cluster.
+ *
+ * По умолчанию (chat.broker.mode=simple) бины не создаются и работает только локальный simple broker.
+ * Шина выбирается через chat.broker.transport: postgres (LISTEN/NOTIFY) или in-memory (тесты/один JVM).
+ * ClusterPresence использует nodeId релея – узел одинаково представлен во всех событиях шины.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.broker.mode", havingValue = "cluster")
+public class ClusterBrokerConfig {
+
+    @Bean
+    @ConditionalOnMissingBean(ChatEventBus.class)
+    @ConditionalOnProperty(name = "chat.broker.transport", havingValue = "in-memory", matchIfMissing = true)
+    public InMemoryChatEventBus inMemoryChatEventBus(@Value("${chat.broker.cluster-name:chat}") String clusterName) {
+        return new InMemoryChatEventBus(clusterName);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(ChatEventBus.class)
+    @ConditionalOnProperty(name = "chat.broker.transport", havingValue = "postgres")
+    public PostgresChatEventBus postgresChatEventBus(DataSource dataSource,
+                                                     ObjectMapper objectMapper,
+                                                     @Value("${chat.broker.cluster-name:chat}") String clusterName) {
+        // LISTEN-соединение не возвращается в пул – берется мимо chat.jdbc.max-concurrency
+        DataSource listenerDataSource = dataSource instanceof ConcurrencyLimitedDataSource limited
+                ? limited.getTargetDataSource()
+                : dataSource;
+        return new PostgresChatEventBus(dataSource, listenerDataSource, objectMapper, clusterName);
+    }
+
+    @Bean
+    public EventPartitioner eventPartitioner(@Value("${chat.broker.partitions:256}") int partitions) {
+        return new EventPartitioner(partitions);
+    }
+
+    @Bean
+    public PartitionSubscriptionManager partitionSubscriptionManager(ChatEventBus eventBus,
+                                                                     EventPartitioner partitioner,
+                                                                     WebSocketSubscriptionRegistry subscriptionRegistry) {
+        return new PartitionSubscriptionManager(eventBus, partitioner, subscriptionRegistry);
+    }
+
+    @Bean
+    public ClusterBrokerRelay clusterBrokerRelay(
+            @Value("${chat.broker.node-id:#{T(java.util.UUID).randomUUID().toString()}}") String nodeId,
+            ChatEventBus eventBus,
+            EventPartitioner partitioner,
+            ChatMembershipCache membershipCache,
+            @Qualifier("brokerChannel") ObjectProvider<MessageChannel> brokerChannel) {
+        return new ClusterBrokerRelay(nodeId, eventBus, partitioner, membershipCache, brokerChannel);
+    }
+
+    // узел уже слушает CONTROL_PARTITION (PartitionSubscriptionManager), когда ClusterPresence запрашивает снимки
+    @Bean
+    @DependsOn("partitionSubscriptionManager")
+    public ClusterPresence clusterPresence(ClusterBrokerRelay clusterBrokerRelay,
+                                           ChatEventBus eventBus,
+                                           WebSocketSubscriptionRegistry subscriptionRegistry,
+                                           @Value("${chat.broker.presence-refresh-ms:10000}") long refreshIntervalMs) {
+        return new ClusterPresence(clusterBrokerRelay.getNodeId(), eventBus, subscriptionRegistry, refreshIntervalMs);
+    }
+}
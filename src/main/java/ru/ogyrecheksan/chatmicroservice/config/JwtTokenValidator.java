@@ -1,58 +1,133 @@
 package ru.ogyrecheksan.chatmicroservice.config;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import javax.crypto.SecretKey;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Аутентификация по JWT из заголовка Authorization.
+ *
+ * Парсер (ключ, алгоритмы) собирается один раз. Проверенные токены кэшируются по SHA-256 токена
+ * (сам токен в памяти не хранится): повторный запрос с тем же токеном не проверяет HMAC и не разбирает JSON.
+ * Запись живет chat.jwt.cache.max-ttl-seconds, но после exp токена не используется – токен проверяется заново
+ * (и отклоняется парсером). Невалидные токены не кэшируются. Размер – chat.jwt.cache.max-size (0 – без кэша).
+ * Обслуживание кэша – в вызывающем потоке: на одном-двух CPU передача в общий ForkJoinPool дороже самой работы.
+ *
+ * Метрики: cache.gets{cache=chat.jwt, result=hit|miss}, cache.evictions, cache.size.
+ */
 public class JwtTokenValidator extends OncePerRequestFilter {
 
-    private final SecretKey key;
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final List<GrantedAuthority> AUTHORITIES = List.of(new SimpleGrantedAuthority("ROLE_USER"));
 
-    public JwtTokenValidator(String jwtSecret) {
-        this.key = Keys.hmacShaKeyFor(jwtSecret.getBytes());
+    private final JwtParser parser;
+    private final MessageDigest sha256;
+    private final Cache<ByteBuffer, VerifiedToken> verifiedTokens;
+
+    public JwtTokenValidator(String jwtSecret, MeterRegistry meterRegistry, long cacheMaxSize, long cacheMaxTtlSeconds) {
+        SecretKey key = Keys.hmacShaKeyFor(jwtSecret.getBytes());
+        this.parser = Jwts.parser().verifyWith(key).build();
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(cacheMaxTtlSeconds))
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "chat.jwt");
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
                                     FilterChain filterChain) throws ServletException, IOException {
 
-        String jwt = request.getHeader("Authorization");
-
-        if (jwt != null && jwt.startsWith("Bearer ")) {
-            try {
-                jwt = jwt.substring(7);
-                Claims claims = Jwts.parser()
-                        .verifyWith(key)
-                        .build()
-                        .parseSignedClaims(jwt)
-                        .getPayload();
-
-                String userId = claims.get("userId", String.class);
-                String email = claims.get("email", String.class);
-
-                UsernamePasswordAuthenticationToken auth =
-                        new UsernamePasswordAuthenticationToken(
-                                userId != null ? userId : email,
-                                null,
-                                List.of(new SimpleGrantedAuthority("ROLE_USER")));
-                SecurityContextHolder.getContext().setAuthentication(auth);
-
-            } catch (Exception e) {
-                logger.error("JWT validation error", e);
-            }
+        UsernamePasswordAuthenticationToken auth = authenticate(request.getHeader("Authorization"));
+        if (auth != null) {
+            SecurityContextHolder.getContext().setAuthentication(auth);
         }
         filterChain.doFilter(request, response);
     }
-}
\ No newline at end of file
+
+    /**
+     * @param authorization значение заголовка Authorization ("Bearer ...")
+     * @return аутентификация (имя – userId, либо email, если userId в токене нет) или null, если токена нет или он невалиден
+     */
+    public UsernamePasswordAuthenticationToken authenticate(String authorization) {
+        if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+            return null;
+        }
+        String jwt = authorization.substring(BEARER_PREFIX.length());
+        ByteBuffer tokenHash = hash(jwt);
+        VerifiedToken token = verifiedTokens.getIfPresent(tokenHash);
+        if (token != null && token.expiresAtMillis() <= System.currentTimeMillis()) {
+            verifiedTokens.invalidate(tokenHash);
+            token = null;
+        }
+        if (token == null) {
+            token = verify(jwt);
+            if (token == null) {
+                return null;
+            }
+            verifiedTokens.put(tokenHash, token);
+        }
+        return new UsernamePasswordAuthenticationToken(token.principal(), null, AUTHORITIES);
+    }
+
+    private VerifiedToken verify(String jwt) {
+        try {
+            Claims claims = parser.parseSignedClaims(jwt).getPayload();
+
+            String userId = claims.get("userId", String.class);
+            String email = claims.get("email", String.class);
+            Date expiration = claims.getExpiration();
+            return new VerifiedToken(userId != null ? userId : email,
+                    expiration != null ? expiration.getTime() : Long.MAX_VALUE);
+        } catch (Exception e) {
+            logger.error("JWT validation error", e);
+            return null;
+        }
+    }
+
+    private ByteBuffer hash(String jwt) {
+        MessageDigest digest;
+        try {
+            // clone дешевле getInstance и не требует синхронизации
+            digest = (MessageDigest) sha256.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-256 digest is not cloneable", e);
+        }
+        return ByteBuffer.wrap(digest.digest(jwt.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private record VerifiedToken(String principal, long expiresAtMillis) {
+    }
+}
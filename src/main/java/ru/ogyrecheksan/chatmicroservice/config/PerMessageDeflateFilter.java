@@ -0,0 +1,52 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * Отключает permessage-deflate для WebSocket-handshake.
+ *
+ * Tomcat сам согласует расширение, если клиент его предлагает (Sec-WebSocket-Extensions), и держит
+ * на каждое соединение по паре zlib-контекстов с окном до 32 KB. Когда память на соединение важнее трафика,
+ * фильтр (chat.websocket.permessage-deflate=false) прячет предложение клиента, и соединение остается без сжатия.
+ */
+public class PerMessageDeflateFilter extends OncePerRequestFilter {
+
+    private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        if (request.getHeader(EXTENSIONS_HEADER) == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        filterChain.doFilter(new HttpServletRequestWrapper(request) {
+            @Override
+            public String getHeader(String name) {
+                return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+            }
+
+            @Override
+            public Enumeration<String> getHeaders(String name) {
+                return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+            }
+
+            @Override
+            public Enumeration<String> getHeaderNames() {
+                return Collections.enumeration(Collections.list(super.getHeaderNames()).stream()
+                        .filter(name -> !EXTENSIONS_HEADER.equalsIgnoreCase(name))
+                        .toList());
+            }
+        }, response);
+    }
+}
@@ -1,5 +1,6 @@
 package ru.ogyrecheksan.chatmicroservice.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -14,8 +15,11 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 public class SecurityConfig {
 
     @Bean
-    public JwtTokenValidator jwtTokenValidator(@Value("${auth.jwt.secret}") String jwtSecret) {
-        return new JwtTokenValidator(jwtSecret);
+    public JwtTokenValidator jwtTokenValidator(@Value("${auth.jwt.secret}") String jwtSecret,
+                                               MeterRegistry meterRegistry,
+                                               @Value("${chat.jwt.cache.max-size:100000}") long cacheMaxSize,
+                                               @Value("${chat.jwt.cache.max-ttl-seconds:600}") long cacheMaxTtlSeconds) {
+        return new JwtTokenValidator(jwtSecret, meterRegistry, cacheMaxSize, cacheMaxTtlSeconds);
     }
 
     @Bean
@@ -0,0 +1,346 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+import ru.ogyrecheksan.chatmicroservice.config.WireFormatCodec.WireFormat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Защита от медленных клиентов: политика переполнения исходящего буфера WebSocket-сессии.
+ *
+ * Spring буферизует кадры для сессии, которая не успевает их принимать (ConcurrentWebSocketSessionDecorator),
+ * и при переполнении просто рвет соединение. Здесь перед постановкой кадра в буфер смотрим на его заполнение:
+ * пока буфер больше chat.websocket.slow-consumer.shed-buffer-size байт или shed-messages кадров,
+ * эфемерные события (TYPING, USER_ONLINE, USER_OFFLINE) отбрасываются, а RECEIPTS копятся по подписке
+ * и склеиваются (watermark'и – максимум по пользователю) до разгрузки буфера. Отложенные RECEIPTS уходят,
+ * как только сокет разобрал буфер (после отправки очередного кадра), не дожидаясь следующего кадра сессии.
+ * Если буфер все равно превышает send-buffer-size-limit, max-buffered-messages или отправка висит дольше
+ * send-time-limit-ms, сессия закрывается с SLOW_CONSUMER: клиент переподключается и догружает историю.
+ *
+ * Здесь же кадры перекодируются в формат, выбранный сессией при CONNECT (см. WireFormatCodec):
+ * политика переполнения смотрит на JSON, в буфер сессии попадает уже перекодированный кадр.
+ */
+@Slf4j
+public class SlowConsumerWebSocketHandler extends SubProtocolWebSocketHandler {
+
+    /**
+     * Код закрытия (диапазон приложения 4000-4999) – подсказка клиенту выполнить resync.
+     */
+    public static final CloseStatus SLOW_CONSUMER = new CloseStatus(4429, "Slow consumer, resync required");
+
+    private static final Set<String> EPHEMERAL_TYPES = Set.of("TYPING", "USER_ONLINE", "USER_OFFLINE");
+    private static final String RECEIPTS_TYPE = "RECEIPTS";
+    private static final byte[] TYPE_PREFIX = "{\"type\":\"".getBytes(StandardCharsets.UTF_8);
+    // Spring рвет соединение сам, если буфер превысил его лимит; наш лимит срабатывает раньше
+    private static final int SPRING_LIMIT_HEADROOM = 64 * 1024;
+
+    public enum OverflowPolicy {
+        DISCONNECT, DROP_EPHEMERAL, COALESCE;
+
+        public static OverflowPolicy from(String value) {
+            return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final OverflowPolicy policy;
+    private final int shedBufferSize;
+    private final int shedMessages;
+    private final int maxBufferedMessages;
+    private final ObjectMapper objectMapper;
+    private final WireFormatCodec wireFormatCodec;
+    private final Map<String, SessionBuffer> sessions = new ConcurrentHashMap<>();
+    // сброс после разгрузки буфера – не в потоке, который пишет в сокет (тот держит блокировку буфера сессии)
+    private final ThreadFactory flushThreads = Thread.ofVirtual().name("chat-ws-receipts-", 0).factory();
+    private final Counter droppedEphemeral;
+    private final Counter coalescedReceipts;
+    private final Counter evictedSessions;
+
+    public SlowConsumerWebSocketHandler(MessageChannel clientInboundChannel,
+                                        SubscribableChannel clientOutboundChannel,
+                                        OverflowPolicy policy,
+                                        int shedBufferSize,
+                                        int shedMessages,
+                                        int maxBufferedMessages,
+                                        ObjectMapper objectMapper,
+                                        WireFormatCodec wireFormatCodec,
+                                        MeterRegistry meterRegistry) {
+        super(clientInboundChannel, clientOutboundChannel);
+        this.policy = policy;
+        this.shedBufferSize = shedBufferSize;
+        this.shedMessages = shedMessages;
+        this.maxBufferedMessages = maxBufferedMessages;
+        this.objectMapper = objectMapper;
+        this.wireFormatCodec = wireFormatCodec;
+        this.droppedEphemeral = Counter.builder("chat.websocket.slow-consumer.dropped")
+                .description("Frames not sent to slow WebSocket sessions")
+                .tag("reason", "ephemeral")
+                .register(meterRegistry);
+        this.coalescedReceipts = Counter.builder("chat.websocket.slow-consumer.dropped")
+                .description("Frames not sent to slow WebSocket sessions")
+                .tag("reason", "coalesced")
+                .register(meterRegistry);
+        this.evictedSessions = Counter.builder("chat.websocket.slow-consumer.evicted")
+                .description("WebSocket sessions closed because they could not keep up")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected WebSocketSession decorateSession(WebSocketSession session) {
+        SessionBuffer buffer = new SessionBuffer(session, getSendTimeLimit(),
+                getSendBufferSizeLimit() + SPRING_LIMIT_HEADROOM, this::onFrameSent);
+        sessions.put(session.getId(), buffer);
+        return buffer;
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+        sessions.remove(session.getId());
+        super.afterConnectionClosed(session, closeStatus);
+    }
+
+    @Override
+    public void handleMessage(Message<?> message) throws MessagingException {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        SessionBuffer session = sessionId != null ? sessions.get(sessionId) : null;
+        if (session == null) {
+            super.handleMessage(message);
+            return;
+        }
+        if (session.evicted) {
+            return;
+        }
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.CONNECT_ACK) {
+            negotiateFormat(session, message);
+        }
+        if (exceedsLimits(session, message)) {
+            evict(session);
+            return;
+        }
+        if (isUnderPressure(session)) {
+            if (shed(session, message)) {
+                return;
+            }
+        } else if (!session.parkedReceipts.isEmpty()) {
+            flushParked(session);
+        }
+        deliver(session, message);
+    }
+
+    private void deliver(SessionBuffer session, Message<?> message) {
+        super.handleMessage(wireFormatCodec.encode(message, session.format));
+    }
+
+    private void negotiateFormat(SessionBuffer session, Message<?> connectAck) {
+        WireFormat format = wireFormatCodec.negotiate(connectAck);
+        // SockJS передает только текст
+        if (format != WireFormat.JSON && WebSocketSessionDecorator.unwrap(session) instanceof SockJsSession) {
+            log.debug("Session {} requested {} frames over SockJS, using JSON", session.getId(), format);
+            format = WireFormat.JSON;
+        }
+        session.format = format;
+    }
+
+    private boolean exceedsLimits(SessionBuffer session, Message<?> message) {
+        int size = message.getPayload() instanceof byte[] payload ? payload.length : 0;
+        // одиночный крупный кадр (например, HISTORY) в пустой буфер – не повод отключать
+        int buffered = session.getBufferSize();
+        return buffered > 0 && buffered + size > getSendBufferSizeLimit()
+                || session.pending.get() >= maxBufferedMessages
+                || session.getTimeSinceSendStarted() > getSendTimeLimit();
+    }
+
+    private boolean isUnderPressure(SessionBuffer session) {
+        return session.getBufferSize() > shedBufferSize || session.pending.get() > shedMessages;
+    }
+
+    /**
+     * @return true, если кадр не нужно отправлять сейчас (отброшен или отложен для склейки)
+     */
+    private boolean shed(SessionBuffer session, Message<?> message) {
+        if (policy == OverflowPolicy.DISCONNECT
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return false;
+        }
+        String type = eventType(payload);
+        if (type == null) {
+            return false;
+        }
+        if (EPHEMERAL_TYPES.contains(type)) {
+            droppedEphemeral.increment();
+            return true;
+        }
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders());
+        if (policy == OverflowPolicy.COALESCE && RECEIPTS_TYPE.equals(type) && subscriptionId != null) {
+            @SuppressWarnings("unchecked")
+            Message<byte[]> receipts = (Message<byte[]>) message;
+            session.parkedReceipts.merge(subscriptionId, receipts, (parked, next) -> {
+                coalescedReceipts.increment();
+                return mergeReceipts(parked, next);
+            });
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Кадр ушел в сокет: если буфер разгрузился, а RECEIPTS отложены – отправляем их, не дожидаясь нового кадра.
+     */
+    private void onFrameSent(SessionBuffer session) {
+        if (session.parkedReceipts.isEmpty() || session.evicted || isUnderPressure(session)
+                || !session.flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        flushThreads.newThread(() -> {
+            try {
+                if (!session.evicted && session.isOpen()) {
+                    flushParked(session);
+                }
+            } catch (Exception e) {
+                log.debug("Failed to flush parked receipts for session {}", session.getId(), e);
+            } finally {
+                session.flushScheduled.set(false);
+            }
+        }).start();
+    }
+
+    private void flushParked(SessionBuffer session) {
+        Iterator<String> subscriptions = session.parkedReceipts.keySet().iterator();
+        while (subscriptions.hasNext()) {
+            Message<byte[]> parked = session.parkedReceipts.remove(subscriptions.next());
+            if (parked != null) {
+                deliver(session, parked);
+            }
+        }
+    }
+
+    private void evict(SessionBuffer session) {
+        session.evicted = true;
+        session.parkedReceipts.clear();
+        evictedSessions.increment();
+        log.warn("Closing slow WebSocket session {}: {} bytes / {} frames buffered, send in progress {} ms",
+                session.getId(), session.getBufferSize(), session.pending.get(), session.getTimeSinceSendStarted());
+        try {
+            // мимо ConcurrentWebSocketSessionDecorator.close: тот при превышенном лимите подменил бы код на 4500
+            session.getDelegate().close(SLOW_CONSUMER);
+        } catch (IOException e) {
+            log.debug("Failed to close slow WebSocket session {}", session.getId(), e);
+        }
+    }
+
+    /**
+     * Склейка двух RECEIPTS одной подписки: watermark'и только растут, поэтому берем максимум по пользователю.
+     */
+    private Message<byte[]> mergeReceipts(Message<byte[]> parked, Message<byte[]> next) {
+        try {
+            ObjectNode merged = (ObjectNode) objectMapper.readTree(parked.getPayload());
+            JsonNode incoming = objectMapper.readTree(next.getPayload());
+            mergeWatermarks(merged.withObject("/payload/delivered"), incoming.path("payload").path("delivered"));
+            mergeWatermarks(merged.withObject("/payload/read"), incoming.path("payload").path("read"));
+            merged.set("timestamp", incoming.get("timestamp"));
+            return MessageBuilder.createMessage(objectMapper.writeValueAsBytes(merged), next.getHeaders());
+        } catch (IOException | ClassCastException e) {
+            // не смогли разобрать – оставляем более свежий кадр
+            log.debug("Failed to merge receipts frames", e);
+            return next;
+        }
+    }
+
+    private static void mergeWatermarks(ObjectNode target, JsonNode source) {
+        source.fields().forEachRemaining(entry -> {
+            JsonNode current = target.get(entry.getKey());
+            if (current == null || current.asLong() < entry.getValue().asLong()) {
+                target.set(entry.getKey(), entry.getValue());
+            }
+        });
+    }
+
+    /**
+     * Тип события из начала JSON WebSocketMessage ({"type":"..."}) без полного разбора кадра.
+     */
+    static String eventType(byte[] payload) {
+        if (payload.length <= TYPE_PREFIX.length) {
+            return null;
+        }
+        for (int i = 0; i < TYPE_PREFIX.length; i++) {
+            if (payload[i] != TYPE_PREFIX[i]) {
+                return null;
+            }
+        }
+        for (int end = TYPE_PREFIX.length; end < payload.length; end++) {
+            if (payload[end] == '"') {
+                return new String(payload, TYPE_PREFIX.length, end - TYPE_PREFIX.length, StandardCharsets.US_ASCII);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Буфер Spring плюс счетчик кадров в нем: +1 при постановке, -1 когда кадр забирают на отправку в сокет
+     * (как и размер буфера в байтах, отправляемый сейчас кадр уже не учитывается).
+     * После записи каждого кадра в сокет вызывает sent – проверку, не пора ли отправить отложенные RECEIPTS.
+     */
+    private static final class SessionBuffer extends ConcurrentWebSocketSessionDecorator {
+
+        private final AtomicInteger pending;
+        private final Map<String, Message<byte[]>> parkedReceipts = new ConcurrentHashMap<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private volatile boolean evicted;
+        private volatile WireFormat format = WireFormat.JSON;
+
+        private SessionBuffer(WebSocketSession session, int sendTimeLimit, int bufferSizeLimit,
+                              Consumer<SessionBuffer> sent) {
+            this(session, new AtomicInteger(), new SessionBuffer[1], sendTimeLimit, bufferSizeLimit, sent);
+        }
+
+        // self – ссылка на создаваемый буфер для внутреннего декоратора (super(...) вызывается до присвоения this)
+        private SessionBuffer(WebSocketSession session, AtomicInteger pending, SessionBuffer[] self,
+                              int sendTimeLimit, int bufferSizeLimit, Consumer<SessionBuffer> sent) {
+            super(new WebSocketSessionDecorator(session) {
+                @Override
+                public void sendMessage(WebSocketMessage<?> message) throws IOException {
+                    pending.decrementAndGet();
+                    super.sendMessage(message);
+                    sent.accept(self[0]);
+                }
+            }, sendTimeLimit, bufferSizeLimit);
+            this.pending = pending;
+            self[0] = this;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            pending.incrementAndGet();
+            super.sendMessage(message);
+        }
+    }
+}
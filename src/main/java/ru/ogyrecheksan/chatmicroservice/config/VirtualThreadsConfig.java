@@ -0,0 +1,54 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+/**
+ * Режим виртуальных потоков: spring.threads.virtual.enabled=true.
+ *
+ * Tomcat и @Async Spring Boot переключает сам, STOMP-каналы – WebSocketConfig, рассылка из outbox
+ * всегда идет на виртуальных потоках. Здесь – ограничение одновременных JDBC-соединений
+ * (chat.jdbc.max-concurrency, chat.jdbc.acquire-timeout-ms) и его метрики:
+ * chat.jdbc.permits.available, chat.jdbc.permits.waiting.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    // static: пост-процессор создается раньше остальных бинов
+    @Bean
+    public static BeanPostProcessor jdbcConcurrencyLimiter(Environment environment) {
+        int maxConcurrency = environment.getProperty("chat.jdbc.max-concurrency", Integer.class, 10);
+        long acquireTimeoutMs = environment.getProperty("chat.jdbc.acquire-timeout-ms", Long.class, 5000L);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof ConcurrencyLimitedDataSource)) {
+                    return new ConcurrencyLimitedDataSource(dataSource, maxConcurrency, acquireTimeoutMs);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder jdbcConcurrencyMetrics(DataSource dataSource) {
+        return registry -> {
+            if (dataSource instanceof ConcurrencyLimitedDataSource limited) {
+                Gauge.builder("chat.jdbc.permits.available", limited, ConcurrencyLimitedDataSource::getAvailablePermits)
+                        .description("Free JDBC connection permits")
+                        .register(registry);
+                Gauge.builder("chat.jdbc.permits.waiting", limited, ConcurrencyLimitedDataSource::getWaitingThreads)
+                        .description("Threads waiting for a JDBC connection permit")
+                        .register(registry);
+            }
+        };
+    }
+}
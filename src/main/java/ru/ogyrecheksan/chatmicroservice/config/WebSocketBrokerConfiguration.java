@@ -0,0 +1,56 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+
+/**
+ * Инфраструктура STOMP-брокера – то же, что подключает @EnableWebSocketMessageBroker (настройки берутся
+ * из WebSocketConfig и других WebSocketMessageBrokerConfigurer), но сессии обслуживает
+ * SlowConsumerWebSocketHandler с политикой для медленных клиентов (chat.websocket.slow-consumer.*)
+ * и форматом кадров, выбранным клиентом (chat.websocket.wire-format.*).
+ */
+@Configuration
+public class WebSocketBrokerConfiguration extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final SlowConsumerWebSocketHandler.OverflowPolicy overflowPolicy;
+    private final int shedBufferSize;
+    private final int shedMessages;
+    private final int maxBufferedMessages;
+    private final int wireFormatCacheSize;
+
+    public WebSocketBrokerConfiguration(ObjectMapper objectMapper,
+                                        MeterRegistry meterRegistry,
+                                        @Value("${chat.websocket.slow-consumer.policy:coalesce}") String overflowPolicy,
+                                        @Value("${chat.websocket.slow-consumer.shed-buffer-size:131072}") int shedBufferSize,
+                                        @Value("${chat.websocket.slow-consumer.shed-messages:100}") int shedMessages,
+                                        @Value("${chat.websocket.slow-consumer.max-buffered-messages:1000}") int maxBufferedMessages,
+                                        @Value("${chat.websocket.wire-format.cache-size:1024}") int wireFormatCacheSize) {
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.overflowPolicy = SlowConsumerWebSocketHandler.OverflowPolicy.from(overflowPolicy);
+        this.shedBufferSize = shedBufferSize;
+        this.shedMessages = shedMessages;
+        this.maxBufferedMessages = maxBufferedMessages;
+        this.wireFormatCacheSize = wireFormatCacheSize;
+    }
+
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler(AbstractSubscribableChannel clientInboundChannel,
+                                                        AbstractSubscribableChannel clientOutboundChannel) {
+        SlowConsumerWebSocketHandler handler = new SlowConsumerWebSocketHandler(
+                clientInboundChannel, clientOutboundChannel, overflowPolicy,
+                shedBufferSize, shedMessages, maxBufferedMessages, objectMapper,
+                new WireFormatCodec(wireFormatCacheSize), meterRegistry);
+        handler.setPhase(getPhase());
+        return handler;
+    }
+}
@@ -1,34 +1,100 @@
 package ru.ogyrecheksan.chatmicroservice.config;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import ru.ogyrecheksan.chatmicroservice.cluster.ClusterBrokerRelay;
 
+/**
+ * STOMP поверх SockJS (брокер подключает WebSocketBrokerConfiguration).
+ *
+ * Каналы clientInbound/clientOutbound выполняются либо на пулах платформенных потоков фиксированного
+ * размера с ограниченной очередью (chat.websocket.{inbound,outbound}.*), либо – при
+ * spring.threads.virtual.enabled=true – на виртуальном потоке на сообщение: блокирующие JPA/Feign-вызовы
+ * в обработчиках тогда не упираются в размер пула. Порядок кадров внутри сессии сохраняется в обе стороны
+ * (preserveReceiveOrder/preservePublishOrder). Heartbeat'ы обслуживает отдельный планировщик
+ * (chat.websocket.heartbeat.*), лимиты отправки в медленную сессию – chat.websocket.send-*.
+ * Состояние исполнителей публикуется в метриках chat.websocket.executor.* (ChannelExecutorMetrics).
+ * permessage-deflate Tomcat согласует сам; chat.websocket.permessage-deflate=false его выключает.
+ */
 @Configuration
-@EnableWebSocketMessageBroker
-@RequiredArgsConstructor
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final WebSocketSecurityInterceptor webSocketSecurityInterceptor;
+    // Есть только при chat.broker.mode=cluster (см. ClusterBrokerConfig)
+    private final ObjectProvider<ClusterBrokerRelay> clusterBrokerRelay;
+    private final ChannelExecutorMetrics executorMetrics = new ChannelExecutorMetrics();
+    private final TaskExecutor inboundExecutor;
+    private final TaskExecutor outboundExecutor;
+    private final int heartbeatPoolSize;
+    private final long heartbeatIntervalMs;
+    private final int sendTimeLimitMs;
+    private final int sendBufferSizeLimit;
+
+    public WebSocketConfig(WebSocketSecurityInterceptor webSocketSecurityInterceptor,
+                           ObjectProvider<ClusterBrokerRelay> clusterBrokerRelay,
+                           @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                           @Value("${chat.websocket.inbound.pool-size:32}") int inboundPoolSize,
+                           @Value("${chat.websocket.inbound.queue-capacity:10000}") int inboundQueueCapacity,
+                           @Value("${chat.websocket.outbound.pool-size:16}") int outboundPoolSize,
+                           @Value("${chat.websocket.outbound.queue-capacity:10000}") int outboundQueueCapacity,
+                           @Value("${chat.websocket.heartbeat.pool-size:2}") int heartbeatPoolSize,
+                           @Value("${chat.websocket.heartbeat.interval-ms:10000}") long heartbeatIntervalMs,
+                           @Value("${chat.websocket.send-time-limit-ms:10000}") int sendTimeLimitMs,
+                           @Value("${chat.websocket.send-buffer-size-limit:524288}") int sendBufferSizeLimit) {
+        this.webSocketSecurityInterceptor = webSocketSecurityInterceptor;
+        this.clusterBrokerRelay = clusterBrokerRelay;
+        this.inboundExecutor = virtualThreads
+                ? executorMetrics.virtualExecutor("inbound", "clientInboundChannel-")
+                : executorMetrics.platformExecutor("inbound", "clientInboundChannel-", inboundPoolSize, inboundQueueCapacity);
+        this.outboundExecutor = virtualThreads
+                ? executorMetrics.virtualExecutor("outbound", "clientOutboundChannel-")
+                : executorMetrics.platformExecutor("outbound", "clientOutboundChannel-", outboundPoolSize, outboundQueueCapacity);
+        this.heartbeatPoolSize = heartbeatPoolSize;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.sendBufferSizeLimit = sendBufferSizeLimit;
+    }
+
+    @Bean
+    public MeterBinder webSocketExecutorMetrics() {
+        return executorMetrics;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "chat.websocket.permessage-deflate", havingValue = "false")
+    public FilterRegistrationBean<PerMessageDeflateFilter> perMessageDeflateFilter() {
+        FilterRegistrationBean<PerMessageDeflateFilter> registration =
+                new FilterRegistrationBean<>(new PerMessageDeflateFilter());
+        registration.addUrlPatterns("/ws-chat/*");
+        return registration;
+    }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         // Локальный планировщик только для WebSocket-heartbeat, без регистрации как бина
-        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
-        scheduler.setPoolSize(1);
-        scheduler.setThreadNamePrefix("ws-heartbeat-");
-        scheduler.initialize();
+        ThreadPoolTaskScheduler scheduler = executorMetrics.scheduler("heartbeat", "ws-heartbeat-", heartbeatPoolSize);
 
         config.enableSimpleBroker("/topic", "/queue")
                 .setTaskScheduler(scheduler)
-                .setHeartbeatValue(new long[]{10000, 10000}); // 10s heartbeat
+                .setHeartbeatValue(new long[]{heartbeatIntervalMs, heartbeatIntervalMs});
         config.setApplicationDestinationPrefixes("/app");
         config.setUserDestinationPrefix("/user");
+        // Рассылка в сессию идет через clientOutbound: без этого кадры одной сессии обгоняют друг друга
+        config.setPreservePublishOrder(true);
+        // В cluster-режиме все, что приложение публикует в брокер, копируется на остальные узлы
+        clusterBrokerRelay.ifAvailable(relay -> config.configureBrokerChannel().interceptors(relay));
     }
 
     @Override
@@ -36,10 +102,25 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.addEndpoint("/ws-chat")
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
+        // Кадры одного клиента обрабатываются по очереди – на виртуальных потоках каждый идет своим потоком
+        registry.setPreserveReceiveOrder(true);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Сессия, которая не успевает принимать кадры дольше лимита или копит больше буфера, закрывается
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit);
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
         registration.interceptors(webSocketSecurityInterceptor);
+        registration.executor(inboundExecutor);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.executor(outboundExecutor);
     }
-}
\ No newline at end of file
+}
@@ -1,93 +1,115 @@
 package ru.ogyrecheksan.chatmicroservice.config;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.simp.stomp.StompCommand;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.stereotype.Component;
-import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.exception.AccessDeniedException;
+import ru.ogyrecheksan.chatmicroservice.service.ChatMembershipCache;
 
 import java.security.Principal;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Перехватчик STOMP-сообщений для проверки прав доступа:
- *  - проверяет принадлежность пользователя к чату перед SUBSCRIBE/SEND
+ *  - CONNECT: проверяет JWT из STOMP-заголовка Authorization ("Bearer ...") через JwtTokenValidator (с его кэшем),
+ *    а без заголовка – берет пользователя, аутентифицированного при handshake. Имя должно быть UUID пользователя,
+ *    иначе CONNECT отклоняется. Пользователем сессии становится ChatPrincipal со снимком членства
+ *    и заголовком Authorization (для вызовов user-service из STOMP-обработчиков)
+ *  - SUBSCRIBE/SEND в чат (destination разбирает ChatDestinations): проверяет принадлежность пользователя к чату
+ *    по снимку, пока он актуален, иначе через ChatMembershipCache; без разбора UUID и токена на каждый кадр.
+ *    При актуальном снимке кадр проверяется без аллокаций: accessor сообщения, а не новый wrap, id без regex
  *  - логирует попытки несанкционированного доступа
  */
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class WebSocketSecurityInterceptor implements ChannelInterceptor {
 
-    private final ChatParticipantRepository participantRepository;
+    private static final String AUTHORIZATION_HEADER = "Authorization";
 
-    private static final Pattern CHAT_TOPIC_PATTERN =
-            Pattern.compile("^/topic/chat/(\\d+)$");
-
-    private static final Pattern CHAT_APP_PATTERN =
-            Pattern.compile("^/app/chat/(\\d+).*$");
+    private final ChatMembershipCache membershipCache;
+    private final JwtTokenValidator jwtTokenValidator;
 
     @Override
     public Message<?> preSend(Message<?> message, MessageChannel channel) {
-        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
-        StompCommand command = accessor.getCommand();
+        // Изменяемый accessor самого сообщения: через него StompSubProtocolHandler запоминает пользователя сессии
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        StompCommand command = accessor != null ? accessor.getCommand() : null;
 
         if (command == null) {
             return message;
         }
 
-        if (command == StompCommand.SUBSCRIBE || command == StompCommand.SEND) {
-            String destination = accessor.getDestination();
-            Principal principal = accessor.getUser();
+        if (command == StompCommand.CONNECT) {
+            accessor.setUser(connect(accessor));
+            return message;
+        }
 
-            if (destination == null || principal == null) {
-                return message;
-            }
+        // Остальные кадры (ACK, UNSUBSCRIBE, DISCONNECT, heartbeat) проверки не требуют
+        if (command != StompCommand.SEND && command != StompCommand.SUBSCRIBE) {
+            return message;
+        }
 
-            Long chatId = extractChatId(destination);
-            if (chatId == null) {
-                return message;
-            }
+        String destination = accessor.getDestination();
+        if (destination == null) {
+            return message;
+        }
 
-            UUID userId = extractUserId(principal);
+        long chatId = ChatDestinations.chatId(destination);
+        if (chatId == ChatDestinations.NONE) {
+            return message;
+        }
 
-            boolean isParticipant = participantRepository
-                    .existsByChatIdAndUserIdAndLeftAtIsNull(chatId, userId);
+        Principal user = accessor.getUser();
+        boolean isParticipant = chatId != ChatDestinations.MALFORMED
+                && user instanceof ChatPrincipal principal && isMember(principal, chatId);
 
-            if (!isParticipant) {
-                System.out.printf("Unauthorized WebSocket access: user=%s, chatId=%d, destination=%s%n",
-                        userId, chatId, destination);
-                throw new ru.ogyrecheksan.chatmicroservice.exception.AccessDeniedException(
-                        "Access denied to chat: " + chatId);
-            }
+        if (!isParticipant) {
+            log.warn("Unauthorized WebSocket access: user={}, destination={}", user, destination);
+            throw new AccessDeniedException("Access denied to chat destination: " + destination);
         }
 
         return message;
     }
 
-    private Long extractChatId(String destination) {
-        Matcher topicMatcher = CHAT_TOPIC_PATTERN.matcher(destination);
-        if (topicMatcher.matches()) {
-            return Long.parseLong(topicMatcher.group(1));
+    private ChatPrincipal connect(StompHeaderAccessor accessor) {
+        String authorization = accessor.getFirstNativeHeader(AUTHORIZATION_HEADER);
+        Principal user = authorization != null ? jwtTokenValidator.authenticate(authorization) : accessor.getUser();
+        UUID userId = parseUserId(user);
+        if (userId == null) {
+            log.warn("Rejected STOMP CONNECT: session={}, user={}", accessor.getSessionId(),
+                    user != null ? user.getName() : null);
+            throw new AccessDeniedException("STOMP CONNECT requires a valid JWT");
         }
-        Matcher appMatcher = CHAT_APP_PATTERN.matcher(destination);
-        if (appMatcher.matches()) {
-            return Long.parseLong(appMatcher.group(1));
+        // Эпоха читается до запроса: изменение между ними сделает снимок устаревшим, а не потеряется
+        long epoch = membershipCache.currentEpoch();
+        long takenAt = System.nanoTime();
+        return new ChatPrincipal(userId, membershipCache.activeChatIds(userId), epoch, takenAt, authorization);
+    }
+
+    private boolean isMember(ChatPrincipal principal, long chatId) {
+        if (membershipCache.isSnapshotValid(principal.getUserId(), principal.getSnapshotEpoch(),
+                principal.getSnapshotTakenAtNanos())) {
+            return principal.isSnapshotMember(chatId);
         }
-        return null;
+        // Состав чатов пользователя менялся после CONNECT – членство берется из кэша
+        return membershipCache.isMember(chatId, principal.getUserId());
     }
 
-    private UUID extractUserId(Principal principal) {
+    private static UUID parseUserId(Principal user) {
+        if (user == null || user.getName() == null) {
+            return null;
+        }
         try {
-            return UUID.fromString(principal.getName());
+            return UUID.fromString(user.getName());
         } catch (IllegalArgumentException e) {
-            return UUID.nameUUIDFromBytes(principal.getName().getBytes());
+            return null;
         }
     }
 }
-
-
@@ -0,0 +1,148 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.ContentTypeResolver;
+import org.springframework.messaging.converter.DefaultContentTypeResolver;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Формат тела кадров MESSAGE для отдельной WebSocket-сессии.
+ *
+ * Клиент выбирает формат заголовком chat-format в STOMP CONNECT (json по умолчанию, cbor, smile).
+ * Приложение и брокер по-прежнему работают с JSON; перед отправкой в сессию JSON перекодируется потоково,
+ * без построения дерева. Структура полей та же, что в JSON. Брокер отдает один и тот же byte[] всем подписчикам
+ * назначения, поэтому результат кэшируется по ссылке на исходный массив – кадр для чата на 1000 участников
+ * перекодируется один раз на формат.
+ *
+ * Бинарные кадры уходят как binary WebSocket-сообщения с content-type application/octet-stream;format=cbor|smile
+ * (Spring шлет binary только для octet-stream). Через SockJS-транспорты бинарные кадры не передаются –
+ * такие сессии всегда получают JSON.
+ */
+public class WireFormatCodec {
+
+    public static final String FORMAT_HEADER = "chat-format";
+
+    public enum WireFormat {
+        JSON(MimeTypeUtils.APPLICATION_JSON),
+        CBOR(binary("cbor")),
+        SMILE(binary("smile"));
+
+        private final MimeType contentType;
+
+        WireFormat(MimeType contentType) {
+            this.contentType = contentType;
+        }
+
+        /**
+         * Неизвестный или отсутствующий формат – JSON.
+         */
+        public static WireFormat from(String value) {
+            if (value == null) {
+                return JSON;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return JSON;
+            }
+        }
+
+        public MimeType contentType() {
+            return contentType;
+        }
+
+        private static MimeType binary(String format) {
+            return new MimeType(MimeTypeUtils.APPLICATION_OCTET_STREAM, Map.of("format", format));
+        }
+    }
+
+    private final ContentTypeResolver contentTypeResolver = new DefaultContentTypeResolver();
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Map<WireFormat, JsonFactory> binaryFactories = new EnumMap<>(WireFormat.class);
+    private final Map<WireFormat, Cache<byte[], byte[]>> encoded = new EnumMap<>(WireFormat.class);
+
+    public WireFormatCodec(int cacheSize) {
+        binaryFactories.put(WireFormat.CBOR, new CBORFactory());
+        // повторяющиеся короткие строки (senderId, conversationId в HISTORY) – ссылкой на первое вхождение
+        binaryFactories.put(WireFormat.SMILE, SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build());
+        for (WireFormat format : binaryFactories.keySet()) {
+            // weakKeys – сравнение по ссылке: общий payload брокера, а не равные по содержимому массивы
+            encoded.put(format, Caffeine.newBuilder()
+                    .weakKeys()
+                    .maximumSize(cacheSize)
+                    .build());
+        }
+    }
+
+    /**
+     * Формат, запрошенный в CONNECT, по кадру CONNECT_ACK.
+     */
+    public WireFormat negotiate(Message<?> connectAck) {
+        Object connect = connectAck.getHeaders().get(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER);
+        if (!(connect instanceof Message<?> connectMessage)) {
+            return WireFormat.JSON;
+        }
+        return WireFormat.from(StompHeaderAccessor.wrap(connectMessage).getFirstNativeHeader(FORMAT_HEADER));
+    }
+
+    /**
+     * Кадр MESSAGE с JSON-телом в формате сессии; остальные кадры возвращаются как есть.
+     */
+    public Message<?> encode(Message<?> message, WireFormat format) {
+        if (format == WireFormat.JSON
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || !(message.getPayload() instanceof byte[] json)
+                || !isJson(contentTypeResolver.resolve(message.getHeaders()))) {
+            return message;
+        }
+        byte[] payload = encoded.get(format).get(json, source -> transcode(source, format));
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        accessor.setContentType(format.contentType());
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    /**
+     * JSON -> формат потоково (токен за токеном), без кэша.
+     */
+    public byte[] transcode(byte[] json, WireFormat format) {
+        JsonFactory target = binaryFactories.get(format);
+        if (target == null) {
+            return json;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonFactory.createParser(json);
+             JsonGenerator generator = target.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to transcode frame to " + format, e);
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean isJson(MimeType contentType) {
+        return contentType == null || MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType);
+    }
+}
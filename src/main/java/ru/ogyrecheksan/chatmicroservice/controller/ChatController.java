@@ -2,7 +2,7 @@ package ru.ogyrecheksan.chatmicroservice.controller;
 
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
@@ -12,8 +12,12 @@ import ru.ogyrecheksan.chatmicroservice.dto.Request.ParticipantActionRequest;
 import ru.ogyrecheksan.chatmicroservice.dto.Request.SendMessageRequest;
 import ru.ogyrecheksan.chatmicroservice.dto.Response.ChatResponse;
 import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageSliceResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.OnlineUsersResponse;
 import ru.ogyrecheksan.chatmicroservice.service.ChatService;
+import ru.ogyrecheksan.chatmicroservice.service.MessageCursor;
 import ru.ogyrecheksan.chatmicroservice.service.MessageService;
+import ru.ogyrecheksan.chatmicroservice.service.UserProfileService;
 import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
 
 import java.util.List;
@@ -25,8 +29,11 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class ChatController {
 
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final ChatService chatService;
     private final MessageService messageService;
+    private final UserProfileService userProfileService;
 
     @GetMapping
     public ResponseEntity<List<ChatResponse>> getUserChats(
@@ -35,6 +42,7 @@ public class ChatController {
 
         UUID userId = extractUserIdFromAuthentication(authentication);
         List<ChatResponse> chats = chatService.getUserChats(userId, authToken);
+        userProfileService.enrichChats(chats, authToken);
         return ResponseEntity.ok(chats);
     }
 
@@ -51,6 +59,7 @@ public class ChatController {
         } else {
             chat = chatService.createGroupChat(request, userId, authToken);
         }
+        userProfileService.enrichChats(List.of(chat), authToken);
         return ResponseEntity.status(201).body(chat);
     }
 
@@ -62,6 +71,7 @@ public class ChatController {
 
         UUID currentUserId = extractUserIdFromAuthentication(authentication);
         ChatResponse chat = chatService.createPersonalChat(currentUserId, userId, authToken);
+        userProfileService.enrichChats(List.of(chat), authToken);
         return ResponseEntity.ok(chat);
     }
 
@@ -96,6 +106,7 @@ public class ChatController {
         UUID userId = extractUserIdFromAuthentication(authentication);
         try {
             ChatResponse chat = chatService.getChat(chatId, userId, authToken);
+            userProfileService.enrichChats(List.of(chat), authToken);
             return ResponseEntity.ok(chat);
         } catch (RuntimeException e) {
             if (e.getMessage().contains("Chat not found")) {
@@ -107,17 +118,63 @@ public class ChatController {
         }
     }
 
+    /**
+     * Онлайн-участники чата (есть активная WebSocket-подписка на топик чата).
+     *
+     * GET /api/chats/{chatId}/online
+     * Response: 200 OK -> { "chatId": 123, "onlineUserIds": [...] }, 403 – если пользователь не участник
+     */
+    @GetMapping("/{chatId}/online")
+    public ResponseEntity<OnlineUsersResponse> getOnlineUsers(
+            @PathVariable Long chatId,
+            Authentication authentication) {
+        UUID userId = extractUserIdFromAuthentication(authentication);
+        try {
+            return ResponseEntity.ok(chatService.getOnlineUsers(chatId, userId));
+        } catch (ru.ogyrecheksan.chatmicroservice.exception.AccessDeniedException e) {
+            return ResponseEntity.status(403).build();
+        }
+    }
+
+    /**
+     * История сообщений чата.
+     *
+     * Keyset-пагинация: cursor (из заголовка X-Next-Cursor предыдущего ответа) либо before/after = id сообщения.
+     * Без курсора и с offset > 0 работает старая offset-пагинация (для обратной совместимости).
+     * Если есть следующая страница – ее курсор возвращается в заголовке X-Next-Cursor.
+     */
     @GetMapping("/{chatId}/messages")
     public ResponseEntity<List<MessageResponse>> getChatMessages(
             @PathVariable Long chatId,
             @RequestParam(defaultValue = "50") int limit,
             @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
             Authentication authentication,
             @RequestHeader("Authorization") String authToken) {
 
         UUID userId = extractUserIdFromAuthentication(authentication);
-        Page<MessageResponse> messages = messageService.getChatMessages(chatId, userId, offset, limit, authToken);
-        return ResponseEntity.ok(messages.getContent());
+        MessageCursor messageCursor;
+        try {
+            messageCursor = MessageCursor.of(cursor, before, after);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (messageCursor == null && offset > 0) {
+            Slice<MessageResponse> messages = messageService.getChatMessages(chatId, userId, offset, limit, authToken);
+            userProfileService.enrichMessages(messages.getContent(), authToken);
+            return ResponseEntity.ok(messages.getContent());
+        }
+
+        MessageSliceResponse slice = messageService.getChatMessages(chatId, userId, messageCursor, limit, authToken);
+        userProfileService.enrichMessages(slice.getMessages(), authToken);
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (slice.getNextCursor() != null) {
+            builder.header(NEXT_CURSOR_HEADER, slice.getNextCursor());
+        }
+        return builder.body(slice.getMessages());
     }
 
     @PostMapping("/{chatId}/messages")
@@ -129,9 +186,27 @@ public class ChatController {
         UUID userId = extractUserIdFromAuthentication(authentication);
         request.setChatId(chatId);
         MessageResponse response = messageService.sendMessage(request, userId, authToken);
+        userProfileService.enrichMessages(List.of(response), authToken);
         return ResponseEntity.status(201).body(response);
     }
 
+    /**
+     * Пометить сообщения чата прочитанными текущим пользователем.
+     *
+     * POST /api/chats/{chatId}/read?upToMessageId=
+     * Без upToMessageId – прочитано все до последнего сообщения.
+     * Response: 204 No Content
+     */
+    @PostMapping("/{chatId}/read")
+    public ResponseEntity<Void> markAsRead(
+            @PathVariable Long chatId,
+            @RequestParam(required = false) Long upToMessageId,
+            Authentication authentication) {
+        UUID userId = extractUserIdFromAuthentication(authentication);
+        messageService.markMessagesAsRead(chatId, userId, upToMessageId);
+        return ResponseEntity.noContent().build();
+    }
+
     @PutMapping("/{chatId}/participants")
     public ResponseEntity<Void> updateParticipants(
             @PathVariable Long chatId,
@@ -5,13 +5,19 @@ import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Controller;
+import ru.ogyrecheksan.chatmicroservice.config.ChatPrincipal;
 import ru.ogyrecheksan.chatmicroservice.dto.Request.SendMessageRequest;
-import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageSliceResponse;
+import ru.ogyrecheksan.chatmicroservice.exception.AccessDeniedException;
+import ru.ogyrecheksan.chatmicroservice.service.ChatService;
+import ru.ogyrecheksan.chatmicroservice.service.HistoryCompressor;
+import ru.ogyrecheksan.chatmicroservice.service.MessageCursor;
 import ru.ogyrecheksan.chatmicroservice.service.MessageService;
+import ru.ogyrecheksan.chatmicroservice.service.TypingTracker;
+import ru.ogyrecheksan.chatmicroservice.service.UserProfileService;
 import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
 
 import java.security.Principal;
-import java.util.List;
 import java.util.UUID;
 
 @Controller
@@ -20,6 +26,9 @@ public class WebSocketController {
 
     private final MessageService messageService;
     private final WebSocketService webSocketService;
+    private final ChatService chatService;
+    private final TypingTracker typingTracker;
+    private final UserProfileService userProfileService;
 
     @MessageMapping("/chat/{chatId}/sendMessage")
     public void sendMessage(
@@ -39,7 +48,22 @@ public class WebSocketController {
             Principal principal) {
 
         UUID userId = extractUserIdFromPrincipal(principal);
-        webSocketService.sendTypingIndicator(chatId, userId, typing);
+        typingTracker.onTyping(chatId, userId, Boolean.TRUE.equals(typing));
+    }
+
+    /**
+     * Запрос онлайн-участников чата.
+     *
+     * Клиент отправляет: /app/chat/{chatId}/online (без payload)
+     * Ответ придет в: /user/queue/presence (type: ONLINE_USERS)
+     */
+    @MessageMapping("/chat/{chatId}/online")
+    public void getOnlineUsers(
+            @DestinationVariable Long chatId,
+            Principal principal) {
+
+        UUID userId = extractUserIdFromPrincipal(principal);
+        webSocketService.sendOnlineUsers(userId, chatService.getOnlineUsers(chatId, userId));
     }
 
     /**
@@ -47,10 +71,17 @@ public class WebSocketController {
      *
      * Клиент отправляет:
      *  destination: /app/chat/{chatId}/loadHistory
-     *  payload: { "offset": 0, "limit": 50, "beforeMessageId": null }
+     *  payload: { "limit": 50, "cursor": null, "beforeMessageId": null, "afterMessageId": null,
+     *             "compression": null }
+     *
+     * compression: "gzip" – клиент умеет распаковывать HISTORY со сжатым payload (см. HistoryCompressor).
+     *
+     * cursor берется из nextCursor предыдущего ответа. Старый вариант с offset > 0 без курсора
+     * поддерживается для обратной совместимости.
      *
      * Ответ придет в персональную очередь пользователя:
      *  /user/queue/history
+     * Некорректный cursor (или before и after вместе) – ERROR в /user/queue/errors.
      */
     @MessageMapping("/chat/{chatId}/loadHistory")
     public void loadHistory(
@@ -58,12 +89,30 @@ public class WebSocketController {
             @Payload LoadHistoryRequest request,
             Principal principal) {
 
-        UUID userId = extractUserIdFromPrincipal(principal);
+        ChatPrincipal chatPrincipal = chatPrincipal(principal);
+        UUID userId = chatPrincipal.getUserId();
+        String authToken = chatPrincipal.getAuthorization();
         int offset = request.getOffset() != null ? request.getOffset() : 0;
         int limit = request.getLimit() != null ? request.getLimit() : 50;
 
-        var page = messageService.getChatMessages(chatId, userId, offset, limit, null);
-        List<MessageResponse> messages = page.getContent();
+        MessageCursor cursor;
+        try {
+            cursor = MessageCursor.of(request.getCursor(), request.getBeforeMessageId(), request.getAfterMessageId());
+        } catch (IllegalArgumentException e) {
+            webSocketService.sendErrorToUser(userId, chatId, e.getMessage());
+            return;
+        }
+
+        MessageSliceResponse slice;
+        if (cursor == null && offset > 0) {
+            var page = messageService.getChatMessages(chatId, userId, offset, limit, authToken);
+            slice = new MessageSliceResponse();
+            slice.setMessages(page.getContent());
+            slice.setHasMore(page.hasNext());
+        } else {
+            slice = messageService.getChatMessages(chatId, userId, cursor, limit, authToken);
+        }
+        userProfileService.enrichMessages(slice.getMessages(), authToken);
 
         webSocketService.sendHistoryToUser(
                 userId,
@@ -71,19 +120,23 @@ public class WebSocketController {
                 offset,
                 limit,
                 request.getBeforeMessageId(),
-                messages
+                slice,
+                HistoryCompressor.GZIP.equalsIgnoreCase(request.getCompression())
         );
     }
 
+    /**
+     * Пользователь сессии – ChatPrincipal, созданный WebSocketSecurityInterceptor на CONNECT.
+     */
     private UUID extractUserIdFromPrincipal(Principal principal) {
-        if (principal != null && principal.getName() != null) {
-            try {
-                return UUID.fromString(principal.getName());
-            } catch (IllegalArgumentException e) {
-                return UUID.nameUUIDFromBytes(principal.getName().getBytes());
-            }
+        return chatPrincipal(principal).getUserId();
+    }
+
+    private ChatPrincipal chatPrincipal(Principal principal) {
+        if (principal instanceof ChatPrincipal chatPrincipal) {
+            return chatPrincipal;
         }
-        return UUID.fromString("00000000-0000-0000-0000-000000000001");
+        throw new AccessDeniedException("STOMP session is not authenticated");
     }
 
     // DTO для запроса истории
@@ -91,6 +144,9 @@ public class WebSocketController {
         private Integer offset;
         private Integer limit;
         private Long beforeMessageId;
+        private Long afterMessageId;
+        private String cursor;
+        private String compression;
 
         public Integer getOffset() {
             return offset;
@@ -115,5 +171,29 @@ public class WebSocketController {
         public void setBeforeMessageId(Long beforeMessageId) {
             this.beforeMessageId = beforeMessageId;
         }
+
+        public Long getAfterMessageId() {
+            return afterMessageId;
+        }
+
+        public void setAfterMessageId(Long afterMessageId) {
+            this.afterMessageId = afterMessageId;
+        }
+
+        public String getCursor() {
+            return cursor;
+        }
+
+        public void setCursor(String cursor) {
+            this.cursor = cursor;
+        }
+
+        public String getCompression() {
+            return compression;
+        }
+
+        public void setCompression(String compression) {
+            this.compression = compression;
+        }
     }
 }
\ No newline at end of file
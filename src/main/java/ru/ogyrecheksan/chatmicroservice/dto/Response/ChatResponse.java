@@ -14,6 +14,7 @@ public class ChatResponse {
     private String avatarUrl;
     private LastMessage lastMessage;
     private List<Participant> participants;
+    private Integer unreadCount;
     private LocalDateTime createdAt;
 
     @Data
@@ -21,11 +22,15 @@ public class ChatResponse {
         private String id;
         private String content;
         private String senderId;
+        private LocalDateTime createdAt;
     }
 
     @Data
     public static class Participant {
         private UUID userId;
         private String role;
+        // из user-service (UserProfileService); null, если он недоступен
+        private String username;
+        private String avatarUrl;
     }
 }
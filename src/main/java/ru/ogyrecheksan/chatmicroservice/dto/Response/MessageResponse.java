@@ -10,4 +10,7 @@ public class MessageResponse {
     private String senderId;
     private String content;
     private LocalDateTime createdAt;
+    // из user-service (UserProfileService); null, если он недоступен
+    private String senderName;
+    private String senderAvatarUrl;
 }
@@ -0,0 +1,17 @@
+package ru.ogyrecheksan.chatmicroservice.dto.Response;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Страница истории сообщений при keyset-пагинации.
+ *
+ * nextCursor – непрозрачный курсор следующей страницы (null, если дальше сообщений нет).
+ */
+@Data
+public class MessageSliceResponse {
+    private List<MessageResponse> messages;
+    private String nextCursor;
+    private boolean hasMore;
+}
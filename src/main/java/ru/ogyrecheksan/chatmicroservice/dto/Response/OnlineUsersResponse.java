@@ -0,0 +1,15 @@
+package ru.ogyrecheksan.chatmicroservice.dto.Response;
+
+import lombok.Data;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Онлайн-участники чата: пользователи, у которых есть хотя бы одна сессия с подпиской на /topic/chat/{chatId}.
+ */
+@Data
+public class OnlineUsersResponse {
+    private Long chatId;
+    private Set<UUID> onlineUserIds;
+}
@@ -1,5 +1,6 @@
 package ru.ogyrecheksan.chatmicroservice.dto.Response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 @Data
@@ -8,4 +9,7 @@ public class WebSocketMessage {
     private Object payload;
     private Long chatId;
     private Long timestamp = System.currentTimeMillis();
+    // "gzip" – payload сжат (строка base64), см. HistoryCompressor; у обычных кадров поля нет
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String encoding;
 }
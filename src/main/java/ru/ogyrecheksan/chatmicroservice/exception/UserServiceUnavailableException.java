@@ -0,0 +1,7 @@
+package ru.ogyrecheksan.chatmicroservice.exception;
+
+public class UserServiceUnavailableException extends RuntimeException {
+    public UserServiceUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -14,7 +14,8 @@ import java.util.UUID;
 @Data
 public class Chat {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chats_seq")
+    @SequenceGenerator(name = "chats_seq", sequenceName = "chats_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
@@ -39,6 +40,19 @@ public class Chat {
     @OneToMany(mappedBy = "chat", fetch = FetchType.LAZY)
     private List<Message> messages = new ArrayList<>();
 
+    // Денормализованный снимок последнего сообщения, обновляется в MessageService.sendMessage
+    @Column(name = "last_message_id")
+    private Long lastMessageId;
+
+    @Column(name = "last_message_sender_id", columnDefinition = "UUID")
+    private UUID lastMessageSenderId;
+
+    @Column(name = "last_message_preview", length = 100)
+    private String lastMessagePreview;
+
+    @Column(name = "last_message_at")
+    private LocalDateTime lastMessageAt;
+
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt = LocalDateTime.now();
 
@@ -12,7 +12,8 @@ import java.util.UUID;
 @Data
 public class ChatParticipant {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chat_participants_seq")
+    @SequenceGenerator(name = "chat_participants_seq", sequenceName = "chat_participants_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -31,4 +32,15 @@ public class ChatParticipant {
 
     @Column(name = "left_at")
     private LocalDateTime leftAt;
+
+    // Watermark'и: все сообщения с id <= значения доставлены / прочитаны этим участником
+    @Column(name = "last_delivered_message_id")
+    private Long lastDeliveredMessageId;
+
+    @Column(name = "last_read_message_id")
+    private Long lastReadMessageId;
+
+    // Материализованный счетчик непрочитанных, поддерживается MessageService
+    @Column(name = "unread_count", nullable = false, columnDefinition = "integer default 0")
+    private int unreadCount;
 }
\ No newline at end of file
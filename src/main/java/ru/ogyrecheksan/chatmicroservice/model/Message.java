@@ -8,11 +8,15 @@ import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+        @Index(name = "idx_messages_chat_id_id", columnList = "chat_id, id")
+})
 @Data
 public class Message {
+    // Без пула: id растут во времени на всех узлах – на это опираются курсоры истории и watermark'и
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "messages_seq")
+    @SequenceGenerator(name = "messages_seq", sequenceName = "messages_seq", allocationSize = 1)
     private Long id;
 
     @Column(nullable = false, columnDefinition = "TEXT")
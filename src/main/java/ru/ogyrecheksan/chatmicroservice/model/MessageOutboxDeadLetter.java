@@ -0,0 +1,44 @@
+package ru.ogyrecheksan.chatmicroservice.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Запись outbox, рассылка которой не удалась за все попытки: MessageOutboxRelay переносит ее сюда
+ * вместо удаления, чтобы сообщение можно было разослать вручную (метрика chat.outbox.dead).
+ */
+@Entity
+@Table(name = "message_outbox_dead")
+@Data
+public class MessageOutboxDeadLetter {
+    // id исходной записи outbox
+    @Id
+    private Long id;
+
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+
+    @Column(name = "message_id", nullable = false)
+    private Long messageId;
+
+    @Column(name = "sender_id", columnDefinition = "UUID", nullable = false)
+    private UUID senderId;
+
+    @Column(name = "payload", columnDefinition = "TEXT", nullable = false)
+    private String payload;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "failed_at", nullable = false)
+    private LocalDateTime failedAt = LocalDateTime.now();
+}
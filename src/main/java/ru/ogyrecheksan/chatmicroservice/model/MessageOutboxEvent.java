@@ -0,0 +1,45 @@
+package ru.ogyrecheksan.chatmicroservice.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Запись transactional outbox: пишется в одной транзакции с сообщением,
+ * рассылается и удаляется MessageOutboxRelay после коммита.
+ */
+@Entity
+@Table(name = "message_outbox")
+@Data
+public class MessageOutboxEvent {
+    // Без пула: порядок id – порядок рассылки внутри чата, общий для всех узлов
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "message_outbox_seq")
+    @SequenceGenerator(name = "message_outbox_seq", sequenceName = "message_outbox_seq", allocationSize = 1)
+    private Long id;
+
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+
+    @Column(name = "message_id", nullable = false)
+    private Long messageId;
+
+    @Column(name = "sender_id", columnDefinition = "UUID", nullable = false)
+    private UUID senderId;
+
+    // MessageResponse в JSON – в том виде, в каком его получат клиенты
+    @Column(name = "payload", columnDefinition = "TEXT", nullable = false)
+    private String payload;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    // После неудачной попытки – не раньше этого момента (null – сразу); до него стоят и следующие записи чата
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
@@ -1,10 +1,13 @@
 package ru.ogyrecheksan.chatmicroservice.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import ru.ogyrecheksan.chatmicroservice.model.ChatParticipant;
+import ru.ogyrecheksan.chatmicroservice.repository.projection.ParticipantView;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -21,4 +24,98 @@ public interface ChatParticipantRepository extends JpaRepository<ChatParticipant
     List<UUID> findActiveParticipantIds(@Param("chatId") Long chatId); // Изменено с List<Long> на List<UUID>
 
     boolean existsByChatIdAndUserIdAndLeftAtIsNull(Long chatId, UUID userId);
-}
\ No newline at end of file
+
+    @Query("SELECT cp.chat.id FROM ChatParticipant cp WHERE cp.userId = :userId AND cp.leftAt IS NULL")
+    List<Long> findActiveChatIds(@Param("userId") UUID userId);
+
+    @Query("SELECT new ru.ogyrecheksan.chatmicroservice.repository.projection.ParticipantView(cp.chat.id, cp.userId, cp.role) " +
+            "FROM ChatParticipant cp WHERE cp.chat.id IN :chatIds AND cp.leftAt IS NULL")
+    List<ParticipantView> findActiveParticipants(@Param("chatIds") Collection<Long> chatIds);
+
+    /**
+     * Строка участника под блокировкой до конца транзакции: прочтение (advanceReadWatermark) не пересекается
+     * с +1 от параллельной отправки (advanceUnreadCounters ждет блокировку или уже закоммичен).
+     */
+    // native FOR UPDATE: PESSIMISTIC_WRITE в диалекте PostgreSQL дает FOR NO KEY UPDATE, которого нет в H2
+    @Query(value = "SELECT * FROM chat_participants WHERE chat_id = :chatId AND user_id = :userId " +
+            "AND left_at IS NULL FOR UPDATE",
+            nativeQuery = true)
+    Optional<ChatParticipant> lockActiveParticipant(@Param("chatId") Long chatId, @Param("userId") UUID userId);
+
+    /**
+     * Новое сообщение: +1 к непрочитанным у всех активных участников, кроме отправителя, – если сообщение
+     * еще не покрыто их watermark'ом прочтения (оно могло закоммититься позже прочтения чата до более нового).
+     * Отправитель считается получившим и прочитавшим чат до своего сообщения включительно; его watermark'и
+     * только растут – при параллельных отправках более позднее сообщение не откатывает их назад.
+     */
+    @Modifying
+    @Query("UPDATE ChatParticipant cp SET " +
+            "cp.unreadCount = CASE WHEN cp.userId = :senderId THEN 0 " +
+            "WHEN cp.lastReadMessageId IS NOT NULL AND cp.lastReadMessageId >= :messageId THEN cp.unreadCount " +
+            "ELSE cp.unreadCount + 1 END, " +
+            "cp.lastReadMessageId = CASE WHEN cp.userId = :senderId " +
+            "AND (cp.lastReadMessageId IS NULL OR cp.lastReadMessageId < :messageId) " +
+            "THEN :messageId ELSE cp.lastReadMessageId END, " +
+            "cp.lastDeliveredMessageId = CASE WHEN cp.userId = :senderId " +
+            "AND (cp.lastDeliveredMessageId IS NULL OR cp.lastDeliveredMessageId < :messageId) " +
+            "THEN :messageId ELSE cp.lastDeliveredMessageId END " +
+            "WHERE cp.chat.id = :chatId AND cp.leftAt IS NULL")
+    int advanceUnreadCounters(@Param("chatId") Long chatId,
+                              @Param("senderId") UUID senderId,
+                              @Param("messageId") Long messageId);
+
+    /**
+     * Сдвигает watermark прочтения с previousMessageId до messageId (и доставки – прочитанное считается доставленным).
+     * Вызывается под lockActiveParticipant. Счетчик непрочитанных меняется арифметикой: прочтение до последнего
+     * сообщения чата (lastMessageId, прочитан после блокировки) – 0, иначе минус чужие сообщения прочитанного
+     * диапазона (previousMessageId, messageId] по индексу (chat_id, id), а не пересчет всего хвоста.
+     */
+    @Modifying
+    @Query("UPDATE ChatParticipant cp SET cp.lastReadMessageId = :messageId, " +
+            "cp.lastDeliveredMessageId = CASE WHEN cp.lastDeliveredMessageId IS NULL OR cp.lastDeliveredMessageId < :messageId " +
+            "THEN :messageId ELSE cp.lastDeliveredMessageId END, " +
+            "cp.unreadCount = CASE WHEN :messageId >= :lastMessageId THEN 0 " +
+            "ELSE greatest(cp.unreadCount - (SELECT COUNT(m) FROM Message m WHERE m.chat.id = :chatId " +
+            "AND m.id > :previousMessageId AND m.id <= :messageId AND m.senderId <> :userId), 0) END " +
+            "WHERE cp.chat.id = :chatId AND cp.userId = :userId AND cp.leftAt IS NULL " +
+            "AND (cp.lastReadMessageId IS NULL OR cp.lastReadMessageId < :messageId)")
+    int advanceReadWatermark(@Param("chatId") Long chatId,
+                             @Param("userId") UUID userId,
+                             @Param("previousMessageId") Long previousMessageId,
+                             @Param("messageId") Long messageId,
+                             @Param("lastMessageId") Long lastMessageId);
+
+    /**
+     * Счетчики непрочитанных участников, появившихся до колонок unread_count/last_read_message_id:
+     * как считал прежний countUnreadMessages – чужие сообщения без read_at, watermark – последнее прочитанное.
+     * Только строки без watermark'а и с нулевым счетчиком: повторный запуск ничего не меняет, а строку,
+     * которой параллельная отправка уже добавила +1, условие WHERE не пропустит.
+     */
+    @Modifying
+    @Query("UPDATE ChatParticipant cp SET " +
+            "cp.lastReadMessageId = (SELECT MAX(m.id) FROM Message m WHERE m.chat.id = cp.chat.id AND m.readAt IS NOT NULL), " +
+            "cp.unreadCount = (SELECT COUNT(m) FROM Message m WHERE m.chat.id = cp.chat.id " +
+            "AND m.readAt IS NULL AND m.senderId <> cp.userId) " +
+            "WHERE cp.lastReadMessageId IS NULL AND cp.unreadCount = 0 AND cp.leftAt IS NULL " +
+            "AND EXISTS (SELECT m.id FROM Message m WHERE m.chat.id = cp.chat.id AND m.senderId <> cp.userId)")
+    int backfillUnreadCounters();
+
+    @Modifying
+    @Query("UPDATE ChatParticipant cp SET cp.lastDeliveredMessageId = :messageId " +
+            "WHERE cp.chat.id = :chatId AND cp.userId = :userId AND cp.leftAt IS NULL " +
+            "AND (cp.lastDeliveredMessageId IS NULL OR cp.lastDeliveredMessageId < :messageId)")
+    int advanceDeliveredWatermark(@Param("chatId") Long chatId,
+                                  @Param("userId") UUID userId,
+                                  @Param("messageId") Long messageId);
+
+    /**
+     * Доставка сообщения онлайн-получателям (MessageFanoutService): watermark'и нескольких участников одним UPDATE.
+     */
+    @Modifying
+    @Query("UPDATE ChatParticipant cp SET cp.lastDeliveredMessageId = :messageId " +
+            "WHERE cp.chat.id = :chatId AND cp.userId IN :userIds AND cp.leftAt IS NULL " +
+            "AND (cp.lastDeliveredMessageId IS NULL OR cp.lastDeliveredMessageId < :messageId)")
+    int advanceDeliveredWatermarks(@Param("chatId") Long chatId,
+                                   @Param("userIds") Collection<UUID> userIds,
+                                   @Param("messageId") Long messageId);
+}
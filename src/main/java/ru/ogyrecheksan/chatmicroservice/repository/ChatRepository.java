@@ -1,10 +1,13 @@
 package ru.ogyrecheksan.chatmicroservice.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import ru.ogyrecheksan.chatmicroservice.model.Chat;
+import ru.ogyrecheksan.chatmicroservice.repository.projection.ChatSummaryView;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -20,6 +23,39 @@ public interface ChatRepository extends JpaRepository<Chat, Long> { // Изме
     Optional<Chat> findPersonalChat(@Param("user1Id") UUID user1Id,
                                     @Param("user2Id") UUID user2Id);
 
-    @Query("SELECT COUNT(m) FROM Message m WHERE m.chat.id = :chatId AND m.readAt IS NULL AND m.senderId != :userId")
-    Integer countUnreadMessages(@Param("chatId") Long chatId, @Param("userId") UUID userId);
+    @Query("SELECT new ru.ogyrecheksan.chatmicroservice.repository.projection.ChatSummaryView(c.id, c.name, c.type, c.avatarUrl, c.createdAt, " +
+            "c.lastMessageId, c.lastMessageSenderId, c.lastMessagePreview, c.lastMessageAt, " +
+            "p.lastReadMessageId, p.unreadCount) " +
+            "FROM ChatParticipant p JOIN p.chat c " +
+            "WHERE p.userId = :userId AND p.leftAt IS NULL " +
+            "ORDER BY COALESCE(c.lastMessageAt, c.createdAt) DESC, c.id DESC")
+    List<ChatSummaryView> findUserChatSummaries(@Param("userId") UUID userId);
+
+    /**
+     * Снимок последнего сообщения – условным UPDATE, а не записью загруженной сущности: при параллельных отправках
+     * снимок не откатывается к более старому сообщению, если его транзакция закоммитится позже.
+     */
+    @Modifying
+    @Query("UPDATE Chat c SET c.lastMessageId = :messageId, c.lastMessageSenderId = :senderId, " +
+            "c.lastMessagePreview = :preview, c.lastMessageAt = :sentAt " +
+            "WHERE c.id = :chatId AND (c.lastMessageId IS NULL OR c.lastMessageId < :messageId)")
+    int advanceLastMessage(@Param("chatId") Long chatId,
+                           @Param("messageId") Long messageId,
+                           @Param("senderId") UUID senderId,
+                           @Param("preview") String preview,
+                           @Param("sentAt") LocalDateTime sentAt);
+
+    // Заполнение снимка последнего сообщения для чатов, созданных до его появления
+    @Modifying
+    @Query("UPDATE Chat c SET c.lastMessageId = (SELECT MAX(m.id) FROM Message m WHERE m.chat.id = c.id) " +
+            "WHERE c.lastMessageId IS NULL AND EXISTS (SELECT m.id FROM Message m WHERE m.chat.id = c.id)")
+    int backfillLastMessageIds();
+
+    @Modifying
+    @Query("UPDATE Chat c SET " +
+            "c.lastMessageSenderId = (SELECT m.senderId FROM Message m WHERE m.id = c.lastMessageId), " +
+            "c.lastMessagePreview = (SELECT SUBSTRING(m.content, 1, 100) FROM Message m WHERE m.id = c.lastMessageId), " +
+            "c.lastMessageAt = (SELECT m.sentAt FROM Message m WHERE m.id = c.lastMessageId) " +
+            "WHERE c.lastMessageId IS NOT NULL AND c.lastMessageAt IS NULL")
+    int backfillLastMessageDetails();
 }
\ No newline at end of file
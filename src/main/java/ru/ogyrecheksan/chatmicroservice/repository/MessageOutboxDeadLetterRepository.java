@@ -0,0 +1,7 @@
+package ru.ogyrecheksan.chatmicroservice.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.ogyrecheksan.chatmicroservice.model.MessageOutboxDeadLetter;
+
+public interface MessageOutboxDeadLetterRepository extends JpaRepository<MessageOutboxDeadLetter, Long> {
+}
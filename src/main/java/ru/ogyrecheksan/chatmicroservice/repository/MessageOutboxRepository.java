@@ -0,0 +1,26 @@
+package ru.ogyrecheksan.chatmicroservice.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.ogyrecheksan.chatmicroservice.model.MessageOutboxEvent;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface MessageOutboxRepository extends JpaRepository<MessageOutboxEvent, Long> {
+
+    // Строки, заблокированные другим воркером (или узлом), пропускаются – пачки не пересекаются.
+    // Воркер берет только свои чаты, чтобы сообщения одного чата не рассылались параллельно.
+    // Запись, ждущая повтора (next_attempt_at в будущем), задерживает и более поздние записи своего чата
+    @Query(value = "SELECT o.* FROM message_outbox o WHERE MOD(o.chat_id, :workers) = :worker " +
+            "AND (o.next_attempt_at IS NULL OR o.next_attempt_at <= :now) " +
+            "AND NOT EXISTS (SELECT 1 FROM message_outbox w WHERE w.chat_id = o.chat_id AND w.id < o.id " +
+            "AND w.next_attempt_at > :now) " +
+            "ORDER BY o.id LIMIT :limit FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    List<MessageOutboxEvent> lockNextBatch(@Param("workers") int workers,
+                                           @Param("worker") int worker,
+                                           @Param("now") LocalDateTime now,
+                                           @Param("limit") int limit);
+}
@@ -1,6 +1,7 @@
 package ru.ogyrecheksan.chatmicroservice.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import ru.ogyrecheksan.chatmicroservice.model.MessageReadStatus;
@@ -20,6 +21,27 @@ public interface MessageReadStatusRepository extends JpaRepository<MessageReadSt
     List<MessageReadStatus> findStatusesByChatAndUserSince(@Param("chatId") Long chatId,
                                                            @Param("userId") UUID userId,
                                                            @Param("since") LocalDateTime since);
+
+    // Статусы по диапазону (fromId, toId] одним INSERT ... SELECT вместо save() на каждое сообщение
+    @Modifying
+    @Query("INSERT INTO MessageReadStatus (message, userId, readAt) " +
+            "SELECT m, :userId, :now FROM Message m " +
+            "WHERE m.chat.id = :chatId AND m.id > :fromId AND m.id <= :toId AND m.senderId <> :userId")
+    int insertReadStatuses(@Param("chatId") Long chatId,
+                           @Param("userId") UUID userId,
+                           @Param("fromId") Long fromId,
+                           @Param("toId") Long toId,
+                           @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("INSERT INTO MessageReadStatus (message, userId, deliveredAt) " +
+            "SELECT m, :userId, :now FROM Message m " +
+            "WHERE m.chat.id = :chatId AND m.id > :fromId AND m.id <= :toId AND m.senderId <> :userId")
+    int insertDeliveredStatuses(@Param("chatId") Long chatId,
+                                @Param("userId") UUID userId,
+                                @Param("fromId") Long fromId,
+                                @Param("toId") Long toId,
+                                @Param("now") LocalDateTime now);
 }
 
 
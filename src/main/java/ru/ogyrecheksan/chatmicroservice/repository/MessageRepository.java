@@ -1,24 +1,53 @@
 package ru.ogyrecheksan.chatmicroservice.repository;
 
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import ru.ogyrecheksan.chatmicroservice.model.Message;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
 
 public interface MessageRepository extends JpaRepository<Message, Long> {
 
-    Page<Message> findByChatIdOrderBySentAtDesc(Long chatId, Pageable pageable);
+    // Slice вместо Page – без COUNT(*) на каждую страницу
+    Slice<Message> findByChatIdOrderBySentAtDesc(Long chatId, Pageable pageable);
+
+    // Keyset-пагинация по (chat_id, id): стоимость страницы не зависит от глубины
+    @Query("SELECT m FROM Message m WHERE m.chat.id = :chatId ORDER BY m.id DESC")
+    Slice<Message> findLatestByChatId(@Param("chatId") Long chatId, Pageable pageable);
+
+    @Query("SELECT m FROM Message m WHERE m.chat.id = :chatId AND m.id < :beforeId ORDER BY m.id DESC")
+    Slice<Message> findByChatIdBefore(@Param("chatId") Long chatId,
+                                      @Param("beforeId") Long beforeId,
+                                      Pageable pageable);
+
+    @Query("SELECT m FROM Message m WHERE m.chat.id = :chatId AND m.id > :afterId ORDER BY m.id ASC")
+    Slice<Message> findByChatIdAfter(@Param("chatId") Long chatId,
+                                     @Param("afterId") Long afterId,
+                                     Pageable pageable);
 
     @Query("SELECT m FROM Message m WHERE m.chat.id = :chatId ORDER BY m.sentAt DESC")
     List<Message> findLastMessages(@Param("chatId") Long chatId, Pageable pageable);
 
-    List<Message> findByChatIdAndReadAtIsNullAndSenderIdNot(Long chatId, UUID senderId);
+    // Агрегированные readAt/deliveredAt для режима chat.receipts.per-message-status – одним UPDATE
+    @Modifying
+    @Query("UPDATE Message m SET m.readAt = :now WHERE m.chat.id = :chatId AND m.id <= :upToId " +
+            "AND m.readAt IS NULL AND m.senderId <> :userId")
+    int markReadUpTo(@Param("chatId") Long chatId,
+                     @Param("userId") UUID userId,
+                     @Param("upToId") Long upToId,
+                     @Param("now") LocalDateTime now);
 
-    // Добавьте этот метод для markMessagesAsDelivered
-    List<Message> findByChatIdAndDeliveredAtIsNullAndSenderIdNot(Long chatId, UUID senderId);
-}
\ No newline at end of file
+    @Modifying
+    @Query("UPDATE Message m SET m.deliveredAt = :now WHERE m.chat.id = :chatId AND m.id <= :upToId " +
+            "AND m.deliveredAt IS NULL AND m.senderId <> :userId")
+    int markDeliveredUpTo(@Param("chatId") Long chatId,
+                          @Param("userId") UUID userId,
+                          @Param("upToId") Long upToId,
+                          @Param("now") LocalDateTime now);
+}
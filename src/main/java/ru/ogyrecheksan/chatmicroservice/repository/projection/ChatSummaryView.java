@@ -0,0 +1,23 @@
+package ru.ogyrecheksan.chatmicroservice.repository.projection;
+
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Плоская проекция чата для списка чатов (без гидрации сущности Chat),
+ * включая снимок последнего сообщения и курсор прочтения текущего пользователя.
+ */
+public record ChatSummaryView(Long id,
+                              String name,
+                              ChatType type,
+                              String avatarUrl,
+                              LocalDateTime createdAt,
+                              Long lastMessageId,
+                              UUID lastMessageSenderId,
+                              String lastMessagePreview,
+                              LocalDateTime lastMessageAt,
+                              Long lastReadMessageId,
+                              int unreadCount) {
+}
@@ -0,0 +1,13 @@
+package ru.ogyrecheksan.chatmicroservice.repository.projection;
+
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatRole;
+
+import java.util.UUID;
+
+/**
+ * Активный участник чата: chatId + userId + роль.
+ */
+public record ParticipantView(Long chatId,
+                              UUID userId,
+                              ChatRole role) {
+}
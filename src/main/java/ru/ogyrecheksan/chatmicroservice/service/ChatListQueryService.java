@@ -0,0 +1,76 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.ChatResponse;
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.projection.ChatSummaryView;
+import ru.ogyrecheksan.chatmicroservice.repository.projection.ParticipantView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Read-путь для списка чатов пользователя (GET /api/chats).
+ *
+ * Вместо convertToResponse на каждый чат собирает ответ фиксированным числом
+ * set-based запросов на DTO-проекциях, независимо от количества чатов и участников:
+ *  1. чаты пользователя
+ *  2. активные участники всех этих чатов
+ *
+ * Последнее сообщение берется из денормализованного снимка в chats, а счетчик непрочитанных –
+ * из строки участника текущего пользователя, без обращения к messages.
+ */
+@Service
+@Transactional(readOnly = true)
+@RequiredArgsConstructor
+public class ChatListQueryService {
+
+    private final ChatRepository chatRepository;
+    private final ChatParticipantRepository participantRepository;
+
+    public List<ChatResponse> getUserChats(UUID userId) {
+        List<ChatSummaryView> chats = chatRepository.findUserChatSummaries(userId);
+        if (chats.isEmpty()) {
+            return List.of();
+        }
+        List<Long> chatIds = chats.stream().map(ChatSummaryView::id).toList();
+
+        Map<Long, List<ChatResponse.Participant>> participantsByChat = new HashMap<>();
+        for (ParticipantView view : participantRepository.findActiveParticipants(chatIds)) {
+            ChatResponse.Participant participant = new ChatResponse.Participant();
+            participant.setUserId(view.userId());
+            participant.setRole(view.role().name().toLowerCase());
+            participantsByChat.computeIfAbsent(view.chatId(), k -> new ArrayList<>()).add(participant);
+        }
+
+        List<ChatResponse> responses = new ArrayList<>(chats.size());
+        for (ChatSummaryView chat : chats) {
+            ChatResponse response = new ChatResponse();
+            response.setId(chat.id());
+            response.setName(chat.name());
+            response.setType(chat.type() == ChatType.PERSONAL ? "private" : "group");
+            response.setAvatarUrl(chat.avatarUrl());
+            response.setCreatedAt(chat.createdAt());
+            response.setParticipants(participantsByChat.getOrDefault(chat.id(), new ArrayList<>()));
+            response.setUnreadCount(chat.unreadCount());
+
+            if (chat.lastMessageId() != null) {
+                ChatResponse.LastMessage lm = new ChatResponse.LastMessage();
+                lm.setId(String.valueOf(chat.lastMessageId()));
+                lm.setContent(chat.lastMessagePreview());
+                lm.setSenderId(chat.lastMessageSenderId() != null ? chat.lastMessageSenderId().toString() : null);
+                lm.setCreatedAt(chat.lastMessageAt());
+                response.setLastMessage(lm);
+            }
+            responses.add(response);
+        }
+        return responses;
+    }
+}
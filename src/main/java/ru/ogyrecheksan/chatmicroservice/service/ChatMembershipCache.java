@@ -0,0 +1,143 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш членства в чате для проверок доступа: (chatId, userId) -> активный участник или нет.
+ *
+ * Проверка выполняется на каждый STOMP SEND/SUBSCRIBE (включая индикатор набора) и в REST-методах чата,
+ * поэтому результат кэшируется с ограничением по размеру и TTL. Кэшируются и отрицательные ответы.
+ *
+ * При изменении состава чата запись инвалидируется сразу и еще раз после коммита –
+ * чтобы параллельное чтение до коммита не вернуло в кэш устаревшее значение. После коммита публикуется
+ * ChatMembershipChangedEvent – в cluster-режиме по нему сбрасываются кэши остальных узлов (evictLocal).
+ *
+ * Для STOMP-сессий членство снимается целиком на CONNECT (activeChatIds) вместе с эпохой (currentEpoch).
+ * Каждый evictLocal увеличивает эпоху и помечает ею затронутых пользователей; isSnapshotValid говорит, можно ли
+ * еще верить снимку: эпоха не менялась – без поиска в кэше, иначе по пометке пользователя. Пометок хранится
+ * не больше max-size; если пометка пользователя вытеснена, снимок считается устаревшим. Снимок старше ttl тоже
+ * не используется – как и записи кэша, на случай пропущенной инвалидации.
+ *
+ * Метрики: cache.gets{cache=chat.membership, result=hit|miss}, cache.evictions, cache.size.
+ */
+@Service
+public class ChatMembershipCache {
+
+    private final ChatParticipantRepository participantRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Cache<MembershipKey, Boolean> cache;
+    private final long snapshotTtlNanos;
+    private final AtomicLong epoch = new AtomicLong();
+    // userId -> эпоха последнего изменения его членства
+    private final Cache<UUID, Long> userChanges;
+    // максимальная эпоха среди вытесненных пометок
+    private final AtomicLong evictedChangesUpTo = new AtomicLong();
+
+    public ChatMembershipCache(ChatParticipantRepository participantRepository,
+                               ApplicationEventPublisher eventPublisher,
+                               MeterRegistry meterRegistry,
+                               @Value("${chat.membership-cache.max-size:100000}") long maxSize,
+                               @Value("${chat.membership-cache.ttl-seconds:300}") long ttlSeconds) {
+        this.participantRepository = participantRepository;
+        this.eventPublisher = eventPublisher;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chat.membership");
+        this.snapshotTtlNanos = Duration.ofSeconds(ttlSeconds).toNanos();
+        this.userChanges = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .evictionListener((UUID userId, Long changedAt, RemovalCause cause) ->
+                        evictedChangesUpTo.accumulateAndGet(changedAt, Math::max))
+                .executor(Runnable::run)
+                .build();
+    }
+
+    public boolean isMember(Long chatId, UUID userId) {
+        return cache.get(new MembershipKey(chatId, userId),
+                key -> participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(key.chatId(), key.userId()));
+    }
+
+    /**
+     * Эпоха для снимка; читается до activeChatIds, чтобы изменение между ними сделало снимок устаревшим.
+     */
+    public long currentEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Чаты, в которых пользователь сейчас активный участник, по возрастанию id (минуя кэш).
+     */
+    public long[] activeChatIds(UUID userId) {
+        return participantRepository.findActiveChatIds(userId).stream()
+                .mapToLong(Long::longValue)
+                .sorted()
+                .toArray();
+    }
+
+    /**
+     * Снимок членства userId, снятый в эпоху snapshotEpoch в момент takenAtNanos (System.nanoTime), еще актуален.
+     */
+    public boolean isSnapshotValid(UUID userId, long snapshotEpoch, long takenAtNanos) {
+        if (System.nanoTime() - takenAtNanos > snapshotTtlNanos) {
+            return false;
+        }
+        if (epoch.get() == snapshotEpoch) {
+            return true;
+        }
+        Long changedAt = userChanges.getIfPresent(userId);
+        return changedAt != null ? changedAt <= snapshotEpoch : evictedChangesUpTo.get() <= snapshotEpoch;
+    }
+
+    public void invalidate(Long chatId, UUID userId) {
+        invalidate(chatId, List.of(userId));
+    }
+
+    public void invalidate(Long chatId, Collection<UUID> userIds) {
+        List<UUID> changed = List.copyOf(userIds);
+        evictLocal(chatId, changed);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            eventPublisher.publishEvent(new ChatMembershipChangedEvent(chatId, changed));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evictLocal(chatId, changed);
+                eventPublisher.publishEvent(new ChatMembershipChangedEvent(chatId, changed));
+            }
+        });
+    }
+
+    /**
+     * Сброс только локального кэша – для изменений, пришедших с других узлов.
+     */
+    public void evictLocal(Long chatId, Collection<UUID> userIds) {
+        long changedAt = epoch.incrementAndGet();
+        for (UUID userId : userIds) {
+            cache.invalidate(new MembershipKey(chatId, userId));
+            userChanges.asMap().merge(userId, changedAt, Math::max);
+        }
+    }
+
+    private record MembershipKey(Long chatId, UUID userId) {
+    }
+}
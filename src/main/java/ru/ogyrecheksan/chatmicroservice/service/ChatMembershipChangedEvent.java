@@ -0,0 +1,11 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Состав чата изменился для userIds (публикуется ChatMembershipCache после коммита).
+ * В cluster-режиме по нему сбрасываются кэши членства на остальных узлах.
+ */
+public record ChatMembershipChangedEvent(Long chatId, List<UUID> userIds) {
+}
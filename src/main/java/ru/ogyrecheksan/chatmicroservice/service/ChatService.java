@@ -6,6 +6,7 @@ import org.springframework.transaction.annotation.Transactional;
 import ru.ogyrecheksan.chatmicroservice.dto.Request.CreateChatRequest;
 import ru.ogyrecheksan.chatmicroservice.dto.Request.ParticipantActionRequest;
 import ru.ogyrecheksan.chatmicroservice.dto.Response.ChatResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.OnlineUsersResponse;
 import ru.ogyrecheksan.chatmicroservice.exception.AccessDeniedException;
 import ru.ogyrecheksan.chatmicroservice.exception.ChatNotFoundException;
 import ru.ogyrecheksan.chatmicroservice.model.Chat;
@@ -33,7 +34,9 @@ public class ChatService {
 
     private final ChatRepository chatRepository;
     private final ChatParticipantRepository participantRepository;
-    private final MessageService messageService;
+    private final ChatListQueryService chatListQueryService;
+    private final ChatMembershipCache membershipCache;
+    private final WebSocketSubscriptionRegistry subscriptionRegistry;
         private final WebSocketService webSocketService;
 
         public ChatResponse createPersonalChat(UUID user1Id, UUID user2Id, String authToken) {
@@ -77,32 +80,32 @@ public class ChatService {
 
         Chat savedChat = chatRepository.save(chat);
 
-        // Добавляем создателя как владельца
-        addParticipant(savedChat, creatorId, ChatRole.OWNER);
+        // Добавляем создателя как владельца и остальных участников одним batch-insert'ом
+        List<ChatParticipant> participants = new ArrayList<>();
+        participants.add(newParticipant(savedChat, creatorId, ChatRole.OWNER));
 
-        // Добавляем других участников
-        Set<UUID> participantIds = new java.util.HashSet<>();
+        Set<UUID> participantIds = new HashSet<>();
         participantIds.add(creatorId);
         if (request.getParticipantIds() != null) {
             for (UUID participantId : request.getParticipantIds()) {
-                if (!participantId.equals(creatorId)) {
-                    addParticipant(savedChat, participantId, ChatRole.MEMBER);
+                if (participantIds.add(participantId)) {
+                    participants.add(newParticipant(savedChat, participantId, ChatRole.MEMBER));
                 }
-                participantIds.add(participantId);
             }
         }
+        participantRepository.saveAll(participants);
+        membershipCache.invalidate(savedChat.getId(), participantIds);
 
         // Уведомляем всех участников о новом групповом чате
         webSocketService.sendNewChatNotifications(savedChat, creatorId, participantIds);
 
-        return convertToResponse(savedChat, creatorId, authToken);
+        // Участники только что созданы и уже в памяти – не перечитываем их по одному
+        return convertToResponse(savedChat, participants, creatorId);
     }
 
     public List<ChatResponse> getUserChats(UUID userId, String authToken) {
-        List<Chat> chats = chatRepository.findUserChats(userId);
-        return chats.stream()
-                .map(chat -> convertToResponse(chat, userId, authToken))
-                .toList();
+        // Список чатов собирается set-based запросами, без convertToResponse на каждый чат
+        return chatListQueryService.getUserChats(userId);
     }
 
     public ChatResponse getChat(Long chatId, UUID userId, String authToken) {
@@ -110,13 +113,27 @@ public class ChatService {
                 .orElseThrow(() -> new ChatNotFoundException(chatId));
 
         // Проверяем, является ли пользователь участником
-        if (!participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(chatId, userId)) {
+        if (!membershipCache.isMember(chatId, userId)) {
             throw new AccessDeniedException("Access denied to chat: " + chatId);
         }
 
         return convertToResponse(chat, userId, authToken);
     }
 
+    /**
+     * Онлайн-участники чата по данным WebSocketSubscriptionRegistry (без обращения к БД, кроме проверки доступа).
+     */
+    @Transactional(readOnly = true)
+    public OnlineUsersResponse getOnlineUsers(Long chatId, UUID userId) {
+        if (!membershipCache.isMember(chatId, userId)) {
+            throw new AccessDeniedException("Access denied to chat: " + chatId);
+        }
+        OnlineUsersResponse response = new OnlineUsersResponse();
+        response.setChatId(chatId);
+        response.setOnlineUserIds(subscriptionRegistry.getOnlineUsers(chatId));
+        return response;
+    }
+
     /**
      * Возвращает ID личного чата между текущим пользователем и собеседником.
      * Если чат не найден – кидает ChatNotFoundException.
@@ -131,7 +148,7 @@ public class ChatService {
         Chat chat = chatRepository.findById(chatId)
                 .orElseThrow(() -> new ChatNotFoundException(chatId));
         // Проверка что actor участник
-        if (!participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(chatId, actorId)) {
+        if (!membershipCache.isMember(chatId, actorId)) {
             throw new AccessDeniedException("Access denied to chat: " + chatId);
         }
         if ("add".equalsIgnoreCase(request.getAction())) {
@@ -141,6 +158,7 @@ public class ChatService {
                     .ifPresent(p -> {
                         p.setLeftAt(java.time.LocalDateTime.now());
                         participantRepository.save(p);
+                        membershipCache.invalidate(chatId, request.getUserId());
                     });
         } else {
             throw new IllegalArgumentException("Unsupported action");
@@ -150,7 +168,7 @@ public class ChatService {
     public String uploadAvatar(Long chatId, UUID actorId, MultipartFile file) {
         Chat chat = chatRepository.findById(chatId)
                 .orElseThrow(() -> new ChatNotFoundException(chatId));
-        if (!participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(chatId, actorId)) {
+        if (!membershipCache.isMember(chatId, actorId)) {
             throw new AccessDeniedException("Access denied to chat: " + chatId);
         }
         try {
@@ -169,21 +187,22 @@ public class ChatService {
     }
 
     private void addParticipant(Chat chat, UUID userId, ChatRole role) {
+        participantRepository.save(newParticipant(chat, userId, role));
+        membershipCache.invalidate(chat.getId(), userId);
+    }
+
+    private ChatParticipant newParticipant(Chat chat, UUID userId, ChatRole role) {
         ChatParticipant participant = new ChatParticipant();
         participant.setChat(chat);
         participant.setUserId(userId);
         participant.setRole(role);
-        participantRepository.save(participant);
+        // история до вступления не считается непрочитанной – ни счетчиком, ни watermark'ом
+        participant.setLastReadMessageId(chat.getLastMessageId());
+        return participant;
     }
 
     private ChatResponse convertToResponse(Chat chat, UUID currentUserId, String authToken) {
-        ChatResponse response = new ChatResponse();
-        response.setId(chat.getId());
-        response.setName(chat.getName());
-        response.setType(chat.getType() == ChatType.PERSONAL ? "private" : "group");
-        response.setDescription(null);
-        response.setAvatarUrl(chat.getAvatarUrl());
-        response.setCreatedAt(chat.getCreatedAt());
+        ChatResponse response = baseResponse(chat);
 
         // Участники
         List<UUID> participantIds = participantRepository.findActiveParticipantIds(chat.getId());
@@ -193,24 +212,55 @@ public class ChatService {
                 ChatResponse.Participant p = new ChatResponse.Participant();
                 p.setUserId(participantId);
                 participantRepository.findByChatIdAndUserId(chat.getId(), participantId)
-                        .ifPresent(participant -> p.setRole(participant.getRole().name().toLowerCase()));
+                        .ifPresent(participant -> {
+                            p.setRole(participant.getRole().name().toLowerCase());
+                            if (participantId.equals(currentUserId)) {
+                                response.setUnreadCount(participant.getUnreadCount());
+                            }
+                        });
                 participants.add(p);
             }
         } catch (Exception e) {
             System.err.println("Failed to fetch participant info: " + e.getMessage());
         }
         response.setParticipants(participants);
+        return response;
+    }
+
+    private ChatResponse convertToResponse(Chat chat, List<ChatParticipant> chatParticipants, UUID currentUserId) {
+        ChatResponse response = baseResponse(chat);
+        List<ChatResponse.Participant> participants = new ArrayList<>(chatParticipants.size());
+        for (ChatParticipant participant : chatParticipants) {
+            ChatResponse.Participant p = new ChatResponse.Participant();
+            p.setUserId(participant.getUserId());
+            p.setRole(participant.getRole().name().toLowerCase());
+            if (participant.getUserId().equals(currentUserId)) {
+                response.setUnreadCount(participant.getUnreadCount());
+            }
+            participants.add(p);
+        }
+        response.setParticipants(participants);
+        return response;
+    }
+
+    private ChatResponse baseResponse(Chat chat) {
+        ChatResponse response = new ChatResponse();
+        response.setId(chat.getId());
+        response.setName(chat.getName());
+        response.setType(chat.getType() == ChatType.PERSONAL ? "private" : "group");
+        response.setDescription(null);
+        response.setAvatarUrl(chat.getAvatarUrl());
+        response.setCreatedAt(chat.getCreatedAt());
 
-        // Последнее сообщение
-        var lastMessage = messageService.getLastMessage(chat.getId());
-        if (lastMessage != null) {
+        // Последнее сообщение – из снимка в самом чате, без запроса к messages
+        if (chat.getLastMessageId() != null) {
             ChatResponse.LastMessage lm = new ChatResponse.LastMessage();
-            lm.setId(lastMessage.getId());
-            lm.setContent(lastMessage.getContent());
-            lm.setSenderId(lastMessage.getSenderId());
+            lm.setId(String.valueOf(chat.getLastMessageId()));
+            lm.setContent(chat.getLastMessagePreview());
+            lm.setSenderId(chat.getLastMessageSenderId() != null ? chat.getLastMessageSenderId().toString() : null);
+            lm.setCreatedAt(chat.getLastMessageAt());
             response.setLastMessage(lm);
         }
-
         return response;
     }
-}
\ No newline at end of file
+}
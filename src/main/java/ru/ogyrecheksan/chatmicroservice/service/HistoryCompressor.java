@@ -0,0 +1,115 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Сжатие payload кадра HISTORY на уровне приложения.
+ *
+ * Нужно там, где permessage-deflate нет: SockJS-транспорты, клиенты без поддержки расширения.
+ * Клиент разрешает сжатие в запросе истории (compression: "gzip"); payload не меньше
+ * chat.websocket.history.compression-threshold байт JSON уходит строкой base64(gzip(JSON)),
+ * а у кадра выставляется encoding: "gzip".
+ *
+ * Метрики для подбора порога:
+ *  - chat.websocket.history.payload.size – размер JSON payload (байт), на каждый запрос со сжатием
+ *  - chat.websocket.history.compression.ratio – во сколько раз уменьшился payload (JSON / base64)
+ *  - chat.websocket.history.compression.cpu – CPU-время сжатия кадра (на виртуальных потоках – время выполнения)
+ */
+@Component
+public class HistoryCompressor {
+
+    public static final String GZIP = "gzip";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final ObjectMapper objectMapper;
+    private final int threshold;
+    private final DistributionSummary payloadSize;
+    private final DistributionSummary ratio;
+    private final Timer cpuTime;
+
+    public HistoryCompressor(ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             @Value("${chat.websocket.history.compression-threshold:8192}") int threshold) {
+        this.objectMapper = objectMapper;
+        this.threshold = threshold;
+        this.payloadSize = DistributionSummary.builder("chat.websocket.history.payload.size")
+                .description("JSON size of HISTORY payloads requested with compression")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.ratio = DistributionSummary.builder("chat.websocket.history.compression.ratio")
+                .description("Uncompressed to compressed size of HISTORY payloads")
+                .register(meterRegistry);
+        this.cpuTime = Timer.builder("chat.websocket.history.compression.cpu")
+                .description("CPU time spent compressing one HISTORY payload")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Сериализует payload один раз: JSON нужен и для порога, и для кадра без сжатия.
+     *
+     * @return JSON payload и base64(gzip(JSON)) – compressed null, если сжатие выключено или payload меньше порога
+     */
+    public Encoded compress(Object payload) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            throw new MessageConversionException("Failed to serialize " + payload.getClass().getSimpleName(), e);
+        }
+        if (threshold <= 0) {
+            return new Encoded(json, null);
+        }
+        payloadSize.record(json.length);
+        if (json.length < threshold) {
+            return new Encoded(json, null);
+        }
+
+        long cpuStart = threadCpuTime();
+        long wallStart = System.nanoTime();
+        String compressed = Base64.getEncoder().encodeToString(gzip(json));
+        long cpuEnd = threadCpuTime();
+        cpuTime.record(cpuStart >= 0 && cpuEnd >= 0 ? cpuEnd - cpuStart : System.nanoTime() - wallStart,
+                TimeUnit.NANOSECONDS);
+        ratio.record((double) json.length / compressed.length());
+        return new Encoded(json, compressed);
+    }
+
+    /**
+     * Payload кадра после compress: compressed != null – уходит он (encoding: "gzip"), иначе – json как есть.
+     */
+    public record Encoded(byte[] json, String compressed) {
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        } catch (IOException e) {
+            // ByteArrayOutputStream не бросает IOException
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // -1, если JVM не умеет (в т.ч. для виртуальных потоков)
+    private static long threadCpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+}
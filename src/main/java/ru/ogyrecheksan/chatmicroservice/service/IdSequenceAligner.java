@@ -0,0 +1,58 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Выравнивание sequence'ов после перехода с IDENTITY на sequence-генераторы
+ * (chats и chat_participants – с пулом, messages – без пула, чтобы id сообщений росли во времени на всех узлах).
+ *
+ * ddl-auto=update создает *_seq с нуля, а в существующих таблицах уже есть строки с id из IDENTITY.
+ * До приема трафика сдвигаем каждый sequence за MAX(id) таблицы, иначе первые вставки упадут на PK.
+ * Выполняется только на PostgreSQL; если sequence уже впереди – ничего не меняется.
+ *
+ * message_read_status остается на IDENTITY: статусы пишутся одним INSERT ... SELECT,
+ * которому JDBC-batching не нужен.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IdSequenceAligner implements InitializingBean {
+
+    private static final Map<String, String> SEQUENCES = Map.of(
+            "chats", "chats_seq",
+            "messages", "messages_seq",
+            "chat_participants", "chat_participants_seq"
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    // Схема (и сами sequence'ы) создается при инициализации EntityManagerFactory
+    private final EntityManagerFactory entityManagerFactory;
+
+    @Override
+    public void afterPropertiesSet() throws MetaDataAccessException {
+        String product = JdbcUtils.extractDatabaseMetaData(jdbcTemplate.getDataSource(),
+                metaData -> metaData.getDatabaseProductName());
+        if (!"PostgreSQL".equals(product)) {
+            return;
+        }
+        SEQUENCES.forEach((table, sequence) -> {
+            List<Long> aligned = jdbcTemplate.queryForList(
+                    "SELECT setval('" + sequence + "', (SELECT MAX(id) FROM " + table + ")) " +
+                            "WHERE (SELECT MAX(id) FROM " + table + ") > (SELECT last_value FROM " + sequence + ")",
+                    Long.class);
+            if (!aligned.isEmpty()) {
+                log.info("Aligned sequence {} to {}", sequence, aligned.get(0));
+            }
+        });
+    }
+}
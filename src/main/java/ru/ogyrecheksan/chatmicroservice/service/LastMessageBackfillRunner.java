@@ -0,0 +1,32 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatRepository;
+
+/**
+ * Однократное заполнение снимка последнего сообщения для чатов,
+ * в которых сообщения были отправлены до появления колонок last_message_*.
+ * Затрагивает только чаты с пустым снимком, повторный запуск ничего не меняет.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LastMessageBackfillRunner implements ApplicationRunner {
+
+    private final ChatRepository chatRepository;
+
+    @Override
+    @Transactional
+    public void run(ApplicationArguments args) {
+        int chats = chatRepository.backfillLastMessageIds();
+        chatRepository.backfillLastMessageDetails();
+        if (chats > 0) {
+            log.info("Backfilled last message snapshot for {} chats", chats);
+        }
+    }
+}
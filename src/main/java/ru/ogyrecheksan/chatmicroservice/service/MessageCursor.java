@@ -0,0 +1,104 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Курсор keyset-пагинации истории сообщений.
+ *
+ * Вместо OFFSET запоминаем границу по id сообщения:
+ *  - BEFORE id – более старые сообщения (ORDER BY id DESC)
+ *  - AFTER id  – более новые сообщения (ORDER BY id ASC)
+ *  - LATEST    – первая страница, самые свежие сообщения
+ *
+ * Клиенту курсор отдается непрозрачной строкой (base64url), формат может меняться.
+ */
+public final class MessageCursor {
+
+    public enum Direction {
+        BEFORE, AFTER
+    }
+
+    private static final MessageCursor LATEST = new MessageCursor(Direction.BEFORE, null);
+
+    private final Direction direction;
+    private final Long messageId;
+
+    private MessageCursor(Direction direction, Long messageId) {
+        this.direction = direction;
+        this.messageId = messageId;
+    }
+
+    public static MessageCursor latest() {
+        return LATEST;
+    }
+
+    public static MessageCursor before(Long messageId) {
+        return new MessageCursor(Direction.BEFORE, messageId);
+    }
+
+    public static MessageCursor after(Long messageId) {
+        return new MessageCursor(Direction.AFTER, messageId);
+    }
+
+    /**
+     * Собирает курсор из параметров запроса: непрозрачный cursor имеет приоритет,
+     * затем явные before/after. Если ничего не передано – возвращает null.
+     */
+    public static MessageCursor of(String cursor, Long beforeMessageId, Long afterMessageId) {
+        if (cursor != null && !cursor.isBlank()) {
+            return decode(cursor);
+        }
+        if (beforeMessageId != null && afterMessageId != null) {
+            throw new IllegalArgumentException("Only one of before/after can be specified");
+        }
+        if (beforeMessageId != null) {
+            return before(beforeMessageId);
+        }
+        if (afterMessageId != null) {
+            return after(afterMessageId);
+        }
+        return null;
+    }
+
+    public static MessageCursor decode(String cursor) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        int separator = raw.indexOf(':');
+        if (separator != 1) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        Direction direction = switch (raw.charAt(0)) {
+            case 'b' -> Direction.BEFORE;
+            case 'a' -> Direction.AFTER;
+            default -> throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        };
+        try {
+            return new MessageCursor(direction, Long.parseLong(raw.substring(2)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    public String encode() {
+        String raw = (direction == Direction.BEFORE ? "b:" : "a:") + messageId;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public Long getMessageId() {
+        return messageId;
+    }
+
+    public boolean isLatest() {
+        return messageId == null;
+    }
+}
@@ -0,0 +1,79 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Рассылка нового сообщения по WebSocket: broadcast в /topic/chat/{chatId} и персональные уведомления участникам.
+ *
+ * Вызывается MessageOutboxRelay уже после коммита, вне потока запроса.
+ * Персональные уведомления получают только пользователи с открытой WebSocket-сессией; остальные увидят
+ * сообщение при загрузке истории (тогда же сдвинется их watermark доставки).
+ * Доставка онлайн-получателям сохраняется в watermark'е (recordDelivered – один UPDATE на чат и сообщение
+ * за пачку outbox), и только после коммита квитанции уходят в ReceiptAggregator – клиенты не видят
+ * "доставлено", которое пропадет после перезагрузки.
+ * В cluster-режиме реестр видит и сессии других узлов (ClusterPresence), поэтому уведомления так же уходят
+ * только онлайн-получателям: межузловой трафик растет с числом активных чатов, а не с размером групп.
+ * Получатель, подключившийся в пределах задержки шины, увидит сообщение при загрузке истории.
+ */
+@Service
+public class MessageFanoutService {
+
+    private final WebSocketService webSocketService;
+    private final WebSocketSubscriptionRegistry subscriptionRegistry;
+    private final ChatParticipantRepository participantRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public MessageFanoutService(WebSocketService webSocketService,
+                                WebSocketSubscriptionRegistry subscriptionRegistry,
+                                ChatParticipantRepository participantRepository,
+                                ApplicationEventPublisher eventPublisher) {
+        this.webSocketService = webSocketService;
+        this.subscriptionRegistry = subscriptionRegistry;
+        this.participantRepository = participantRepository;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Ошибка брокера пробрасывается вызывающему – запись outbox останется для повторной отправки.
+     *
+     * @return получатели, которым сообщение доставлено в открытую сессию (для recordDelivered)
+     */
+    public List<UUID> deliver(MessageSentEvent event) {
+        webSocketService.sendMessageToChat(event.chatId(), event.message());
+        List<UUID> recipients = event.participantIds().stream()
+                .filter(participantId -> !participantId.equals(event.senderId()))
+                .toList();
+        // офлайн-получателям пушить некуда – не тратим на них сериализацию и маршрутизацию
+        List<UUID> onlineRecipients = recipients.stream()
+                .filter(subscriptionRegistry::isOnline)
+                .toList();
+        if (!onlineRecipients.isEmpty()) {
+            webSocketService.sendNewMessageNotifications(
+                    event.chatId(), event.senderId(), event.message(), onlineRecipients);
+        }
+        return onlineRecipients;
+    }
+
+    /**
+     * Сдвигает watermark'и доставки чата (userId -> последнее доставленное сообщение) и публикует квитанции.
+     * Вызывается в транзакции relay: RECEIPTS уйдут после ее коммита (ReceiptAggregator.onReceipt).
+     */
+    public void recordDelivered(Long chatId, Map<UUID, Long> deliveredUpTo) {
+        // обычно все онлайн-получатели получили одно и то же последнее сообщение – один UPDATE
+        Map<Long, List<UUID>> usersByMessage = new HashMap<>();
+        deliveredUpTo.forEach((userId, messageId) ->
+                usersByMessage.computeIfAbsent(messageId, id -> new ArrayList<>()).add(userId));
+        usersByMessage.forEach((messageId, userIds) ->
+                participantRepository.advanceDeliveredWatermarks(chatId, userIds, messageId));
+        deliveredUpTo.forEach((userId, messageId) ->
+                eventPublisher.publishEvent(new ReceiptEvent(chatId, userId, messageId, false)));
+    }
+}
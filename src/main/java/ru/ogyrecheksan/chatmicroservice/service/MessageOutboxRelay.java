@@ -0,0 +1,302 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.model.MessageOutboxDeadLetter;
+import ru.ogyrecheksan.chatmicroservice.model.MessageOutboxEvent;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.MessageOutboxDeadLetterRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.MessageOutboxRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transactional outbox для новых сообщений.
+ *
+ * sendMessage вызывает append в своей транзакции: запись message_outbox коммитится вместе с сообщением,
+ * поэтому клиенты не увидят сообщение, транзакция которого откатилась, а рассылка не держит соединение с БД
+ * в запросе. Воркеры (виртуальные потоки) забирают записи пачками через SELECT ... FOR UPDATE SKIP LOCKED,
+ * рассылают через MessageFanoutService, сдвигают watermark'и доставки онлайн-получателей и удаляют записи
+ * в той же транзакции – доставка at-least-once:
+ * при падении между рассылкой и коммитом пачка уйдет повторно. Несколько воркеров и узлов не берут
+ * одни и те же строки; воркер обрабатывает только свои чаты (chat_id mod parallelism), поэтому
+ * на одном узле порядок сообщений в чате сохраняется.
+ *
+ * После коммита append будит воркера; poll-interval – только запасной путь (записи других узлов, повторы).
+ * Воркеры запускаются по ApplicationReadyEvent, когда брокер STOMP уже принимает сообщения (иначе разосланное
+ * в еще не запущенный брокер пропало бы вместе с удаленной записью), и останавливаются по ContextClosedEvent –
+ * до остановки брокера.
+ * Запись, рассылка которой упала, остается в outbox и повторяется до MAX_ATTEMPTS раз с экспоненциальной паузой
+ * (chat.outbox.retry-backoff-ms, удваивается с каждой попыткой, next_attempt_at); до повтора следующие записи
+ * того же чата не рассылаются, чтобы клиенты не получили их раньше нее. Исчерпавшая попытки запись переносится
+ * в message_outbox_dead, а не удаляется – сообщение не теряется молча.
+ *
+ * Метрики:
+ *  - chat.outbox.latency  – от записи в outbox до завершения рассылки
+ *  - chat.outbox.relayed  – разосланные записи
+ *  - chat.outbox.failures – неудачные попытки рассылки
+ *  - chat.outbox.pending  – записи, ожидающие рассылки (вся таблица, включая записи других узлов);
+ *    считается запросом COUNT при каждом снятии метрик, а не на пути рассылки
+ *  - chat.outbox.dead     – записи в message_outbox_dead (так же, COUNT при снятии метрик)
+ */
+@Slf4j
+@Service
+public class MessageOutboxRelay {
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final MessageOutboxRepository outboxRepository;
+    private final MessageOutboxDeadLetterRepository deadLetterRepository;
+    private final ChatParticipantRepository participantRepository;
+    private final MessageFanoutService fanoutService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final long pollIntervalMs;
+    private final long retryBackoffMs;
+    private final int parallelism;
+    // у каждого воркера свой сигнал: будим именно владельца партиции чата (MOD(chat_id, parallelism))
+    private final Semaphore[] wakeups;
+    private ExecutorService workers;
+    private ApplicationContext context;
+    private final Timer latency;
+    private final Counter relayed;
+    private final Counter failures;
+    private volatile boolean running;
+
+    public MessageOutboxRelay(MessageOutboxRepository outboxRepository,
+                              MessageOutboxDeadLetterRepository deadLetterRepository,
+                              ChatParticipantRepository participantRepository,
+                              MessageFanoutService fanoutService,
+                              PlatformTransactionManager transactionManager,
+                              ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.outbox.batch-size:100}") int batchSize,
+                              @Value("${chat.outbox.poll-interval-ms:500}") long pollIntervalMs,
+                              @Value("${chat.outbox.retry-backoff-ms:1000}") long retryBackoffMs,
+                              @Value("${chat.outbox.parallelism:2}") int parallelism) {
+        this.outboxRepository = outboxRepository;
+        this.deadLetterRepository = deadLetterRepository;
+        this.participantRepository = participantRepository;
+        this.fanoutService = fanoutService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.pollIntervalMs = pollIntervalMs;
+        this.retryBackoffMs = retryBackoffMs;
+        this.parallelism = parallelism;
+        this.wakeups = new Semaphore[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            wakeups[i] = new Semaphore(0);
+        }
+
+        this.latency = Timer.builder("chat.outbox.latency")
+                .description("Time from outbox write to the end of message fan-out")
+                .register(meterRegistry);
+        this.relayed = Counter.builder("chat.outbox.relayed")
+                .description("Outbox entries delivered to WebSocket")
+                .register(meterRegistry);
+        this.failures = Counter.builder("chat.outbox.failures")
+                .description("Failed outbox delivery attempts")
+                .register(meterRegistry);
+        Gauge.builder("chat.outbox.pending", outboxRepository, MessageOutboxRepository::count)
+                .description("Outbox entries waiting for fan-out")
+                .register(meterRegistry);
+        Gauge.builder("chat.outbox.dead", deadLetterRepository, MessageOutboxDeadLetterRepository::count)
+                .description("Outbox entries moved to the dead-letter table after exhausting retries")
+                .register(meterRegistry);
+    }
+
+    @EventListener
+    public synchronized void start(ApplicationReadyEvent event) {
+        if (workers != null) {
+            return;
+        }
+        context = event.getApplicationContext();
+        running = true;
+        workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-outbox-", 0).factory());
+        for (int i = 0; i < parallelism; i++) {
+            int worker = i;
+            workers.execute(() -> workerLoop(worker));
+        }
+    }
+
+    /**
+     * Пишет событие в outbox в текущей транзакции; рассылка начнется после ее коммита.
+     */
+    public void append(Long chatId, UUID senderId, MessageResponse message) {
+        MessageOutboxEvent event = new MessageOutboxEvent();
+        event.setChatId(chatId);
+        event.setMessageId(Long.valueOf(message.getId()));
+        event.setSenderId(senderId);
+        try {
+            event.setPayload(objectMapper.writeValueAsString(message));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize message " + message.getId(), e);
+        }
+        outboxRepository.save(event);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            wakeUp(chatId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                wakeUp(chatId);
+            }
+        });
+    }
+
+    private void wakeUp(Long chatId) {
+        if (parallelism == 0) {
+            return;
+        }
+        Semaphore wakeup = wakeups[(int) Math.floorMod(chatId, (long) parallelism)];
+        if (wakeup.availablePermits() == 0) {
+            wakeup.release();
+        }
+    }
+
+    private void workerLoop(int worker) {
+        while (running) {
+            int processed;
+            try {
+                processed = transactionTemplate.execute(status -> relayBatch(worker));
+            } catch (Exception e) {
+                log.error("Outbox relay batch failed", e);
+                processed = 0;
+            }
+            if (processed < batchSize) {
+                try {
+                    wakeups[worker].tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private int relayBatch(int worker) {
+        List<MessageOutboxEvent> batch = outboxRepository.lockNextBatch(parallelism, worker, LocalDateTime.now(), batchSize);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Map<Long, List<UUID>> participantsByChat = new HashMap<>();
+        // chatId -> (получатель -> последнее доставленное ему сообщение пачки)
+        Map<Long, Map<UUID, Long>> deliveredByChat = new HashMap<>();
+        List<MessageOutboxEvent> done = new ArrayList<>(batch.size());
+        List<MessageOutboxDeadLetter> dead = new ArrayList<>();
+        int relayedInBatch = 0;
+        // чаты с записью, оставленной на повтор: их более поздние записи ждут следующей пачки
+        Set<Long> blockedChats = new HashSet<>();
+        for (MessageOutboxEvent entry : batch) {
+            if (blockedChats.contains(entry.getChatId())) {
+                continue;
+            }
+            try {
+                MessageResponse message = objectMapper.readValue(entry.getPayload(), MessageResponse.class);
+                List<UUID> participantIds = participantsByChat.computeIfAbsent(
+                        entry.getChatId(), participantRepository::findActiveParticipantIds);
+                List<UUID> delivered = fanoutService.deliver(
+                        new MessageSentEvent(entry.getChatId(), entry.getSenderId(), message, participantIds));
+                Map<UUID, Long> chatDelivered = deliveredByChat.computeIfAbsent(entry.getChatId(), id -> new HashMap<>());
+                for (UUID userId : delivered) {
+                    chatDelivered.merge(userId, entry.getMessageId(), Math::max);
+                }
+                latency.record(Duration.between(entry.getCreatedAt(), LocalDateTime.now()));
+                relayed.increment();
+                relayedInBatch++;
+                done.add(entry);
+            } catch (Exception e) {
+                failures.increment();
+                entry.setAttempts(entry.getAttempts() + 1);
+                if (entry.getAttempts() >= MAX_ATTEMPTS) {
+                    log.error("Moving outbox entry {} for message {} to dead letters after {} attempts",
+                            entry.getId(), entry.getMessageId(), entry.getAttempts(), e);
+                    dead.add(deadLetter(entry, e));
+                    done.add(entry);
+                } else {
+                    // остальные записи чата ждут этого повтора – и в пачке, и в lockNextBatch
+                    blockedChats.add(entry.getChatId());
+                    entry.setNextAttemptAt(LocalDateTime.now().plus(
+                            Duration.ofMillis(retryBackoffMs << (entry.getAttempts() - 1))));
+                    log.warn("Fan-out failed for message {} in chat {}, will retry at {}",
+                            entry.getMessageId(), entry.getChatId(), entry.getNextAttemptAt(), e);
+                }
+            }
+        }
+        // watermark'и доставки пишутся в этой же транзакции, квитанции уходят после ее коммита
+        deliveredByChat.forEach((chatId, delivered) -> {
+            if (!delivered.isEmpty()) {
+                fanoutService.recordDelivered(chatId, delivered);
+            }
+        });
+        if (!dead.isEmpty()) {
+            deadLetterRepository.saveAll(dead);
+        }
+        if (!done.isEmpty()) {
+            outboxRepository.deleteAllInBatch(done);
+        }
+        // пропущенные и отложенные записи не в счет: полная пачка без рассылок не должна крутить цикл без паузы
+        return relayedInBatch;
+    }
+
+    private static MessageOutboxDeadLetter deadLetter(MessageOutboxEvent entry, Exception error) {
+        MessageOutboxDeadLetter deadLetter = new MessageOutboxDeadLetter();
+        deadLetter.setId(entry.getId());
+        deadLetter.setChatId(entry.getChatId());
+        deadLetter.setMessageId(entry.getMessageId());
+        deadLetter.setSenderId(entry.getSenderId());
+        deadLetter.setPayload(entry.getPayload());
+        deadLetter.setAttempts(entry.getAttempts());
+        deadLetter.setLastError(String.valueOf(error));
+        deadLetter.setCreatedAt(entry.getCreatedAt());
+        return deadLetter;
+    }
+
+    @EventListener
+    public synchronized void stop(ContextClosedEvent event) throws InterruptedException {
+        // закрытие дочернего контекста (например, actuator на отдельном порту) воркеров не касается
+        if (workers == null || event.getApplicationContext() != context) {
+            return;
+        }
+        running = false;
+        for (Semaphore wakeup : wakeups) {
+            wakeup.release();
+        }
+        workers.shutdown();
+        // неразосланное останется в outbox и уйдет после рестарта (или с другого узла)
+        workers.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+}
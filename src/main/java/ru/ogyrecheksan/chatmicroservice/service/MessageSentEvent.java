@@ -0,0 +1,18 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Сообщение к рассылке: собирается MessageOutboxRelay из записи outbox после коммита sendMessage
+ * (см. MessageFanoutService).
+ *
+ * participantIds – активные участники на момент рассылки.
+ */
+public record MessageSentEvent(Long chatId,
+                               UUID senderId,
+                               MessageResponse message,
+                               List<UUID> participantIds) {
+}
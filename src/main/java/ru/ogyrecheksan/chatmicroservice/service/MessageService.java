@@ -1,14 +1,19 @@
 package ru.ogyrecheksan.chatmicroservice.service;
 
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.ogyrecheksan.chatmicroservice.dto.Request.SendMessageRequest;
 import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageSliceResponse;
+import ru.ogyrecheksan.chatmicroservice.model.Chat;
+import ru.ogyrecheksan.chatmicroservice.model.ChatParticipant;
 import ru.ogyrecheksan.chatmicroservice.model.Message;
 import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
 import ru.ogyrecheksan.chatmicroservice.repository.ChatRepository;
@@ -17,6 +22,7 @@ import ru.ogyrecheksan.chatmicroservice.repository.MessageRepository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Service
@@ -24,11 +30,19 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class MessageService {
 
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int LAST_MESSAGE_PREVIEW_LENGTH = 100;
+
     private final MessageRepository messageRepository;
     private final ChatRepository chatRepository;
     private final ChatParticipantRepository chatParticipantRepository;
     private final MessageReadStatusRepository messageReadStatusRepository;
-    private final WebSocketService webSocketService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MessageOutboxRelay outboxRelay;
+
+    // Дополнительно писать статусы по каждому сообщению в message_read_status (основной механизм – watermark)
+    @Value("${chat.receipts.per-message-status:false}")
+    private boolean perMessageStatus;
 
     public MessageResponse sendMessage(SendMessageRequest request, UUID senderId, String authToken) {
         // Проверяем существование чата
@@ -52,35 +66,72 @@ public class MessageService {
 
         Message savedMessage = messageRepository.save(message);
 
+        // Обновляем снимок последнего сообщения и счетчики непрочитанных в той же транзакции
+        updateLastMessageSnapshot(chat, savedMessage);
+        chatParticipantRepository.advanceUnreadCounters(chat.getId(), senderId, savedMessage.getId());
+
         // Формируем DTO
         MessageResponse response = convertToResponse(savedMessage, authToken);
 
-        // Отправляем через WebSocket в общий топик чата
-        webSocketService.sendMessageToChat(chat.getId(), response);
-
-        // Отправляем персональные уведомления всем участникам чата, кроме отправителя
-        var participantIds = chatParticipantRepository.findActiveParticipantIds(chat.getId());
-        webSocketService.sendNewMessageNotifications(chat.getId(), senderId, response, participantIds);
+        // Broadcast в топик чата и персональные уведомления участникам – через outbox в этой же транзакции,
+        // рассылка после коммита, вне потока запроса (MessageOutboxRelay)
+        outboxRelay.append(chat.getId(), senderId, response);
 
         return response;
     }
 
-    public Page<MessageResponse> getChatMessages(Long chatId, UUID userId, int offset, int limit, String authToken) {
+    public Slice<MessageResponse> getChatMessages(Long chatId, UUID userId, int offset, int limit, String authToken) {
         // Проверяем доступ
         if (!chatRepository.existsById(chatId)) {
             throw new RuntimeException("Chat not found");
         }
 
-        int pageIndex = offset / Math.max(limit, 1);
-        Pageable pageable = PageRequest.of(pageIndex, limit, Sort.by("sentAt").descending());
-        Page<Message> messages = messageRepository.findByChatIdOrderBySentAtDesc(chatId, pageable);
+        int pageSize = clampLimit(limit);
+        int pageIndex = offset / pageSize;
+        Pageable pageable = PageRequest.of(pageIndex, pageSize, Sort.by("sentAt").descending());
+        Slice<Message> messages = messageRepository.findByChatIdOrderBySentAtDesc(chatId, pageable);
 
-        // Помечаем сообщения как доставленные для данного пользователя
-        markMessagesAsDelivered(chatId, userId);
+        // Сдвигаем watermark доставки до самого нового из выданных сообщений
+        markMessagesAsDelivered(chatId, userId, maxMessageId(messages.getContent()));
 
         return messages.map(message -> convertToResponse(message, authToken));
     }
 
+    /**
+     * Keyset-пагинация истории: сообщения до/после курсора без OFFSET и COUNT(*).
+     * BEFORE/LATEST отдаются от новых к старым, AFTER – от старых к новым.
+     */
+    public MessageSliceResponse getChatMessages(Long chatId, UUID userId, MessageCursor cursor, int limit, String authToken) {
+        if (!chatRepository.existsById(chatId)) {
+            throw new RuntimeException("Chat not found");
+        }
+
+        Pageable pageable = PageRequest.of(0, clampLimit(limit));
+        Slice<Message> messages;
+        if (cursor == null || cursor.isLatest()) {
+            cursor = MessageCursor.latest();
+            messages = messageRepository.findLatestByChatId(chatId, pageable);
+        } else if (cursor.getDirection() == MessageCursor.Direction.BEFORE) {
+            messages = messageRepository.findByChatIdBefore(chatId, cursor.getMessageId(), pageable);
+        } else {
+            messages = messageRepository.findByChatIdAfter(chatId, cursor.getMessageId(), pageable);
+        }
+
+        markMessagesAsDelivered(chatId, userId, maxMessageId(messages.getContent()));
+
+        MessageSliceResponse response = new MessageSliceResponse();
+        response.setMessages(messages.map(message -> convertToResponse(message, authToken)).getContent());
+        response.setHasMore(messages.hasNext());
+        if (messages.hasNext()) {
+            Long boundaryId = messages.getContent().get(messages.getNumberOfElements() - 1).getId();
+            MessageCursor next = cursor.getDirection() == MessageCursor.Direction.AFTER
+                    ? MessageCursor.after(boundaryId)
+                    : MessageCursor.before(boundaryId);
+            response.setNextCursor(next.encode());
+        }
+        return response;
+    }
+
     public MessageResponse getLastMessage(Long chatId) {
         Pageable pageable = PageRequest.of(0, 1, Sort.by("sentAt").descending());
         List<Message> messages = messageRepository.findLastMessages(chatId, pageable);
@@ -93,41 +144,89 @@ public class MessageService {
     }
 
     public void markMessagesAsRead(Long chatId, UUID userId) {
-        List<Message> unreadMessages = messageRepository
-                .findByChatIdAndReadAtIsNullAndSenderIdNot(chatId, userId);
+        markMessagesAsRead(chatId, userId, null);
+    }
+
+    /**
+     * Сдвигает watermark прочтения пользователя до upToMessageId (по умолчанию – до последнего сообщения).
+     * Один UPDATE строки участника вместо загрузки и сохранения каждого сообщения;
+     * watermark только растет, повторные и устаревшие вызовы ничего не меняют.
+     */
+    public void markMessagesAsRead(Long chatId, UUID userId, Long upToMessageId) {
+        // Сначала блокировка участника, потом lastMessageId: все отправки, чей +1 уже в строке, закоммичены
+        // и видны в снимке последнего сообщения, а более поздние не увеличат счетчик за прочитанный диапазон
+        Optional<ChatParticipant> participant = chatParticipantRepository.lockActiveParticipant(chatId, userId);
+        Long lastMessageId = chatRepository.findById(chatId)
+                .map(Chat::getLastMessageId)
+                .orElseThrow(() -> new RuntimeException("Chat not found"));
+        Long watermark = upToMessageId == null || (lastMessageId != null && upToMessageId > lastMessageId)
+                ? lastMessageId
+                : upToMessageId;
+        if (watermark == null || participant.isEmpty()) {
+            return; // в чате еще нет сообщений или пользователь не участник
+        }
 
-        LocalDateTime now = LocalDateTime.now();
+        Long previous = participant.get().getLastReadMessageId();
+        int updated = chatParticipantRepository.advanceReadWatermark(chatId, userId,
+                previous != null ? previous : 0L, watermark, lastMessageId);
+        if (updated > 0) {
+            eventPublisher.publishEvent(new ReceiptEvent(chatId, userId, watermark, true));
+        }
+
+        if (updated > 0 && perMessageStatus) {
+            LocalDateTime now = LocalDateTime.now();
+            long from = previous != null ? previous : 0L;
+            messageReadStatusRepository.insertReadStatuses(chatId, userId, from, watermark, now);
+            messageRepository.markReadUpTo(chatId, userId, watermark, now);
+        }
+    }
 
-        for (Message message : unreadMessages) {
-            // агрегированное поле для всех (оставляем для обратной совместимости)
-            message.setReadAt(now);
+    private void markMessagesAsDelivered(Long chatId, UUID userId, Long upToMessageId) {
+        if (upToMessageId == null) {
+            return;
+        }
+        Long previous = perMessageStatus ? currentWatermark(chatId, userId, false) : null;
+        int updated = chatParticipantRepository.advanceDeliveredWatermark(chatId, userId, upToMessageId);
+        if (updated > 0) {
+            eventPublisher.publishEvent(new ReceiptEvent(chatId, userId, upToMessageId, false));
+        }
 
-            // пер-пользовательский статус
-            var status = new ru.ogyrecheksan.chatmicroservice.model.MessageReadStatus();
-            status.setMessage(message);
-            status.setUserId(userId);
-            status.setReadAt(now);
-            messageReadStatusRepository.save(status);
+        if (updated > 0 && perMessageStatus) {
+            LocalDateTime now = LocalDateTime.now();
+            long from = previous != null ? previous : 0L;
+            messageReadStatusRepository.insertDeliveredStatuses(chatId, userId, from, upToMessageId, now);
+            messageRepository.markDeliveredUpTo(chatId, userId, upToMessageId, now);
         }
+    }
 
-        messageRepository.saveAll(unreadMessages);
+    private Long currentWatermark(Long chatId, UUID userId, boolean read) {
+        return chatParticipantRepository.findByChatIdAndUserId(chatId, userId)
+                .map(p -> read ? p.getLastReadMessageId() : p.getLastDeliveredMessageId())
+                .orElse(null);
     }
 
-    private void markMessagesAsDelivered(Long chatId, UUID userId) {
-        List<Message> undeliveredMessages = messageRepository
-                .findByChatIdAndDeliveredAtIsNullAndSenderIdNot(chatId, userId);
-
-        LocalDateTime now = LocalDateTime.now();
-        for (Message message : undeliveredMessages) {
-            message.setDeliveredAt(now);
-            var status = new ru.ogyrecheksan.chatmicroservice.model.MessageReadStatus();
-            status.setMessage(message);
-            status.setUserId(userId);
-            status.setDeliveredAt(now);
-            messageReadStatusRepository.save(status);
+    private static Long maxMessageId(List<Message> messages) {
+        Long max = null;
+        for (Message message : messages) {
+            if (max == null || message.getId() > max) {
+                max = message.getId();
+            }
         }
+        return max;
+    }
+
+    private void updateLastMessageSnapshot(Chat chat, Message message) {
+        // Загруженная сущность Chat не меняется: ее запись целиком затерла бы снимок параллельной отправки
+        String content = message.getContent() != null ? message.getContent() : "";
+        chatRepository.advanceLastMessage(chat.getId(), message.getId(), message.getSenderId(),
+                content.length() > LAST_MESSAGE_PREVIEW_LENGTH
+                        ? content.substring(0, LAST_MESSAGE_PREVIEW_LENGTH)
+                        : content,
+                message.getSentAt());
+    }
 
-        messageRepository.saveAll(undeliveredMessages);
+    private int clampLimit(int limit) {
+        return Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
     }
 
     private MessageResponse convertToResponse(Message message, String authToken) {
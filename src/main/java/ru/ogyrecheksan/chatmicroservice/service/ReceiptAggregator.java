@@ -0,0 +1,124 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Склейка квитанций доставки/прочтения по чатам.
+ *
+ * Вместо отдельного MESSAGE_DELIVERED на каждого получателя (N фреймов каждому из N подписчиков)
+ * квитанции копятся по чату и раз в chat.receipts.flush-interval-ms уходят одним фреймом RECEIPTS
+ * с watermark'ами пользователей. Если в буфере чата набралось chat.receipts.flush-size пользователей,
+ * он сбрасывается сразу, не дожидаясь таймера.
+ */
+@Slf4j
+@Service
+public class ReceiptAggregator implements DisposableBean {
+
+    private final WebSocketService webSocketService;
+    private final int flushSize;
+    private final Map<Long, ChatReceipts> buffers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public ReceiptAggregator(WebSocketService webSocketService,
+                             @Value("${chat.receipts.flush-interval-ms:200}") long flushIntervalMs,
+                             @Value("${chat.receipts.flush-size:256}") int flushSize) {
+        this.webSocketService = webSocketService;
+        this.flushSize = flushSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-receipts-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Сообщение messageId доставлено (отправлено уведомлением) всем userIds.
+     */
+    public void recordDelivered(Long chatId, Collection<UUID> userIds, Long messageId) {
+        ChatReceipts receipts = buffers.compute(chatId, (id, buffer) -> {
+            ChatReceipts result = buffer != null ? buffer : new ChatReceipts();
+            for (UUID userId : userIds) {
+                result.delivered.merge(userId, messageId, Math::max);
+            }
+            return result;
+        });
+        flushIfFull(chatId, receipts);
+    }
+
+    public void recordRead(Long chatId, UUID userId, Long messageId) {
+        ChatReceipts receipts = buffers.compute(chatId, (id, buffer) -> {
+            ChatReceipts result = buffer != null ? buffer : new ChatReceipts();
+            result.read.merge(userId, messageId, Math::max);
+            // прочитано – значит и доставлено
+            result.delivered.merge(userId, messageId, Math::max);
+            return result;
+        });
+        flushIfFull(chatId, receipts);
+    }
+
+    /**
+     * Сдвиг watermark'а после коммита (история выдана / сообщения прочитаны).
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReceipt(ReceiptEvent event) {
+        if (event.read()) {
+            recordRead(event.chatId(), event.userId(), event.messageId());
+        } else {
+            recordDelivered(event.chatId(), List.of(event.userId()), event.messageId());
+        }
+    }
+
+    /**
+     * Сбрасывает буферы всех чатов. Вызывается по таймеру.
+     */
+    public void flush() {
+        for (Long chatId : buffers.keySet()) {
+            flushChat(chatId);
+        }
+    }
+
+    private void flushIfFull(Long chatId, ChatReceipts receipts) {
+        if (receipts.delivered.size() >= flushSize) {
+            flushChat(chatId);
+        }
+    }
+
+    private void flushChat(Long chatId) {
+        // remove атомарен относительно compute: квитанции, пришедшие после, попадут в новый буфер
+        ChatReceipts receipts = buffers.remove(chatId);
+        if (receipts == null) {
+            return;
+        }
+        try {
+            webSocketService.sendReceipts(chatId, receipts.delivered, receipts.read);
+        } catch (Exception e) {
+            log.error("Failed to publish receipts for chat {}", chatId, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    private static final class ChatReceipts {
+        private final Map<UUID, Long> delivered = new HashMap<>();
+        private final Map<UUID, Long> read = new HashMap<>();
+    }
+}
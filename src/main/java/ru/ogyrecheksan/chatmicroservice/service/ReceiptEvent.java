@@ -0,0 +1,10 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import java.util.UUID;
+
+/**
+ * Watermark доставки/прочтения пользователя сдвинулся до messageId.
+ * Публикуется внутри транзакции, в ReceiptAggregator попадает только после коммита.
+ */
+public record ReceiptEvent(Long chatId, UUID userId, Long messageId, boolean read) {
+}
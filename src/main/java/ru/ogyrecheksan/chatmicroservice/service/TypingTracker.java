@@ -0,0 +1,143 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Состояние "печатает" по чатам.
+ *
+ * Клиенты шлют /app/chat/{chatId}/typing на каждое нажатие; вместо рассылки каждого такого кадра
+ * трекер хранит, кто печатает, и раз в chat.typing.flush-interval-ms публикует в чат один кадр TYPING
+ * со списком печатающих – только если список изменился. Повторные typing=true от пользователя чаще
+ * chat.typing.min-update-interval-ms игнорируются; без обновлений дольше chat.typing.timeout-ms
+ * пользователь перестает считаться печатающим (клиент закрыл вкладку, пропала сеть).
+ *
+ * Трекер знает только пользователей, чьи typing пришли на этот узел, поэтому кадр помечен nodeId
+ * (chat.broker.node-id, по умолчанию случайный): в cluster-режиме кадры разных узлов через шину попадают
+ * в один топик, и клиент хранит список по каждому узлу, показывая их объединение. Пока список узла
+ * не пуст, он повторяется раз в половину chat.typing.timeout-ms – клиент забывает список узла, который
+ * не обновлялся дольше timeout-ms (узел упал, не успев разослать пустой список).
+ *
+ * Таймер запускается по ApplicationReadyEvent, когда брокер STOMP уже принимает сообщения, и останавливается
+ * по ContextClosedEvent – до остановки брокера.
+ */
+@Slf4j
+@Service
+public class TypingTracker {
+
+    private final WebSocketService webSocketService;
+    private final String nodeId;
+    private final long timeoutMs;
+    private final long refreshIntervalMs;
+    private final long minUpdateIntervalMs;
+    private final long flushIntervalMs;
+    private final Map<Long, ChatTyping> chats = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private ApplicationContext context;
+
+    public TypingTracker(WebSocketService webSocketService,
+                         @Value("${chat.broker.node-id:}") String nodeId,
+                         @Value("${chat.typing.flush-interval-ms:500}") long flushIntervalMs,
+                         @Value("${chat.typing.timeout-ms:5000}") long timeoutMs,
+                         @Value("${chat.typing.min-update-interval-ms:1000}") long minUpdateIntervalMs) {
+        this.webSocketService = webSocketService;
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        this.timeoutMs = timeoutMs;
+        this.refreshIntervalMs = timeoutMs / 2;
+        this.minUpdateIntervalMs = minUpdateIntervalMs;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    @EventListener
+    public synchronized void start(ApplicationReadyEvent event) {
+        if (scheduler != null) {
+            return;
+        }
+        context = event.getApplicationContext();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-typing-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void onTyping(Long chatId, UUID userId, boolean typing) {
+        long now = System.currentTimeMillis();
+        chats.compute(chatId, (id, state) -> {
+            ChatTyping result = state != null ? state : new ChatTyping();
+            if (typing) {
+                Long updatedAt = result.updatedAt.get(userId);
+                if (updatedAt != null && now - updatedAt < minUpdateIntervalMs) {
+                    return result;
+                }
+                if (result.updatedAt.put(userId, now) == null) {
+                    result.changed = true;
+                }
+            } else if (result.updatedAt.remove(userId) != null) {
+                result.changed = true;
+            }
+            return result.updatedAt.isEmpty() && !result.changed ? null : result;
+        });
+    }
+
+    /**
+     * Снимает истекшие состояния и публикует изменившиеся (и давно не повторявшиеся) списки. Вызывается по таймеру.
+     */
+    public void flush() {
+        long now = System.currentTimeMillis();
+        long expiredBefore = now - timeoutMs;
+        for (Long chatId : chats.keySet()) {
+            AtomicReference<List<UUID>> typingUsers = new AtomicReference<>();
+            chats.computeIfPresent(chatId, (id, state) -> {
+                if (state.updatedAt.values().removeIf(updatedAt -> updatedAt <= expiredBefore)) {
+                    state.changed = true;
+                }
+                if (state.changed || !state.updatedAt.isEmpty() && now - state.publishedAt >= refreshIntervalMs) {
+                    typingUsers.set(List.copyOf(state.updatedAt.keySet()));
+                    state.changed = false;
+                    state.publishedAt = now;
+                }
+                return state.updatedAt.isEmpty() ? null : state;
+            });
+            if (typingUsers.get() != null) {
+                try {
+                    webSocketService.sendTypingUsers(chatId, nodeId, typingUsers.get());
+                } catch (Exception e) {
+                    log.error("Failed to publish typing users for chat {}", chatId, e);
+                }
+            }
+        }
+    }
+
+    @EventListener
+    public synchronized void stop(ContextClosedEvent event) {
+        // закрытие дочернего контекста (например, actuator на отдельном порту) таймера не касается
+        if (scheduler == null || event.getApplicationContext() != context) {
+            return;
+        }
+        scheduler.shutdownNow();
+    }
+
+    // изменяется только внутри compute по chatId
+    private static final class ChatTyping {
+        private final Map<UUID, Long> updatedAt = new HashMap<>();
+        private boolean changed;
+        private long publishedAt;
+    }
+}
@@ -0,0 +1,31 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+
+/**
+ * Однократное заполнение счетчиков непрочитанных для участников, появившихся до колонок
+ * unread_count/last_read_message_id (иначе после обновления у всех старых чатов 0 непрочитанных).
+ * Затрагивает только строки без watermark'а прочтения и с нулевым счетчиком, повторный запуск ничего не меняет.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UnreadCountBackfillRunner implements ApplicationRunner {
+
+    private final ChatParticipantRepository participantRepository;
+
+    @Override
+    @Transactional
+    public void run(ApplicationArguments args) {
+        int participants = participantRepository.backfillUnreadCounters();
+        if (participants > 0) {
+            log.info("Backfilled unread counters for {} chat participants", participants);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.ChatResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.UserInfoResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Имена и аватары пользователей для ответов API (ChatResponse.Participant, MessageResponse).
+ *
+ * Все различные userId ответа разрешаются одним запросом POST /api/users/batch за недостающими в кэше
+ * (размер и TTL – chat.users.cache.*). Кэш хранит future: параллельные запросы, которым нужен один и тот же
+ * пользователь, ждут один и тот же вызов user-service, а не делают свой.
+ * Поэтому запрос идет с сервисным токеном chat.users.service-token, а не с токеном того, кто первым промахнулся:
+ * иначе чужой просроченный токен ломал бы ответ всем, кто ждет тот же вызов. Если сервисный токен не задан,
+ * недостающие профили каждый вызывающий загружает своим токеном и чужих вызовов не ждет – общими остаются
+ * только уже загруженные профили.
+ *
+ * Обогащение необязательное: если user-service недоступен, отклонен UserServiceGuard (bulkhead, circuit breaker)
+ * или не ответил за chat.users.lookup-timeout-ms, ответ собирается из последних известных профилей
+ * (хранятся chat.users.cache.stale-ttl-seconds после загрузки), а кого нет и там – уходит без имен
+ * (клиент показывает userId). Ошибки в кэш не попадают. Запрос выполняется на отдельном виртуальном потоке,
+ * поэтому таймаут ограничивает ожидание вызывающего и при зависшем user-service.
+ * Вызывается из контроллеров после транзакции – HTTP-вызов не держит соединение с БД.
+ *
+ * Метрики: cache.gets{cache=chat.users, result=hit|miss}, cache.evictions, cache.size;
+ * chat.users.fallback – ответы, собранные из устаревших профилей.
+ */
+@Slf4j
+@Service
+public class UserProfileService implements DisposableBean {
+
+    private final UserServiceClient userServiceClient;
+    private final UserServiceGuard userServiceGuard;
+    private final AsyncCache<UUID, UserInfoResponse> profiles;
+    private final Cache<UUID, UserInfoResponse> lastKnown;
+    private final Counter fallbacks;
+    private final ExecutorService lookups;
+    private final long lookupTimeoutMs;
+    private final String serviceToken;
+
+    public UserProfileService(UserServiceClient userServiceClient,
+                              UserServiceGuard userServiceGuard,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.users.cache.max-size:100000}") long maxSize,
+                              @Value("${chat.users.cache.ttl-seconds:300}") long ttlSeconds,
+                              @Value("${chat.users.cache.stale-ttl-seconds:86400}") long staleTtlSeconds,
+                              @Value("${chat.users.lookup-timeout-ms:2000}") long lookupTimeoutMs,
+                              @Value("${chat.users.service-token:}") String serviceToken) {
+        this.userServiceClient = userServiceClient;
+        this.serviceToken = serviceToken.isBlank() ? null : serviceToken;
+        this.userServiceGuard = userServiceGuard;
+        this.lookupTimeoutMs = lookupTimeoutMs;
+        this.lookups = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-users-", 0).factory());
+        this.profiles = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .executor(lookups)
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, profiles, "chat.users");
+        this.lastKnown = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(staleTtlSeconds))
+                .build();
+        this.fallbacks = Counter.builder("chat.users.fallback")
+                .description("Profile lookups answered from stale profiles")
+                .register(meterRegistry);
+    }
+
+    public void enrichChats(Collection<ChatResponse> chats, String authToken) {
+        List<ChatResponse.Participant> participants = new ArrayList<>();
+        for (ChatResponse chat : chats) {
+            if (chat != null && chat.getParticipants() != null) {
+                participants.addAll(chat.getParticipants());
+            }
+        }
+        Set<UUID> userIds = new HashSet<>();
+        for (ChatResponse.Participant participant : participants) {
+            userIds.add(participant.getUserId());
+        }
+        Map<UUID, UserInfoResponse> users = getUsers(userIds, authToken);
+        for (ChatResponse.Participant participant : participants) {
+            UserInfoResponse user = users.get(participant.getUserId());
+            if (user != null) {
+                participant.setUsername(user.getUsername());
+                participant.setAvatarUrl(user.getProfilePicture());
+            }
+        }
+    }
+
+    public void enrichMessages(Collection<MessageResponse> messages, String authToken) {
+        Set<UUID> senderIds = new HashSet<>();
+        for (MessageResponse message : messages) {
+            senderIds.add(parseUserId(message.getSenderId()));
+        }
+        Map<UUID, UserInfoResponse> users = getUsers(senderIds, authToken);
+        for (MessageResponse message : messages) {
+            UserInfoResponse user = users.get(parseUserId(message.getSenderId()));
+            if (user != null) {
+                message.setSenderName(user.getUsername());
+                message.setSenderAvatarUrl(user.getProfilePicture());
+            }
+        }
+    }
+
+    /**
+     * Профили из кэша; недостающие – одним batch-запросом. Неизвестные user-service пользователи в ответе отсутствуют.
+     * Если user-service недоступен – последние известные профили.
+     */
+    public Map<UUID, UserInfoResponse> getUsers(Set<UUID> userIds, String authToken) {
+        userIds.remove(null);
+        if (userIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            CompletableFuture<Map<UUID, UserInfoResponse>> lookup = serviceToken != null
+                    ? profiles.getAll(userIds, (missing, executor) ->
+                            CompletableFuture.supplyAsync(() -> fetch(missing, serviceToken), executor))
+                    : lookupWithCallerToken(userIds, authToken);
+            return lookup.get(lookupTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("User profiles unavailable for {} users, serving stale: {}", userIds.size(),
+                    e instanceof ExecutionException ? e.getCause().toString() : e.toString());
+        }
+        fallbacks.increment();
+        return lastKnown.getAllPresent(userIds);
+    }
+
+    // Без сервисного токена: загруженные профили – из кэша, недостающие – своим запросом мимо общих future
+    private CompletableFuture<Map<UUID, UserInfoResponse>> lookupWithCallerToken(Set<UUID> userIds, String authToken) {
+        Map<UUID, UserInfoResponse> cached = profiles.synchronous().getAllPresent(userIds);
+        Set<UUID> missing = new HashSet<>(userIds);
+        missing.removeAll(cached.keySet());
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            Map<UUID, UserInfoResponse> fetched = fetch(missing, authToken);
+            profiles.synchronous().putAll(fetched);
+            Map<UUID, UserInfoResponse> users = new HashMap<>(cached);
+            users.putAll(fetched);
+            return users;
+        }, lookups);
+    }
+
+    private Map<UUID, UserInfoResponse> fetch(Set<? extends UUID> userIds, String authToken) {
+        List<UserInfoResponse> users = userServiceGuard.call(
+                () -> userServiceClient.getUsersByIds(authToken, new ArrayList<>(userIds)));
+        Map<UUID, UserInfoResponse> byId = new HashMap<>();
+        if (users != null) {
+            for (UserInfoResponse user : users) {
+                if (user != null && user.getId() != null && userIds.contains(user.getId())) {
+                    byId.put(user.getId(), user);
+                    lastKnown.put(user.getId(), user);
+                }
+            }
+        }
+        return byId;
+    }
+
+    @Override
+    public void destroy() {
+        lookups.shutdownNow();
+    }
+
+    private static UUID parseUserId(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
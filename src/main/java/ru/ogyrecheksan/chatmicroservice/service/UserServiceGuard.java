@@ -0,0 +1,192 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import feign.FeignException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.ogyrecheksan.chatmicroservice.exception.UserServiceUnavailableException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bulkhead и circuit breaker для вызовов user-service.
+ *
+ * Bulkhead – семафор на chat.users.client.max-concurrent-calls одновременных вызовов: при медленном user-service
+ * ждущие ответа потоки не копятся без предела, лишние получают отказ через chat.users.client.acquire-timeout-ms.
+ *
+ * Circuit breaker: после chat.users.client.failure-threshold отказов подряд (таймаут, ошибка соединения, 5xx)
+ * вызовы на chat.users.client.open-duration-ms отклоняются сразу, без сети. Затем пропускается один пробный вызов:
+ * успех закрывает breaker, отказ открывает его снова. 4xx – ответ сервиса, а не отказ, на breaker не влияет.
+ *
+ * Отклоненный вызов бросает UserServiceUnavailableException – вызывающий отдает то, что есть в кэше.
+ *
+ * Метрики: chat.users.client.calls{outcome=success|failure|rejected|short_circuited},
+ * chat.users.client.in.flight, chat.users.client.circuit.state (0 – closed, 1 – open, 2 – half-open).
+ */
+@Slf4j
+@Component
+public class UserServiceGuard {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private enum Admission { REJECTED, CALL, PROBE }
+
+    private final Semaphore permits;
+    private final int maxConcurrentCalls;
+    private final long acquireTimeoutMs;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+
+    private final Counter successes;
+    private final Counter failures;
+    private final Counter rejected;
+    private final Counter shortCircuited;
+
+    // состояние breaker меняется редко и под монитором: вызовы user-service и так объединены кэшем профилей
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    public UserServiceGuard(MeterRegistry meterRegistry,
+                            @Value("${chat.users.client.max-concurrent-calls:20}") int maxConcurrentCalls,
+                            @Value("${chat.users.client.acquire-timeout-ms:100}") long acquireTimeoutMs,
+                            @Value("${chat.users.client.failure-threshold:5}") int failureThreshold,
+                            @Value("${chat.users.client.open-duration-ms:10000}") long openDurationMs) {
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMs);
+
+        this.successes = calls(meterRegistry, "success");
+        this.failures = calls(meterRegistry, "failure");
+        this.rejected = calls(meterRegistry, "rejected");
+        this.shortCircuited = calls(meterRegistry, "short_circuited");
+        Gauge.builder("chat.users.client.in.flight", this, guard -> guard.maxConcurrentCalls - guard.permits.availablePermits())
+                .description("Calls to user-service in flight")
+                .register(meterRegistry);
+        Gauge.builder("chat.users.client.circuit.state", this, guard -> guard.getState().ordinal())
+                .description("user-service circuit breaker: 0 closed, 1 open, 2 half-open")
+                .register(meterRegistry);
+    }
+
+    public <T> T call(Supplier<T> call) {
+        // открытый breaker отклоняет сразу, не занимая место в bulkhead
+        Admission admission = tryEnter();
+        if (admission == Admission.REJECTED) {
+            shortCircuited.increment();
+            throw new UserServiceUnavailableException("user-service circuit breaker is open");
+        }
+        boolean settled = false;
+        try {
+            acquirePermit();
+            try {
+                T result;
+                try {
+                    result = call.get();
+                } catch (RuntimeException e) {
+                    settled = true;
+                    if (isFailure(e)) {
+                        failures.increment();
+                        onFailure();
+                    } else {
+                        onSuccess();
+                    }
+                    throw e;
+                }
+                settled = true;
+                successes.increment();
+                onSuccess();
+                return result;
+            } finally {
+                permits.release();
+            }
+        } finally {
+            // проба не состоялась (bulkhead полон, Error): следующий вызов пробует снова
+            if (!settled && admission == Admission.PROBE) {
+                abandonProbe();
+            }
+        }
+    }
+
+    synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    private void acquirePermit() {
+        try {
+            if (permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        throw new UserServiceUnavailableException("user-service bulkhead of " + maxConcurrentCalls + " calls is full");
+    }
+
+    private synchronized Admission tryEnter() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openDurationNanos) {
+                return Admission.REJECTED;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                return Admission.REJECTED;
+            }
+            probeInFlight = true;
+            return Admission.PROBE;
+        }
+        return Admission.CALL;
+    }
+
+    private synchronized void abandonProbe() {
+        probeInFlight = false;
+    }
+
+    private synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("user-service circuit breaker closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    private synchronized void onFailure() {
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                log.warn("user-service circuit breaker opened for {} ms",
+                        TimeUnit.NANOSECONDS.toMillis(openDurationNanos));
+            }
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            consecutiveFailures = 0;
+        }
+    }
+
+    // status -1 – ответа не было: таймаут, отказ в соединении
+    private static boolean isFailure(RuntimeException e) {
+        return !(e instanceof FeignException feignException) || feignException.status() < 0 || feignException.status() >= 500;
+    }
+
+    private static Counter calls(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("chat.users.client.calls")
+                .description("Calls to user-service by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
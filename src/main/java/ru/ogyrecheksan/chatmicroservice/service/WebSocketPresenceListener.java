@@ -0,0 +1,113 @@
+package ru.ogyrecheksan.chatmicroservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+import ru.ogyrecheksan.chatmicroservice.config.ChatPrincipal;
+
+import java.security.Principal;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Связывает жизненный цикл STOMP-сессий с WebSocketSubscriptionRegistry:
+ *  - CONNECT      – регистрирует сессию пользователя
+ *  - SUBSCRIBE    – на /topic/chat/{chatId}: пользователь онлайн в чате
+ *  - UNSUBSCRIBE / DISCONNECT – снимает подписки
+ *
+ * USER_ONLINE/USER_OFFLINE уходят в топик чата только при появлении первой и закрытии последней сессии
+ * пользователя в этом чате – несколько вкладок не дают "мигания" статуса. В cluster-режиме то же по всему
+ * кластеру: статус не шлется, пока пользователь подписан на чат на другом узле (по ClusterPresence,
+ * с задержкой шины).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WebSocketPresenceListener {
+
+    private static final Pattern CHAT_TOPIC_PATTERN = Pattern.compile("^/topic/chat/(\\d+)$");
+
+    private final WebSocketSubscriptionRegistry subscriptionRegistry;
+    private final WebSocketService webSocketService;
+
+    @EventListener
+    public void onConnect(SessionConnectEvent event) {
+        UUID userId = extractUserId(event.getUser());
+        if (userId == null) {
+            return;
+        }
+        String sessionId = StompHeaderAccessor.wrap(event.getMessage()).getSessionId();
+        subscriptionRegistry.registerSession(sessionId, userId);
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        UUID userId = extractUserId(event.getUser());
+        Long chatId = extractChatId(accessor.getDestination());
+        if (userId == null || chatId == null) {
+            return;
+        }
+        if (subscriptionRegistry.subscribeToChat(accessor.getSessionId(), accessor.getSubscriptionId(), chatId, userId)) {
+            sendStatusIfNotElsewhere(chatId, userId, true);
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        UUID userId = subscriptionRegistry.getSessionUser(sessionId);
+        Long chatId = subscriptionRegistry.unsubscribe(sessionId, accessor.getSubscriptionId());
+        if (chatId != null) {
+            sendStatusIfNotElsewhere(chatId, userId, false);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        String sessionId = event.getSessionId();
+        UUID userId = subscriptionRegistry.getSessionUser(sessionId);
+        for (Long chatId : subscriptionRegistry.unregisterSession(sessionId)) {
+            sendStatusIfNotElsewhere(chatId, userId, false);
+        }
+    }
+
+    // первая/последняя сессия на этом узле; на другом узле пользователь мог уже (или еще) быть в чате
+    private void sendStatusIfNotElsewhere(Long chatId, UUID userId, boolean online) {
+        if (!subscriptionRegistry.isOnlineElsewhere(chatId, userId)) {
+            webSocketService.sendUserStatus(chatId, userId, online);
+        }
+    }
+
+    private Long extractChatId(String destination) {
+        if (destination == null) {
+            return null;
+        }
+        Matcher matcher = CHAT_TOPIC_PATTERN.matcher(destination);
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : null;
+    }
+
+    private UUID extractUserId(Principal principal) {
+        // Пользователь сессии – ChatPrincipal из WebSocketSecurityInterceptor, userId уже разобран
+        return principal instanceof ChatPrincipal chatPrincipal ? chatPrincipal.getUserId() : null;
+    }
+
+    /**
+     * Имя STOMP-пользователя -> userId (им же адресуются /user/{name}/queue/...).
+     */
+    public static UUID toUserId(String name) {
+        try {
+            return UUID.fromString(name);
+        } catch (IllegalArgumentException e) {
+            return UUID.nameUUIDFromBytes(name.getBytes());
+        }
+    }
+}
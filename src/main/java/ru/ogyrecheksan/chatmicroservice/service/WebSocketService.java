@@ -1,15 +1,28 @@
 package ru.ogyrecheksan.chatmicroservice.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
 import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
 import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageSliceResponse;
 import ru.ogyrecheksan.chatmicroservice.dto.Response.NotificationResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.OnlineUsersResponse;
 import ru.ogyrecheksan.chatmicroservice.dto.Response.WebSocketMessage;
 import ru.ogyrecheksan.chatmicroservice.model.Chat;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -18,6 +31,9 @@ import java.util.UUID;
 public class WebSocketService {
 
     private final SimpMessagingTemplate messagingTemplate;
+    // тот же ObjectMapper, что у STOMP-конвертера (Spring Boot) – байты совпадают с convertAndSend
+    private final ObjectMapper objectMapper;
+    private final HistoryCompressor historyCompressor;
 
     /**
      * Броадкаст нового сообщения в конкретный чат.
@@ -37,20 +53,20 @@ public class WebSocketService {
     }
 
     /**
-     * Индикатор набора текста.
+     * Кто сейчас печатает в чате через узел nodeId (публикует TypingTracker, не чаще раза в chat.typing.flush-interval-ms).
+     * Пустой список – никто на этом узле не печатает.
      *
      * type: TYPING
-     * payload: { userId: UUID, typing: boolean }
+     * payload: { nodeId: string, userIds: UUID[] }
      */
-    public void sendTypingIndicator(Long chatId, UUID userId, Boolean typing) {
+    public void sendTypingUsers(Long chatId, String nodeId, List<UUID> userIds) {
+        TypingUsersPayload payload = new TypingUsersPayload();
+        payload.setNodeId(nodeId);
+        payload.setUserIds(userIds);
+
         WebSocketMessage wsMessage = new WebSocketMessage();
         wsMessage.setType("TYPING");
-
-        TypingIndicator typingIndicator = new TypingIndicator();
-        typingIndicator.setUserId(userId);
-        typingIndicator.setTyping(typing);
-
-        wsMessage.setPayload(typingIndicator);
+        wsMessage.setPayload(payload);
         wsMessage.setChatId(chatId);
         wsMessage.setTimestamp(System.currentTimeMillis());
 
@@ -73,8 +89,9 @@ public class WebSocketService {
 
     /**
      * Уведомления о новом сообщении всем участникам чата (кроме отправителя).
+     * Квитанции о доставке сюда не входят – их пачкой публикует ReceiptAggregator.
      *
-     * type: NEW_MESSAGE + MESSAGE_DELIVERED
+     * type: NEW_MESSAGE
      * payload: NotificationResponse
      */
     public void sendNewMessageNotifications(Long chatId,
@@ -85,32 +102,39 @@ public class WebSocketService {
         String content = message.getContent() != null ? message.getContent() : "";
         String preview = content.length() > 50 ? content.substring(0, 50) : content;
 
-        for (UUID participantId : participantIds) {
-            if (participantId.equals(senderId)) {
-                continue; // не шлем уведомление самому себе
-            }
-            NotificationResponse notification = new NotificationResponse();
-            notification.setType("NEW_MESSAGE");
-            notification.setChatId(chatId);
-            notification.setSenderId(senderId);
-            notification.setPreview(preview);
-            notification.setTimestamp(timestamp != null ? timestamp : LocalDateTime.now());
-
-            sendNotificationToUser(participantId, notification);
-
-            // событие о доставке для конкретного пользователя в топик чата
-            WebSocketMessage delivered = new WebSocketMessage();
-            delivered.setType("MESSAGE_DELIVERED");
-            delivered.setChatId(chatId);
-            delivered.setTimestamp(System.currentTimeMillis());
-
-            DeliveryPayload deliveryPayload = new DeliveryPayload();
-            deliveryPayload.setMessageId(Long.parseLong(message.getId()));
-            deliveryPayload.setUserId(participantId);
-            delivered.setPayload(deliveryPayload);
-
-            messagingTemplate.convertAndSend("/topic/chat/" + chatId, delivered);
-        }
+        // уведомление у всех получателей одинаковое – сериализуем один раз
+        NotificationResponse notification = new NotificationResponse();
+        notification.setType("NEW_MESSAGE");
+        notification.setChatId(chatId);
+        notification.setSenderId(senderId);
+        notification.setPreview(preview);
+        notification.setTimestamp(timestamp != null ? timestamp : LocalDateTime.now());
+
+        List<UUID> recipients = participantIds.stream()
+                .filter(participantId -> !participantId.equals(senderId)) // не шлем уведомление самому себе
+                .toList();
+        sendToUsers(recipients, "/queue/notifications", notification);
+    }
+
+    /**
+     * Пачка квитанций доставки/прочтения по чату одним фреймом.
+     * Значения – watermark'и: все сообщения с id <= значения доставлены/прочитаны пользователем.
+     *
+     * type: RECEIPTS
+     * payload: { delivered: { userId: messageId }, read: { userId: messageId } }
+     */
+    public void sendReceipts(Long chatId, Map<UUID, Long> delivered, Map<UUID, Long> read) {
+        ReceiptsPayload payload = new ReceiptsPayload();
+        payload.setDelivered(delivered);
+        payload.setRead(read);
+
+        WebSocketMessage wsMessage = new WebSocketMessage();
+        wsMessage.setType("RECEIPTS");
+        wsMessage.setPayload(payload);
+        wsMessage.setChatId(chatId);
+        wsMessage.setTimestamp(System.currentTimeMillis());
+
+        messagingTemplate.convertAndSend("/topic/chat/" + chatId, wsMessage);
     }
 
     /**
@@ -121,19 +145,16 @@ public class WebSocketService {
      */
     public void sendNewChatNotifications(Chat chat, UUID creatorId, Set<UUID> participantIds) {
         LocalDateTime timestamp = chat.getCreatedAt();
-        String preview = chat.getName();
-
-        for (UUID participantId : participantIds) {
-            // создателю тоже может быть полезно уведомление (например, для синхронизации нескольких вкладок)
-            NotificationResponse notification = new NotificationResponse();
-            notification.setType("NEW_CHAT");
-            notification.setChatId(chat.getId());
-            notification.setSenderId(creatorId);
-            notification.setPreview(preview);
-            notification.setTimestamp(timestamp != null ? timestamp : LocalDateTime.now());
-
-            sendNotificationToUser(participantId, notification);
-        }
+
+        // создателю тоже может быть полезно уведомление (например, для синхронизации нескольких вкладок)
+        NotificationResponse notification = new NotificationResponse();
+        notification.setType("NEW_CHAT");
+        notification.setChatId(chat.getId());
+        notification.setSenderId(creatorId);
+        notification.setPreview(chat.getName());
+        notification.setTimestamp(timestamp != null ? timestamp : LocalDateTime.now());
+
+        sendToUsers(participantIds, "/queue/notifications", notification);
     }
 
     /**
@@ -157,57 +178,141 @@ public class WebSocketService {
         messagingTemplate.convertAndSend("/topic/chat/" + chatId, wsMessage);
     }
 
+    /**
+     * Список онлайн-участников чата в персональную очередь пользователя.
+     *
+     * Отправляется в: /user/{userId}/queue/presence
+     * type: ONLINE_USERS
+     * payload: { chatId: Long, onlineUserIds: UUID[] }
+     */
+    public void sendOnlineUsers(UUID userId, OnlineUsersResponse onlineUsers) {
+        WebSocketMessage wsMessage = new WebSocketMessage();
+        wsMessage.setType("ONLINE_USERS");
+        wsMessage.setPayload(onlineUsers);
+        wsMessage.setChatId(onlineUsers.getChatId());
+        wsMessage.setTimestamp(System.currentTimeMillis());
+
+        messagingTemplate.convertAndSendToUser(
+                userId.toString(),
+                "/queue/presence",
+                wsMessage
+        );
+    }
+
+    /**
+     * Ошибка обработки STOMP-запроса пользователя (например, некорректный cursor в loadHistory).
+     *
+     * Отправляется в: /user/{userId}/queue/errors
+     * type: ERROR
+     * payload: { message: string }
+     */
+    public void sendErrorToUser(UUID userId, Long chatId, String message) {
+        WebSocketMessage wsMessage = new WebSocketMessage();
+        wsMessage.setType("ERROR");
+        wsMessage.setPayload(Map.of("message", message));
+        wsMessage.setChatId(chatId);
+        wsMessage.setTimestamp(System.currentTimeMillis());
+
+        messagingTemplate.convertAndSendToUser(
+                userId.toString(),
+                "/queue/errors",
+                wsMessage
+        );
+    }
+
     /**
      * Отправка истории сообщений в персональную очередь пользователя.
      *
      * type: HISTORY
-     * payload: { chatId: Long, offset: int, limit: int, beforeMessageId: Long|null, messages: MessageResponse[] }
+     * payload: { chatId: Long, offset: int, limit: int, beforeMessageId: Long|null,
+     *            nextCursor: String|null, hasMore: boolean, messages: MessageResponse[] }
+     *
+     * Если клиент разрешил сжатие (compress) и payload крупный – encoding: "gzip",
+     * payload: base64(gzip(JSON того же объекта)).
      */
     public void sendHistoryToUser(UUID userId,
                                   Long chatId,
                                   int offset,
                                   int limit,
                                   Long beforeMessageId,
-                                  List<MessageResponse> messages) {
+                                  MessageSliceResponse slice,
+                                  boolean compress) {
         HistoryPayload payload = new HistoryPayload();
         payload.setChatId(chatId);
         payload.setOffset(offset);
         payload.setLimit(limit);
         payload.setBeforeMessageId(beforeMessageId);
-        payload.setMessages(messages);
+        payload.setNextCursor(slice.getNextCursor());
+        payload.setHasMore(slice.isHasMore());
+        payload.setMessages(slice.getMessages());
 
         WebSocketMessage wsMessage = new WebSocketMessage();
         wsMessage.setType("HISTORY");
         wsMessage.setPayload(payload);
         wsMessage.setChatId(chatId);
+        if (compress) {
+            HistoryCompressor.Encoded encoded = historyCompressor.compress(payload);
+            if (encoded.compressed() != null) {
+                wsMessage.setPayload(encoded.compressed());
+                wsMessage.setEncoding(HistoryCompressor.GZIP);
+            } else {
+                // JSON уже посчитан для порога – в кадр вставляется готовым, без повторного обхода сообщений
+                wsMessage.setPayload(new RawValue(new String(encoded.json(), StandardCharsets.UTF_8)));
+            }
+        }
         wsMessage.setTimestamp(System.currentTimeMillis());
 
-        messagingTemplate.convertAndSendToUser(
-                userId.toString(),
-                "/queue/history",
-                wsMessage
-        );
+        // кадр сериализуется здесь один раз, как в sendToUsers: конвертер шаблона его уже не трогает
+        messagingTemplate.send(messagingTemplate.getUserDestinationPrefix() + userId + "/queue/history",
+                preSerialized(wsMessage));
+    }
+
+    /**
+     * Один и тот же payload нескольким пользователям: JSON сериализуется один раз, дальше брокер
+     * и UserDestinationMessageHandler копируют только заголовки, а byte[] общий для всех сессий.
+     * convertAndSendToUser в цикле сериализовал бы объект заново на каждого получателя.
+     */
+    private void sendToUsers(Collection<UUID> userIds, String destination, Object payload) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        Message<byte[]> message = preSerialized(payload);
+        String userPrefix = messagingTemplate.getUserDestinationPrefix();
+        for (UUID userId : userIds) {
+            messagingTemplate.send(userPrefix + userId + destination, message);
+        }
+    }
+
+    private Message<byte[]> preSerialized(Object payload) {
+        try {
+            return MessageBuilder.withPayload(objectMapper.writeValueAsBytes(payload))
+                    .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON)
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new MessageConversionException("Failed to serialize " + payload.getClass().getSimpleName(), e);
+        }
     }
 
     // Вспомогательные payload-классы для WebSocket событий
-    public static class TypingIndicator {
-        private UUID userId;
-        private Boolean typing;
+    public static class TypingUsersPayload {
+        // узел, чьих пользователей перечисляет userIds: в cluster-режиме клиент объединяет списки узлов
+        private String nodeId;
+        private List<UUID> userIds;
 
-        public UUID getUserId() {
-            return userId;
+        public String getNodeId() {
+            return nodeId;
         }
 
-        public void setUserId(UUID userId) {
-            this.userId = userId;
+        public void setNodeId(String nodeId) {
+            this.nodeId = nodeId;
         }
 
-        public Boolean getTyping() {
-            return typing;
+        public List<UUID> getUserIds() {
+            return userIds;
         }
 
-        public void setTyping(Boolean typing) {
-            this.typing = typing;
+        public void setUserIds(List<UUID> userIds) {
+            this.userIds = userIds;
         }
     }
 
@@ -237,6 +342,8 @@ public class WebSocketService {
         private int offset;
         private int limit;
         private Long beforeMessageId;
+        private String nextCursor;
+        private boolean hasMore;
         private List<MessageResponse> messages;
 
         public Long getChatId() {
@@ -271,6 +378,22 @@ public class WebSocketService {
             this.beforeMessageId = beforeMessageId;
         }
 
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public void setNextCursor(String nextCursor) {
+            this.nextCursor = nextCursor;
+        }
+
+        public boolean isHasMore() {
+            return hasMore;
+        }
+
+        public void setHasMore(boolean hasMore) {
+            this.hasMore = hasMore;
+        }
+
         public List<MessageResponse> getMessages() {
             return messages;
         }
@@ -280,24 +403,24 @@ public class WebSocketService {
         }
     }
 
-    public static class DeliveryPayload {
-        private Long messageId;
-        private UUID userId;
+    public static class ReceiptsPayload {
+        private Map<UUID, Long> delivered;
+        private Map<UUID, Long> read;
 
-        public Long getMessageId() {
-            return messageId;
+        public Map<UUID, Long> getDelivered() {
+            return delivered;
         }
 
-        public void setMessageId(Long messageId) {
-            this.messageId = messageId;
+        public void setDelivered(Map<UUID, Long> delivered) {
+            this.delivered = delivered;
         }
 
-        public UUID getUserId() {
-            return userId;
+        public Map<UUID, Long> getRead() {
+            return read;
         }
 
-        public void setUserId(UUID userId) {
-            this.userId = userId;
+        public void setRead(Map<UUID, Long> read) {
+            this.read = read;
         }
     }
 }
@@ -4,19 +4,36 @@ import org.springframework.stereotype.Component;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
 
 /**
  * Реестр WebSocket-подписок:
  *  - хранит онлайн-пользователей по чатам
  *  - помогает восстанавливать подписки при переподключениях
+ *
+ * Онлайн-статус считается по сессиям: пользователь с несколькими вкладками онлайн, пока жива хотя бы одна.
+ * Методы изменения возвращают переходы (первая сессия / последняя сессия), чтобы USER_ONLINE/USER_OFFLINE
+ * отправлялись только на них. Изменения сериализуются, чтения (isOnline, getOnlineUsers) – без блокировок.
+ *
+ * ActivityListener получает переходы уровня узла: чат появился/исчез среди подписок локальных сессий,
+ * у пользователя открылась первая/закрылась последняя сессия (по ним cluster-режим выбирает партиции),
+ * пользователь появился/пропал в чате (по ним cluster-режим рассылает присутствие другим узлам).
+ *
+ * isOnline и getOnlineUsers учитывают RemotePresence – сессии на других узлах кластера (если задан).
  */
 @Component
 public class WebSocketSubscriptionRegistry {
 
     /**
-     * chatId -> set of userIds, которые сейчас онлайн в этом чате
+     * chatId -> userId -> sessionIds, подписанные на топик этого чата
      */
-    private final Map<Long, Set<UUID>> chatOnlineUsers = new ConcurrentHashMap<>();
+    private final Map<Long, Map<UUID, Set<String>>> chatUserSessions = new ConcurrentHashMap<>();
+
+    /**
+     * userId -> все открытые сессии пользователя
+     */
+    private final Map<UUID, Set<String>> userSessions = new ConcurrentHashMap<>();
 
     /**
      * sessionId -> userId
@@ -24,62 +41,204 @@ public class WebSocketSubscriptionRegistry {
     private final Map<String, UUID> sessionUsers = new ConcurrentHashMap<>();
 
     /**
-     * sessionId -> set of chatIds, на которые подписан пользователь в рамках этой сессии
+     * sessionId -> (subscriptionId -> chatId): UNSUBSCRIBE приходит только с id подписки
      */
-    private final Map<String, Set<Long>> sessionChats = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Long>> sessionSubscriptions = new ConcurrentHashMap<>();
+
+    private final List<ActivityListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile RemotePresence remotePresence;
+
+    /**
+     * Слушатель вызывается под блокировкой реестра – он не должен делать ничего долгого.
+     */
+    public void addListener(ActivityListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Источник присутствия пользователей на других узлах (cluster-режим).
+     */
+    public void setRemotePresence(RemotePresence remotePresence) {
+        this.remotePresence = remotePresence;
+    }
+
+    /**
+     * Передает action копии локального состояния (пользователи с сессиями, chatId -> онлайн-пользователи)
+     * под блокировкой реестра: снимок упорядочен с переходами, которые получают слушатели.
+     */
+    public synchronized void withLocalPresence(BiConsumer<Set<UUID>, Map<Long, Set<UUID>>> action) {
+        Map<Long, Set<UUID>> chats = new HashMap<>();
+        chatUserSessions.forEach((chatId, users) -> chats.put(chatId, Set.copyOf(users.keySet())));
+        action.accept(Set.copyOf(userSessions.keySet()), chats);
+    }
 
-    public void registerSession(String sessionId, UUID userId) {
-        sessionUsers.put(sessionId, userId);
+    /**
+     * @return true, если это первая сессия пользователя
+     */
+    public synchronized boolean registerSession(String sessionId, UUID userId) {
+        if (sessionUsers.putIfAbsent(sessionId, userId) != null) {
+            return false;
+        }
+        Set<String> sessions = userSessions.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet());
+        sessions.add(sessionId);
+        if (sessions.size() != 1) {
+            return false;
+        }
+        listeners.forEach(listener -> listener.userConnected(userId));
+        return true;
     }
 
-    public void unregisterSession(String sessionId) {
+    /**
+     * Закрывает сессию и все ее подписки.
+     *
+     * @return чаты, в которых у пользователя не осталось ни одной сессии
+     */
+    public synchronized List<Long> unregisterSession(String sessionId) {
         UUID userId = sessionUsers.remove(sessionId);
         if (userId == null) {
-            return;
+            return List.of();
+        }
+        Set<String> sessions = userSessions.get(userId);
+        if (sessions != null) {
+            sessions.remove(sessionId);
+            if (sessions.isEmpty()) {
+                userSessions.remove(userId);
+                listeners.forEach(listener -> listener.userDisconnected(userId));
+            }
+        }
+        Map<String, Long> subscriptions = sessionSubscriptions.remove(sessionId);
+        if (subscriptions == null) {
+            return List.of();
         }
-        Set<Long> chats = sessionChats.remove(sessionId);
-        if (chats != null) {
-            for (Long chatId : chats) {
-                removeOnlineUser(chatId, userId);
+        List<Long> wentOffline = new ArrayList<>();
+        for (Long chatId : new HashSet<>(subscriptions.values())) {
+            if (removeChatSession(chatId, userId, sessionId)) {
+                wentOffline.add(chatId);
             }
         }
+        return wentOffline;
     }
 
-    public void subscribeToChat(String sessionId, Long chatId, UUID userId) {
+    /**
+     * @return true, если пользователь только что появился онлайн в этом чате
+     */
+    public synchronized boolean subscribeToChat(String sessionId, String subscriptionId, Long chatId, UUID userId) {
         registerSession(sessionId, userId);
-        sessionChats.computeIfAbsent(sessionId, k -> ConcurrentHashMap.newKeySet()).add(chatId);
-        addOnlineUser(chatId, userId);
+        sessionSubscriptions.computeIfAbsent(sessionId, k -> new HashMap<>()).put(subscriptionId, chatId);
+        Map<UUID, Set<String>> users = chatUserSessions.get(chatId);
+        if (users == null) {
+            users = new ConcurrentHashMap<>();
+            chatUserSessions.put(chatId, users);
+            listeners.forEach(listener -> listener.chatActivated(chatId));
+        }
+        Set<String> sessions = users.computeIfAbsent(userId, k -> new HashSet<>());
+        sessions.add(sessionId);
+        if (sessions.size() != 1) {
+            return false;
+        }
+        listeners.forEach(listener -> listener.userJoinedChat(chatId, userId));
+        return true;
     }
 
-    public void unsubscribeFromChat(String sessionId, Long chatId) {
+    /**
+     * @return chatId, если после отписки у пользователя не осталось сессий в этом чате, иначе null
+     */
+    public synchronized Long unsubscribe(String sessionId, String subscriptionId) {
         UUID userId = sessionUsers.get(sessionId);
-        if (userId == null) {
-            return;
+        Map<String, Long> subscriptions = sessionSubscriptions.get(sessionId);
+        if (userId == null || subscriptions == null) {
+            return null;
+        }
+        Long chatId = subscriptions.remove(subscriptionId);
+        // та же сессия может быть подписана на чат несколько раз
+        if (chatId == null || subscriptions.containsValue(chatId)) {
+            return null;
         }
-        Set<Long> chats = sessionChats.getOrDefault(sessionId, Collections.emptySet());
-        chats.remove(chatId);
-        removeOnlineUser(chatId, userId);
+        return removeChatSession(chatId, userId, sessionId) ? chatId : null;
     }
 
     public Set<UUID> getOnlineUsers(Long chatId) {
-        return chatOnlineUsers.getOrDefault(chatId, Collections.emptySet());
+        Map<UUID, Set<String>> users = chatUserSessions.get(chatId);
+        Set<UUID> local = users != null ? users.keySet() : Set.of();
+        RemotePresence remote = remotePresence;
+        if (remote == null) {
+            return Set.copyOf(local);
+        }
+        Set<UUID> online = new HashSet<>(local);
+        online.addAll(remote.onlineUsers(chatId));
+        return Set.copyOf(online);
     }
 
-    private void addOnlineUser(Long chatId, UUID userId) {
-        chatOnlineUsers
-                .computeIfAbsent(chatId, k -> ConcurrentHashMap.newKeySet())
-                .add(userId);
+    /**
+     * Подписан ли пользователь на чат в сессии на другом узле кластера (без RemotePresence – false).
+     */
+    public boolean isOnlineElsewhere(Long chatId, UUID userId) {
+        RemotePresence remote = remotePresence;
+        return remote != null && remote.onlineUsers(chatId).contains(userId);
     }
 
-    private void removeOnlineUser(Long chatId, UUID userId) {
-        Set<UUID> users = chatOnlineUsers.get(chatId);
-        if (users != null) {
-            users.remove(userId);
-            if (users.isEmpty()) {
-                chatOnlineUsers.remove(chatId);
-            }
+    /**
+     * Есть ли у пользователя хотя бы одна открытая WebSocket-сессия (на этом или, в cluster-режиме, другом узле).
+     */
+    public boolean isOnline(UUID userId) {
+        if (userSessions.containsKey(userId)) {
+            return true;
         }
+        RemotePresence remote = remotePresence;
+        return remote != null && remote.isOnline(userId);
     }
-}
 
+    public UUID getSessionUser(String sessionId) {
+        return sessionUsers.get(sessionId);
+    }
 
+    private boolean removeChatSession(Long chatId, UUID userId, String sessionId) {
+        Map<UUID, Set<String>> users = chatUserSessions.get(chatId);
+        if (users == null) {
+            return false;
+        }
+        Set<String> sessions = users.get(userId);
+        if (sessions == null || !sessions.remove(sessionId) || !sessions.isEmpty()) {
+            return false;
+        }
+        users.remove(userId);
+        listeners.forEach(listener -> listener.userLeftChat(chatId, userId));
+        if (users.isEmpty()) {
+            chatUserSessions.remove(chatId);
+            listeners.forEach(listener -> listener.chatDeactivated(chatId));
+        }
+        return true;
+    }
+
+    public interface ActivityListener {
+
+        default void chatActivated(Long chatId) {
+        }
+
+        default void chatDeactivated(Long chatId) {
+        }
+
+        default void userConnected(UUID userId) {
+        }
+
+        default void userDisconnected(UUID userId) {
+        }
+
+        default void userJoinedChat(Long chatId, UUID userId) {
+        }
+
+        default void userLeftChat(Long chatId, UUID userId) {
+        }
+    }
+
+    /**
+     * Присутствие пользователей, чьи сессии открыты на других узлах.
+     */
+    public interface RemotePresence {
+
+        Set<UUID> onlineUsers(Long chatId);
+
+        boolean isOnline(UUID userId);
+    }
+}
@@ -0,0 +1,148 @@
+package ru.ogyrecheksan.chatmicroservice.Benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import ru.ogyrecheksan.chatmicroservice.config.ChatDestinations;
+import ru.ogyrecheksan.chatmicroservice.config.ChatPrincipal;
+import ru.ogyrecheksan.chatmicroservice.config.JwtTokenValidator;
+import ru.ogyrecheksan.chatmicroservice.config.WebSocketSecurityInterceptor;
+import ru.ogyrecheksan.chatmicroservice.service.ChatMembershipCache;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Разбор входящего STOMP-кадра в WebSocketSecurityInterceptor (один кадр – одна операция).
+ * Кадры по кругу: SEND typing и sendMessage в чат, SUBSCRIBE на топик чата и на /user/queue/..., ACK.
+ *  - regex – как было: StompHeaderAccessor.wrap, два Matcher'а и Long.parseLong
+ *  - router – accessor сообщения и ChatDestinations.chatId
+ *  - preSend – перехватчик целиком, пользователь – ChatPrincipal с актуальным снимком
+ *
+ * gc.alloc.rate.norm – байт на кадр.
+ *
+ * Запуск: mvn -Pbenchmark test -Dtest=DestinationRoutingBenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DestinationRoutingBenchmark {
+
+    private static final Pattern CHAT_TOPIC_PATTERN = Pattern.compile("^/topic/chat/(\\d+)$");
+    private static final Pattern CHAT_APP_PATTERN = Pattern.compile("^/app/chat/(\\d+).*$");
+
+    private Message<?>[] frames;
+    private WebSocketSecurityInterceptor interceptor;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Снимок актуален – до репозитория дело не доходит
+        ChatMembershipCache membershipCache = new ChatMembershipCache(null, event -> {
+        }, new SimpleMeterRegistry(), 100_000, 300);
+        interceptor = new WebSocketSecurityInterceptor(membershipCache,
+                new JwtTokenValidator("Peanut_Butter_Jelly_The_Long_Way_Secret_Key_123", new SimpleMeterRegistry(), 100, 600));
+        ChatPrincipal user = new ChatPrincipal(UUID.randomUUID(), new long[]{12L, 1024L, 123456L},
+                membershipCache.currentEpoch(), System.nanoTime(), null);
+        frames = new Message<?>[]{
+                frame(StompCommand.SEND, "/app/chat/123456/typing", user),
+                frame(StompCommand.SEND, "/app/chat/1024/sendMessage", user),
+                frame(StompCommand.SUBSCRIBE, "/topic/chat/12", user),
+                frame(StompCommand.SUBSCRIBE, "/user/queue/notifications", user),
+                frame(StompCommand.ACK, null, user)
+        };
+    }
+
+    @Benchmark
+    public long regex() {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(nextFrame());
+        StompCommand command = accessor.getCommand();
+        if (command != StompCommand.SUBSCRIBE && command != StompCommand.SEND) {
+            return ChatDestinations.NONE;
+        }
+        String destination = accessor.getDestination();
+        if (destination == null || accessor.getUser() == null) {
+            return ChatDestinations.NONE;
+        }
+        Matcher topicMatcher = CHAT_TOPIC_PATTERN.matcher(destination);
+        if (topicMatcher.matches()) {
+            return Long.parseLong(topicMatcher.group(1));
+        }
+        Matcher appMatcher = CHAT_APP_PATTERN.matcher(destination);
+        if (appMatcher.matches()) {
+            return Long.parseLong(appMatcher.group(1));
+        }
+        return ChatDestinations.NONE;
+    }
+
+    @Benchmark
+    public long router() {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(nextFrame(), StompHeaderAccessor.class);
+        StompCommand command = accessor.getCommand();
+        if (command != StompCommand.SUBSCRIBE && command != StompCommand.SEND) {
+            return ChatDestinations.NONE;
+        }
+        String destination = accessor.getDestination();
+        return destination != null ? ChatDestinations.chatId(destination) : ChatDestinations.NONE;
+    }
+
+    @Benchmark
+    public Message<?> preSend() {
+        return interceptor.preSend(nextFrame(), null);
+    }
+
+    private Message<?> nextFrame() {
+        Message<?> frame = frames[next];
+        next = next + 1 == frames.length ? 0 : next + 1;
+        return frame;
+    }
+
+    @Test
+    void destinationRouting() throws RunnerException {
+        for (RunResult result : new Runner(new OptionsBuilder()
+                .include(DestinationRoutingBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build()).run()) {
+            System.out.printf("%s: %.0f frames/s, %.1f B/frame%n",
+                    result.getParams().getBenchmark(),
+                    result.getPrimaryResult().getScore(),
+                    result.getSecondaryResults().get("gc.alloc.rate.norm").getScore());
+        }
+    }
+
+    // как у StompSubProtocolHandler: accessor привязан к сообщению и достается из него через getAccessor
+    private static Message<byte[]> frame(StompCommand command, String destination, ChatPrincipal user) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId("s1");
+        accessor.setDestination(destination);
+        accessor.setUser(user);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
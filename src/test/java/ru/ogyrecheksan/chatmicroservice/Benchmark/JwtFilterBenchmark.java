@@ -0,0 +1,188 @@
+package ru.ogyrecheksan.chatmicroservice.Benchmark;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.ogyrecheksan.chatmicroservice.config.JwtTokenValidator;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность JWT-фильтра (один HTTP-запрос – одна операция):
+ *  - perRequestParser – фильтр как был: Jwts.parser()...build() и полная проверка на каждый запрос
+ *  - cold – JwtTokenValidator, каждый запрос с новым токеном: общий парсер, промах кэша (проверка + SHA-256 + запись);
+ *    кэш заполнен до COLD_CACHE_SIZE, как в установившемся режиме, и новые токены вытесняют старые
+ *  - warm – JwtTokenValidator, один и тот же токен: SHA-256 и попадание в кэш, без HMAC и JSON
+ *
+ * gc.alloc.rate.norm – байт на запрос.
+ *
+ * Запуск: mvn -Pbenchmark test -Dtest=JwtFilterBenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtFilterBenchmark {
+
+    private static final String SECRET = "Peanut_Butter_Jelly_The_Long_Way_Secret_Key_123";
+    // токенов намного больше кэша: к повторному приходу токен давно вытеснен
+    private static final int COLD_TOKENS = 1 << 16;
+    private static final int COLD_CACHE_SIZE = 4096;
+
+    private SecretKey key;
+    private PerRequestParserFilter perRequestParserFilter;
+    private JwtTokenValidator validator;
+    private JwtTokenValidator coldValidator;
+    private String warmToken;
+    private String[] coldTokens;
+    private AuthorizationRequest request;
+    private MockHttpServletResponse response;
+    private FilterChain chain;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        key = Keys.hmacShaKeyFor(SECRET.getBytes());
+        perRequestParserFilter = new PerRequestParserFilter(key);
+        validator = new JwtTokenValidator(SECRET, new SimpleMeterRegistry(), 100_000, 600);
+        warmToken = "Bearer " + token(UUID.randomUUID());
+        coldTokens = new String[COLD_TOKENS];
+        for (int i = 0; i < COLD_TOKENS; i++) {
+            coldTokens[i] = "Bearer " + token(UUID.randomUUID());
+        }
+        coldValidator = new JwtTokenValidator(SECRET, new SimpleMeterRegistry(), COLD_CACHE_SIZE, 600);
+        for (int i = 0; i < COLD_CACHE_SIZE; i++) {
+            coldValidator.authenticate("Bearer " + token(UUID.randomUUID()));
+        }
+        request = new AuthorizationRequest();
+        response = new MockHttpServletResponse();
+        chain = (request, response) -> {
+        };
+    }
+
+    @Benchmark
+    public void perRequestParser(Blackhole blackhole) throws Exception {
+        request.authorization = warmToken;
+        filter(perRequestParserFilter, blackhole);
+    }
+
+    @Benchmark
+    public void cold(Blackhole blackhole) throws Exception {
+        request.authorization = coldTokens[next++ & (COLD_TOKENS - 1)];
+        filter(coldValidator, blackhole);
+    }
+
+    @Benchmark
+    public void warm(Blackhole blackhole) throws Exception {
+        request.authorization = warmToken;
+        filter(validator, blackhole);
+    }
+
+    private void filter(OncePerRequestFilter filter, Blackhole blackhole) throws Exception {
+        filter.doFilter(request, response, chain);
+        blackhole.consume(SecurityContextHolder.getContext().getAuthentication());
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void filterThroughput() throws RunnerException {
+        for (RunResult result : new Runner(new OptionsBuilder()
+                .include(JwtFilterBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build()).run()) {
+            System.out.printf("%s: %.0f requests/s, %.0f B/request%n",
+                    result.getParams().getBenchmark(),
+                    result.getPrimaryResult().getScore(),
+                    result.getSecondaryResults().get("gc.alloc.rate.norm").getScore());
+        }
+    }
+
+    private String token(UUID userId) {
+        return Jwts.builder()
+                .claim("userId", userId.toString())
+                .expiration(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+                .signWith(key)
+                .compact();
+    }
+
+    // один запрос на все операции, меняется только заголовок
+    private static class AuthorizationRequest extends HttpServletRequestWrapper {
+
+        private String authorization;
+
+        AuthorizationRequest() {
+            super(new MockHttpServletRequest("GET", "/api/chats"));
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return "Authorization".equals(name) ? authorization : super.getHeader(name);
+        }
+    }
+
+    // JwtTokenValidator до кэша: новый парсер и полная проверка на каждый запрос
+    private static class PerRequestParserFilter extends OncePerRequestFilter {
+
+        private final SecretKey key;
+
+        PerRequestParserFilter(SecretKey key) {
+            this.key = key;
+        }
+
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                        FilterChain filterChain) throws ServletException, IOException {
+            String jwt = request.getHeader("Authorization");
+            if (jwt != null && jwt.startsWith("Bearer ")) {
+                Claims claims = Jwts.parser()
+                        .verifyWith(key)
+                        .build()
+                        .parseSignedClaims(jwt.substring(7))
+                        .getPayload();
+                String userId = claims.get("userId", String.class);
+                String email = claims.get("email", String.class);
+                SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                        userId != null ? userId : email, null, List.of(new SimpleGrantedAuthority("ROLE_USER"))));
+            }
+            filterChain.doFilter(request, response);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ru.ogyrecheksan.chatmicroservice.Benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.NotificationResponse;
+import ru.ogyrecheksan.chatmicroservice.service.HistoryCompressor;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Рассылка NEW_MESSAGE группе из 1000 участников (одна операция – одно событие):
+ *  - perRecipient – как было: convertAndSendToUser и сериализация JSON на каждого получателя
+ *  - preSerialized – WebSocketService: JSON сериализуется один раз, byte[] общий для всех
+ *
+ * Канал брокера пустой (кадры никуда не уходят) – меряется только работа до брокера.
+ * gc.alloc.rate.norm – байт на событие.
+ *
+ * Запуск: mvn -Pbenchmark test -Dtest=NotificationFanoutBenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationFanoutBenchmark {
+
+    private static final int GROUP_SIZE = 1000;
+
+    private SimpMessagingTemplate messagingTemplate;
+    private WebSocketService webSocketService;
+    private List<UUID> participantIds;
+    private UUID senderId;
+    private MessageResponse message;
+    private long sent;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        MessageChannel brokerChannel = (frame, timeout) -> {
+            sent++;
+            return true;
+        };
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+        messagingTemplate = new SimpMessagingTemplate(brokerChannel);
+        messagingTemplate.setMessageConverter(converter);
+        webSocketService = new WebSocketService(messagingTemplate, objectMapper,
+                new HistoryCompressor(objectMapper, new SimpleMeterRegistry(), 0));
+
+        participantIds = new ArrayList<>(GROUP_SIZE);
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            participantIds.add(UUID.randomUUID());
+        }
+        senderId = participantIds.get(0);
+        message = new MessageResponse();
+        message.setId("1");
+        message.setConversationId("1");
+        message.setSenderId(senderId.toString());
+        message.setContent("Привет всем, это сообщение в большую группу");
+        message.setCreatedAt(LocalDateTime.now());
+    }
+
+    @Benchmark
+    public void perRecipient(Blackhole blackhole) {
+        for (UUID participantId : participantIds) {
+            if (participantId.equals(senderId)) {
+                continue;
+            }
+            NotificationResponse notification = new NotificationResponse();
+            notification.setType("NEW_MESSAGE");
+            notification.setChatId(1L);
+            notification.setSenderId(senderId);
+            notification.setPreview(message.getContent());
+            notification.setTimestamp(message.getCreatedAt());
+            messagingTemplate.convertAndSendToUser(participantId.toString(), "/queue/notifications", notification);
+        }
+        blackhole.consume(sent);
+    }
+
+    @Benchmark
+    public void preSerialized(Blackhole blackhole) {
+        webSocketService.sendNewMessageNotifications(1L, senderId, message, participantIds);
+        blackhole.consume(sent);
+    }
+
+    @Test
+    void fanout1000Members() throws RunnerException {
+        for (RunResult result : new Runner(new OptionsBuilder()
+                .include(NotificationFanoutBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build()).run()) {
+            System.out.printf("%s: %.1f events/s (%.0f frames/s), %.0f B/event%n",
+                    result.getParams().getBenchmark(),
+                    result.getPrimaryResult().getScore(),
+                    result.getPrimaryResult().getScore() * (GROUP_SIZE - 1),
+                    result.getSecondaryResults().get("gc.alloc.rate.norm").getScore());
+        }
+    }
+}
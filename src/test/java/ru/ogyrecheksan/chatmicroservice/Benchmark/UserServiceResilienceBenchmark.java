@@ -0,0 +1,161 @@
+package ru.ogyrecheksan.chatmicroservice.Benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import ru.ogyrecheksan.chatmicroservice.config.UserServiceStub;
+import ru.ogyrecheksan.chatmicroservice.service.UserProfileService;
+import ru.ogyrecheksan.chatmicroservice.service.UserServiceClient;
+import ru.ogyrecheksan.chatmicroservice.service.UserServiceGuard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Латентность обогащения профилями при медленном user-service (заглушка UserServiceStub с задержкой).
+ *
+ * CONCURRENCY параллельных «запросов» по IDS_PER_REQUEST случайных пользователей из USERS; свежий кэш выключен
+ * (ttl 0), поэтому каждый запрос идет в user-service – худший случай. Последние известные профили прогреты.
+ * Сценарии:
+ *  - healthy – задержка HEALTHY_DELAY_MS, настройки по умолчанию
+ *  - slow, deadlines only – задержка SLOW_DELAY_MS, только таймауты Feign и chat.users.lookup-timeout-ms
+ *    (bulkhead и breaker фактически выключены)
+ *  - slow, guarded – та же задержка, bulkhead и circuit breaker по умолчанию
+ * Печатает p50/p90/p99/max и сколько вызовов дошло до user-service. В guarded p99 – первая волна запросов,
+ * застающая user-service до открытия breaker (ждет read-timeout); дальше ответы идут из устаревших профилей.
+ *
+ * Запуск: mvn -Pbenchmark test -Dtest=UserServiceResilienceBenchmark
+ */
+@Tag("benchmark")
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:userservicebench",
+        "chat.outbox.parallelism=0"
+})
+class UserServiceResilienceBenchmark {
+
+    private static final int USERS = 500;
+    private static final int IDS_PER_REQUEST = 10;
+    private static final int CONCURRENCY = 50;
+    private static final int REQUESTS = 1000;
+    private static final long HEALTHY_DELAY_MS = 10;
+    private static final long SLOW_DELAY_MS = 3000;
+    private static final long LOOKUP_TIMEOUT_MS = 2000;
+
+    private static final UserServiceStub USER_SERVICE = startStub();
+
+    @Autowired
+    private UserServiceClient userServiceClient;
+
+    @DynamicPropertySource
+    static void userServiceUrl(DynamicPropertyRegistry registry) {
+        registry.add("auth.service.url", USER_SERVICE::url);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        USER_SERVICE.close();
+    }
+
+    @Test
+    void p99UnderInjectedSlowness() throws Exception {
+        List<UUID> users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            users.add(UUID.randomUUID());
+        }
+
+        String healthy = run("healthy", users, HEALTHY_DELAY_MS,
+                new UserServiceGuard(new SimpleMeterRegistry(), 20, 100, 5, 10_000));
+        String deadlinesOnly = run("slow, deadlines only", users, SLOW_DELAY_MS,
+                new UserServiceGuard(new SimpleMeterRegistry(), Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 0));
+        String guarded = run("slow, guarded", users, SLOW_DELAY_MS,
+                new UserServiceGuard(new SimpleMeterRegistry(), 20, 100, 5, 10_000));
+
+        System.out.printf("%n=== Profile lookups: %d requests x %d ids, %d concurrent, user-service delay %d ms (slow) ===%n",
+                REQUESTS, IDS_PER_REQUEST, CONCURRENCY, SLOW_DELAY_MS);
+        System.out.println(healthy);
+        System.out.println(deadlinesOnly);
+        System.out.println(guarded);
+    }
+
+    private String run(String name, List<UUID> users, long delayMs, UserServiceGuard guard) throws Exception {
+        UserProfileService profiles = new UserProfileService(userServiceClient, guard, new SimpleMeterRegistry(),
+                100_000, 0, 86_400, LOOKUP_TIMEOUT_MS, "");
+        try {
+            USER_SERVICE.reset();
+            profiles.getUsers(new HashSet<>(users), null);
+            USER_SERVICE.batchRequests().clear();
+            USER_SERVICE.setDelayMs(delayMs);
+
+            long[] latencies = new long[REQUESTS];
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger resolved = new AtomicInteger();
+            ExecutorService clients = Executors.newFixedThreadPool(CONCURRENCY);
+            long start = System.nanoTime();
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < CONCURRENCY; i++) {
+                workers.add(clients.submit(() -> {
+                    for (int request = next.getAndIncrement(); request < REQUESTS; request = next.getAndIncrement()) {
+                        Set<UUID> ids = randomIds(users);
+                        long requestStart = System.nanoTime();
+                        resolved.addAndGet(profiles.getUsers(ids, null).size());
+                        latencies[request] = System.nanoTime() - requestStart;
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            clients.shutdown();
+
+            Arrays.sort(latencies);
+            return String.format("%-22s p50 %6.1f ms, p90 %7.1f ms, p99 %7.1f ms, max %7.1f ms, %5d user-service calls, "
+                            + "%5.1f%% ids resolved, %d ms total",
+                    name, millis(latencies[REQUESTS / 2]), millis(latencies[(int) (REQUESTS * 0.9) - 1]),
+                    millis(latencies[(int) (REQUESTS * 0.99) - 1]), millis(latencies[REQUESTS - 1]), USER_SERVICE.batchRequests().size(),
+                    100.0 * resolved.get() / (REQUESTS * IDS_PER_REQUEST), elapsedMs);
+        } finally {
+            profiles.destroy();
+            USER_SERVICE.reset();
+        }
+    }
+
+    private static Set<UUID> randomIds(List<UUID> users) {
+        Set<UUID> ids = new HashSet<>();
+        while (ids.size() < IDS_PER_REQUEST) {
+            ids.add(users.get(ThreadLocalRandom.current().nextInt(users.size())));
+        }
+        return ids;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static UserServiceStub startStub() {
+        try {
+            return new UserServiceStub();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
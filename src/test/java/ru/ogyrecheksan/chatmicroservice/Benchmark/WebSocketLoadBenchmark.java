@@ -0,0 +1,286 @@
+package ru.ogyrecheksan.chatmicroservice.Benchmark;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import ru.ogyrecheksan.chatmicroservice.ChatMicroserviceApplication;
+import ru.ogyrecheksan.chatmicroservice.model.Chat;
+import ru.ogyrecheksan.chatmicroservice.model.ChatParticipant;
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatRole;
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatRepository;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузочный тест: платформенные потоки против виртуальных (spring.threads.virtual.enabled).
+ *
+ * Поднимает сервис, подключает CLIENTS STOMP-клиентов (JWT в handshake), раскладывает их по группам
+ * по CHAT_SIZE человек и гоняет закрытый цикл: клиент отправляет сообщение через /app/chat/{id}/sendMessage
+ * (JPA-вставка + outbox) и ждет его broadcast в /topic/chat/{id}, затем отправляет следующее.
+ * Печатает пропускную способность (сообщений/с) и p50/p99 от SEND до получения MESSAGE.
+ *
+ * Запуск: mvn -Pbenchmark test -Dtest=WebSocketLoadBenchmark [-Dchat.load.clients=10000 -Dchat.load.messages=5]
+ * 10k клиентов в одном JVM с сервером – это ~20k сокетов: нужен ulimit -n с запасом.
+ */
+@Tag("benchmark")
+class WebSocketLoadBenchmark {
+
+    private static final int CLIENTS = Integer.getInteger("chat.load.clients", 10_000);
+    private static final int MESSAGES_PER_CLIENT = Integer.getInteger("chat.load.messages", 5);
+    private static final int CHAT_SIZE = 10;
+    private static final int CONNECT_CONCURRENCY = 200;
+    private static final long RUN_TIMEOUT_SECONDS = 300;
+
+    @Test
+    void platformVsVirtualThreads() throws Exception {
+        Result platform = run(false);
+        Result virtual = run(true);
+
+        System.out.printf("%n=== WebSocket load: %d clients x %d messages, chats of %d ===%n",
+                CLIENTS, MESSAGES_PER_CLIENT, CHAT_SIZE);
+        print("platform threads", platform);
+        print("virtual threads", virtual);
+    }
+
+    private Result run(boolean virtualThreads) throws Exception {
+        String mode = virtualThreads ? "virtual" : "platform";
+        try (ConfigurableApplicationContext context = startNode(mode, virtualThreads)) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            String secret = context.getEnvironment().getProperty("auth.jwt.secret");
+
+            List<UUID> users = new ArrayList<>(CLIENTS);
+            for (int i = 0; i < CLIENTS; i++) {
+                users.add(UUID.randomUUID());
+            }
+            List<Long> chatIds = seedChats(context, users);
+
+            WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+            stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+            stompClient.setInboundMessageSizeLimit(256 * 1024);
+
+            long[] latencies = new long[CLIENTS * MESSAGES_PER_CLIENT];
+            AtomicInteger recorded = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            CountDownLatch finished = new CountDownLatch(CLIENTS);
+
+            LoadClient[] clients = connect(stompClient, port, secret, users, chatIds, latencies, recorded, errors, finished);
+            awaitSubscriptions(context, chatIds, clients);
+            int connected = (int) Arrays.stream(clients).filter(client -> client != null).count();
+            for (int i = 0; i < CLIENTS - connected; i++) {
+                finished.countDown();
+            }
+
+            long start = System.nanoTime();
+            for (LoadClient client : clients) {
+                if (client != null) {
+                    client.sendNext();
+                }
+            }
+            finished.await(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            long elapsed = System.nanoTime() - start;
+
+            for (LoadClient client : clients) {
+                if (client != null) {
+                    client.session.disconnect();
+                }
+            }
+            stompClient.stop();
+
+            int count = recorded.get();
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return new Result(connected, count, elapsed, percentile(sorted, 0.50), percentile(sorted, 0.99), errors.get());
+        }
+    }
+
+    private LoadClient[] connect(WebSocketStompClient stompClient, int port, String secret,
+                                 List<UUID> users, List<Long> chatIds, long[] latencies,
+                                 AtomicInteger recorded, AtomicInteger errors,
+                                 CountDownLatch finished) throws InterruptedException {
+        LoadClient[] clients = new LoadClient[CLIENTS];
+        CountDownLatch connected = new CountDownLatch(CLIENTS);
+        Semaphore inFlight = new Semaphore(CONNECT_CONCURRENCY);
+        String url = "ws://localhost:" + port + "/ws-chat/websocket";
+
+        for (int i = 0; i < CLIENTS; i++) {
+            int index = i;
+            LoadClient client = new LoadClient(index, chatIds.get(index / CHAT_SIZE), latencies, recorded, finished);
+            WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+            headers.add("Authorization", "Bearer " + token(secret, users.get(index)));
+            inFlight.acquire();
+            stompClient.connectAsync(url, headers, new StompSessionHandlerAdapter() {
+                @Override
+                public void handleTransportError(StompSession session, Throwable exception) {
+                    errors.incrementAndGet();
+                }
+            }).whenComplete((session, error) -> {
+                inFlight.release();
+                if (error != null) {
+                    errors.incrementAndGet();
+                } else {
+                    client.session = session;
+                    session.subscribe("/topic/chat/" + client.chatId, client);
+                    clients[index] = client;
+                }
+                connected.countDown();
+            });
+        }
+        if (!connected.await(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            System.out.printf("Only %d of %d clients connected in time%n", CLIENTS - connected.getCount(), CLIENTS);
+        }
+        return clients;
+    }
+
+    /**
+     * Simple broker не отвечает RECEIPT на SUBSCRIBE – ждем, пока реестр подписок сервера увидит всех клиентов.
+     */
+    private void awaitSubscriptions(ConfigurableApplicationContext context, List<Long> chatIds, LoadClient[] clients)
+            throws InterruptedException {
+        WebSocketSubscriptionRegistry registry = context.getBean(WebSocketSubscriptionRegistry.class);
+        long expected = Arrays.stream(clients).filter(client -> client != null).count();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RUN_TIMEOUT_SECONDS);
+        while (chatIds.stream().mapToLong(chatId -> registry.getOnlineUsers(chatId).size()).sum() < expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        // событие SUBSCRIBE публикуется до регистрации подписки в брокере
+        Thread.sleep(1000);
+    }
+
+    private List<Long> seedChats(ConfigurableApplicationContext context, List<UUID> users) {
+        ChatRepository chatRepository = context.getBean(ChatRepository.class);
+        ChatParticipantRepository participantRepository = context.getBean(ChatParticipantRepository.class);
+
+        List<Chat> chats = new ArrayList<>();
+        List<ChatParticipant> participants = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i += CHAT_SIZE) {
+            Chat chat = new Chat();
+            chat.setName("load-" + i);
+            chat.setType(ChatType.GROUP);
+            chat.setCreatedBy(users.get(i));
+            chats.add(chat);
+            for (int j = i; j < Math.min(i + CHAT_SIZE, users.size()); j++) {
+                ChatParticipant participant = new ChatParticipant();
+                participant.setChat(chat);
+                participant.setUserId(users.get(j));
+                participant.setRole(j == i ? ChatRole.OWNER : ChatRole.MEMBER);
+                participants.add(participant);
+            }
+        }
+        chatRepository.saveAll(chats);
+        participantRepository.saveAll(participants);
+        return chats.stream().map(Chat::getId).toList();
+    }
+
+    private ConfigurableApplicationContext startNode(String mode, boolean virtualThreads) {
+        // аргументы командной строки – чтобы перекрыть application.properties
+        return new SpringApplicationBuilder(ChatMicroserviceApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:load-" + mode,
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN",
+                "--auth.service.url=http://localhost:5252",
+                "--server.tomcat.max-connections=" + (CLIENTS + 1000),
+                "--spring.threads.virtual.enabled=" + virtualThreads);
+    }
+
+    private static String token(String secret, UUID userId) {
+        return Jwts.builder()
+                .claim("userId", userId.toString())
+                .signWith(Keys.hmacShaKeyFor(secret.getBytes()))
+                .compact();
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static void print(String label, Result result) {
+        double seconds = result.elapsedNanos() / 1e9;
+        System.out.printf("%-17s connected=%d messages=%d errors=%d throughput=%.0f msg/s p50=%.1f ms p99=%.1f ms%n",
+                label, result.connected(), result.messages(), result.errors(),
+                result.messages() / seconds, result.p50Nanos() / 1e6, result.p99Nanos() / 1e6);
+    }
+
+    private record Result(int connected, int messages, long elapsedNanos, long p50Nanos, long p99Nanos, int errors) {
+    }
+
+    /**
+     * Клиент закрытого цикла: следующее сообщение – только после получения своего предыдущего.
+     */
+    private static final class LoadClient implements StompFrameHandler {
+
+        private final int index;
+        private final Long chatId;
+        private final long[] latencies;
+        private final AtomicInteger recorded;
+        private final CountDownLatch finished;
+        private volatile StompSession session;
+        private volatile int sequence;
+        private volatile long sentAt;
+
+        private LoadClient(int index, Long chatId, long[] latencies, AtomicInteger recorded, CountDownLatch finished) {
+            this.index = index;
+            this.chatId = chatId;
+            this.latencies = latencies;
+            this.recorded = recorded;
+            this.finished = finished;
+        }
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return Map.class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            Map<?, ?> frame = (Map<?, ?>) payload;
+            if (!"MESSAGE".equals(frame.get("type"))
+                    || !expectedContent().equals(((Map<?, ?>) frame.get("payload")).get("content"))) {
+                return; // сообщения соседей по чату
+            }
+            latencies[recorded.getAndIncrement()] = System.nanoTime() - sentAt;
+            if (++sequence < MESSAGES_PER_CLIENT) {
+                sendNext();
+            } else {
+                finished.countDown();
+            }
+        }
+
+        private void sendNext() {
+            sentAt = System.nanoTime();
+            session.send("/app/chat/" + chatId + "/sendMessage", Map.of("content", expectedContent(), "type", "TEXT"));
+        }
+
+        private String expectedContent() {
+            return "c" + index + "-" + sequence;
+        }
+    }
+}
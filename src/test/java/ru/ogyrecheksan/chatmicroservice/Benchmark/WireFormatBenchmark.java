@@ -0,0 +1,183 @@
+package ru.ogyrecheksan.chatmicroservice.Benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.ogyrecheksan.chatmicroservice.config.WireFormatCodec;
+import ru.ogyrecheksan.chatmicroservice.config.WireFormatCodec.WireFormat;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.WebSocketMessage;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON против CBOR и Smile для кадров MESSAGE, TYPING, HISTORY (50 сообщений) и RECEIPTS (20 участников):
+ *  - размер тела кадра (печатается таблицей перед JMH)
+ *  - encode – объект -> байты (как Jackson-конвертер)
+ *  - decode – байты -> дерево (как универсальный клиентский декодер)
+ *  - transcode – JSON -> формат сессии, то, что сервер делает на самом деле (для JSON – без работы)
+ *
+ * Запуск: mvn -Pbenchmark test -Dtest=WireFormatBenchmark
+ */
+@Tag("benchmark")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    // в истории чата сообщения обычно от нескольких участников
+    private static final List<UUID> SENDERS = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+
+    @Param({"MESSAGE", "TYPING", "HISTORY", "RECEIPTS"})
+    public String frame;
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    public String format;
+
+    private final WireFormatCodec codec = new WireFormatCodec(16);
+    private ObjectMapper mapper;
+    private WireFormat wireFormat;
+    private WebSocketMessage message;
+    private byte[] json;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        wireFormat = WireFormat.valueOf(format);
+        mapper = mapper(wireFormat);
+        message = frame(frame);
+        json = mapper(WireFormat.JSON).writeValueAsBytes(message);
+        encoded = mapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        return mapper.readTree(encoded);
+    }
+
+    @Benchmark
+    public byte[] transcode() {
+        return codec.transcode(json, wireFormat);
+    }
+
+    @Test
+    void wireFormats() throws Exception {
+        System.out.printf("%-9s %8s %8s %8s%n", "frame", "json", "cbor", "smile");
+        for (String name : List.of("MESSAGE", "TYPING", "HISTORY", "RECEIPTS")) {
+            WebSocketMessage value = frame(name);
+            byte[] jsonBytes = mapper(WireFormat.JSON).writeValueAsBytes(value);
+            System.out.printf("%-9s %8d %8d %8d%n", name, jsonBytes.length,
+                    codec.transcode(jsonBytes, WireFormat.CBOR).length,
+                    codec.transcode(jsonBytes, WireFormat.SMILE).length);
+        }
+        runJmh();
+    }
+
+    private static void runJmh() throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WireFormatBenchmark.class.getName())
+                .build()).run();
+    }
+
+    private static ObjectMapper mapper(WireFormat format) {
+        // как ObjectMapper Spring Boot: даты строками ISO-8601
+        return (switch (format) {
+            case JSON -> JsonMapper.builder();
+            case CBOR -> CBORMapper.builder();
+            case SMILE -> SmileMapper.builder(SmileFactory.builder()
+                    .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                    .build());
+        }).addModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+    }
+
+    private static WebSocketMessage frame(String type) {
+        WebSocketMessage frame = new WebSocketMessage();
+        frame.setType(type);
+        frame.setChatId(42L);
+        frame.setPayload(switch (type) {
+            case "MESSAGE" -> message(1);
+            case "TYPING" -> {
+                WebSocketService.TypingUsersPayload typing = new WebSocketService.TypingUsersPayload();
+                typing.setNodeId(UUID.randomUUID().toString());
+                typing.setUserIds(List.of(UUID.randomUUID(), UUID.randomUUID()));
+                yield typing;
+            }
+            case "HISTORY" -> {
+                List<MessageResponse> messages = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    messages.add(message(1000 + i));
+                }
+                WebSocketService.HistoryPayload history = new WebSocketService.HistoryPayload();
+                history.setChatId(42L);
+                history.setLimit(50);
+                history.setNextCursor("MTAwMHwyMDI0LTAxLTE1VDEwOjMwOjAw");
+                history.setHasMore(true);
+                history.setMessages(messages);
+                yield history;
+            }
+            case "RECEIPTS" -> {
+                Map<UUID, Long> delivered = new LinkedHashMap<>();
+                Map<UUID, Long> read = new LinkedHashMap<>();
+                for (int i = 0; i < 20; i++) {
+                    delivered.put(UUID.randomUUID(), 100_000L + i);
+                    read.put(UUID.randomUUID(), 99_000L + i);
+                }
+                WebSocketService.ReceiptsPayload receipts = new WebSocketService.ReceiptsPayload();
+                receipts.setDelivered(delivered);
+                receipts.setRead(read);
+                yield receipts;
+            }
+            default -> throw new IllegalArgumentException(type);
+        });
+        return frame;
+    }
+
+    private static MessageResponse message(long id) {
+        MessageResponse message = new MessageResponse();
+        message.setId(String.valueOf(id));
+        message.setConversationId("42");
+        message.setSenderId(SENDERS.get((int) (id % SENDERS.size())).toString());
+        message.setContent("Привет! Созвонимся вечером, обсудим релиз #" + id);
+        message.setCreatedAt(LocalDateTime.of(2024, 1, 15, 10, 30).plusSeconds(id));
+        return message;
+    }
+}
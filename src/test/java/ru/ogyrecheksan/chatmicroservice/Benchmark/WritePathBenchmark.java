@@ -0,0 +1,127 @@
+package ru.ogyrecheksan.chatmicroservice.Benchmark;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import ru.ogyrecheksan.chatmicroservice.dto.Request.CreateChatRequest;
+import ru.ogyrecheksan.chatmicroservice.model.Chat;
+import ru.ogyrecheksan.chatmicroservice.model.Message;
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
+import ru.ogyrecheksan.chatmicroservice.model.enums.MessageType;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.MessageRepository;
+import ru.ogyrecheksan.chatmicroservice.service.ChatService;
+import ru.ogyrecheksan.chatmicroservice.service.MessageService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Пропускная способность write-путей (строк в секунду):
+ *  - создание группы на 500 участников
+ *  - прочтение 10k сообщений с записью статусов по каждому сообщению (INSERT ... SELECT)
+ *
+ * Запуск: mvn -Pbenchmark test -Dtest=WritePathBenchmark
+ */
+@Tag("benchmark")
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:writebench",
+        "auth.service.url=http://localhost:5252",
+        "spring.jpa.show-sql=false",
+        "logging.level.ru.ogyrecheksan.chatmicroservice=INFO",
+        "chat.receipts.per-message-status=true"
+})
+class WritePathBenchmark {
+
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+    private static final int GROUP_SIZE = 500;
+    private static final int MESSAGES = 10_000;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Test
+    void createGroupChat500Members() {
+        // чат + 500 строк участников
+        run("createGroupChat(500 members)", GROUP_SIZE + 1, () -> {
+            List<UUID> participantIds = new ArrayList<>(GROUP_SIZE - 1);
+            for (int i = 0; i < GROUP_SIZE - 1; i++) {
+                participantIds.add(UUID.randomUUID());
+            }
+            CreateChatRequest request = new CreateChatRequest();
+            request.setName("bench");
+            request.setType(ChatType.GROUP);
+            request.setParticipantIds(participantIds);
+            long start = System.nanoTime();
+            chatService.createGroupChat(request, UUID.randomUUID(), null);
+            return System.nanoTime() - start;
+        });
+    }
+
+    @Test
+    void markRead10kMessages() {
+        run("markMessagesAsRead(10k messages)", MESSAGES, () -> {
+            UUID ownerId = UUID.randomUUID();
+            UUID readerId = UUID.randomUUID();
+            Long chatId = prepareChat(ownerId, readerId);
+            long start = System.nanoTime();
+            messageService.markMessagesAsRead(chatId, readerId);
+            return System.nanoTime() - start;
+        });
+    }
+
+    private Long prepareChat(UUID ownerId, UUID readerId) {
+        CreateChatRequest request = new CreateChatRequest();
+        request.setName("bench-read");
+        request.setType(ChatType.GROUP);
+        request.setParticipantIds(List.of(readerId));
+        Long chatId = chatService.createGroupChat(request, ownerId, null).getId();
+
+        Chat chat = chatRepository.findById(chatId).orElseThrow();
+        List<Message> messages = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            Message message = new Message();
+            message.setChat(chat);
+            message.setSenderId(ownerId);
+            message.setType(MessageType.TEXT);
+            message.setContent("message " + i);
+            messages.add(message);
+        }
+        List<Message> saved = messageRepository.saveAll(messages);
+        chat.setLastMessageId(saved.get(saved.size() - 1).getId());
+        chatRepository.save(chat);
+        return chatId;
+    }
+
+    private void run(String name, int rowsPerOp, TimedOperation operation) {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run();
+        }
+        long totalNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            totalNanos += operation.run();
+        }
+        double seconds = totalNanos / 1_000_000_000.0;
+        System.out.printf("%s: %.1f ms/op, %.0f rows/sec%n",
+                name, seconds * 1000 / ITERATIONS, rowsPerOp * ITERATIONS / seconds);
+    }
+
+    @FunctionalInterface
+    private interface TimedOperation {
+        long run();
+    }
+}
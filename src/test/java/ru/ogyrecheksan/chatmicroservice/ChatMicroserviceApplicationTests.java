@@ -2,8 +2,13 @@ package ru.ogyrecheksan.chatmicroservice;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
 
 @SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:testdb",
+        "auth.service.url=http://localhost:5252"
+})
 class ChatMicroserviceApplicationTests {
 
     @Test
@@ -0,0 +1,122 @@
+package ru.ogyrecheksan.chatmicroservice.Integration;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import ru.ogyrecheksan.chatmicroservice.dto.Request.CreateChatRequest;
+import ru.ogyrecheksan.chatmicroservice.dto.Request.SendMessageRequest;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.ChatResponse;
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
+import ru.ogyrecheksan.chatmicroservice.service.ChatService;
+import ru.ogyrecheksan.chatmicroservice.service.MessageService;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Регрессионный тест на число SQL-запросов при построении списка чатов:
+ * оно не должно зависеть от количества чатов и участников.
+ */
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:chatlist",
+        "auth.service.url=http://localhost:5252",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        // фоновый outbox-relay не должен попадать в счетчики запросов
+        "chat.outbox.parallelism=0"
+})
+class ChatListQueryCountTest {
+
+    private static final long MAX_STATEMENTS = 2;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    void getUserChats_ShouldUseConstantNumberOfStatements() {
+        UUID userId = UUID.randomUUID();
+
+        assertStatementCountForChats(userId, 3);
+        assertStatementCountForChats(userId, 25);
+    }
+
+    @Test
+    void getUserChats_ShouldReturnPerUserUnreadCounters() {
+        UUID ownerId = UUID.randomUUID();
+        UUID memberId = UUID.randomUUID();
+        CreateChatRequest request = new CreateChatRequest();
+        request.setName("unread");
+        request.setType(ChatType.GROUP);
+        request.setParticipantIds(List.of(memberId));
+        Long chatId = chatService.createGroupChat(request, ownerId, null).getId();
+
+        sendMessage(chatId, ownerId, "one");
+        sendMessage(chatId, ownerId, "two");
+
+        assertEquals(2, chatService.getUserChats(memberId, null).get(0).getUnreadCount());
+        assertEquals(0, chatService.getUserChats(ownerId, null).get(0).getUnreadCount());
+
+        messageService.markMessagesAsRead(chatId, memberId);
+        sendMessage(chatId, memberId, "three");
+
+        assertEquals(0, chatService.getUserChats(memberId, null).get(0).getUnreadCount());
+        assertEquals(1, chatService.getUserChats(ownerId, null).get(0).getUnreadCount());
+    }
+
+    private void assertStatementCountForChats(UUID userId, int totalChats) {
+        int existing = chatService.getUserChats(userId, null).size();
+        for (int i = existing; i < totalChats; i++) {
+            createChatWithMessage(userId, "chat-" + i);
+        }
+
+        statistics.clear();
+        List<ChatResponse> chats = chatService.getUserChats(userId, null);
+        long statements = statistics.getPrepareStatementCount();
+
+        assertEquals(totalChats, chats.size());
+        assertTrue(statements <= MAX_STATEMENTS,
+                "Chat list for " + totalChats + " chats used " + statements + " statements");
+        ChatResponse chat = chats.get(0);
+        assertEquals("chat-" + (totalChats - 1), chat.getName()); // сортировка по последней активности
+        assertEquals(4, chat.getParticipants().size());
+        assertNotNull(chat.getLastMessage());
+        assertEquals("hello " + chat.getName(), chat.getLastMessage().getContent());
+        assertEquals(0, chat.getUnreadCount());
+    }
+
+    private void createChatWithMessage(UUID ownerId, String name) {
+        CreateChatRequest request = new CreateChatRequest();
+        request.setName(name);
+        request.setType(ChatType.GROUP);
+        request.setParticipantIds(List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()));
+        ChatResponse chat = chatService.createGroupChat(request, ownerId, null);
+        sendMessage(chat.getId(), ownerId, "hello " + name);
+    }
+
+    private void sendMessage(Long chatId, UUID senderId, String content) {
+        SendMessageRequest message = new SendMessageRequest();
+        message.setChatId(chatId);
+        message.setContent(content);
+        messageService.sendMessage(message, senderId, null);
+    }
+}
@@ -0,0 +1,175 @@
+package ru.ogyrecheksan.chatmicroservice.Integration;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import ru.ogyrecheksan.chatmicroservice.ChatMicroserviceApplication;
+import ru.ogyrecheksan.chatmicroservice.cluster.EventPartitioner;
+import ru.ogyrecheksan.chatmicroservice.cluster.PartitionSubscriptionManager;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.model.Chat;
+import ru.ogyrecheksan.chatmicroservice.model.ChatParticipant;
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatRole;
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatRepository;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Два узла в cluster-режиме с in-memory шиной: сообщение, опубликованное через WebSocketService
+ * на узле A, доходит до подписчика, подключенного к узлу B; в партицию чата вступает только узел B,
+ * а узел A видит подписчика онлайн через ClusterPresence.
+ */
+class ClusterBrokerRelayTest {
+
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+
+    @BeforeAll
+    static void startNodes() {
+        nodeA = startNode("a");
+        nodeB = startNode("b");
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        if (nodeA != null) {
+            nodeA.close();
+        }
+        if (nodeB != null) {
+            nodeB.close();
+        }
+    }
+
+    @Test
+    void messagePublishedOnNodeA_ShouldReachSubscriberOnNodeB() throws Exception {
+        UUID userId = UUID.randomUUID();
+        Long chatId = createChatOnNodeB(userId);
+
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient());
+        client.setMessageConverter(new MappingJackson2MessageConverter());
+        int portB = ((WebServerApplicationContext) nodeB).getWebServer().getPort();
+        // JWT в STOMP CONNECT, а не в handshake
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + token(userId));
+        StompSession session = client
+                .connectAsync("ws://localhost:" + portB + "/ws-chat/websocket", new WebSocketHttpHeaders(), connectHeaders,
+                        new StompSessionHandlerAdapter() {
+                        })
+                .get(5, TimeUnit.SECONDS);
+
+        BlockingQueue<Map<?, ?>> received = new LinkedBlockingQueue<>();
+        session.subscribe("/topic/chat/" + chatId, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                // USER_ONLINE о самом подписчике тоже приходит в топик чата
+                if ("MESSAGE".equals(((Map<?, ?>) payload).get("type"))) {
+                    received.add((Map<?, ?>) payload);
+                }
+            }
+        });
+
+        MessageResponse message = new MessageResponse();
+        message.setId("7");
+        message.setContent("from node A");
+        WebSocketService webSocketServiceA = nodeA.getBean(WebSocketService.class);
+
+        // SUBSCRIBE обрабатывается асинхронно – публикуем, пока подписка на B не начнет получать
+        Map<?, ?> frame = null;
+        for (int attempt = 0; attempt < 50 && frame == null; attempt++) {
+            webSocketServiceA.sendMessageToChat(chatId, message);
+            frame = received.poll(100, TimeUnit.MILLISECONDS);
+        }
+
+        assertNotNull(frame, "node B subscriber did not receive the message");
+        assertEquals("from node A", ((Map<?, ?>) frame.get("payload")).get("content"));
+
+        int partition = nodeB.getBean(EventPartitioner.class).forChat(chatId);
+        assertTrue(nodeB.getBean(PartitionSubscriptionManager.class).isJoined(partition));
+        assertFalse(nodeA.getBean(PartitionSubscriptionManager.class).isJoined(partition));
+
+        // присутствие приходит на A через шину асинхронно
+        WebSocketSubscriptionRegistry registryA = nodeA.getBean(WebSocketSubscriptionRegistry.class);
+        assertTrue(awaitPresence(() -> registryA.isOnline(userId) && registryA.getOnlineUsers(chatId).contains(userId)),
+                "node A does not see the node B subscriber online");
+
+        session.disconnect();
+        assertTrue(awaitPresence(() -> !registryA.isOnline(userId) && registryA.getOnlineUsers(chatId).isEmpty()),
+                "node A still sees the disconnected subscriber online");
+    }
+
+    private static boolean awaitPresence(BooleanSupplier condition) throws InterruptedException {
+        for (int attempt = 0; attempt < 50; attempt++) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    private static Long createChatOnNodeB(UUID userId) {
+        Chat chat = new Chat();
+        chat.setName("cluster");
+        chat.setType(ChatType.GROUP);
+        chat.setCreatedBy(userId);
+        chat = nodeB.getBean(ChatRepository.class).save(chat);
+
+        ChatParticipant participant = new ChatParticipant();
+        participant.setChat(chat);
+        participant.setUserId(userId);
+        participant.setRole(ChatRole.OWNER);
+        nodeB.getBean(ChatParticipantRepository.class).save(participant);
+        return chat.getId();
+    }
+
+    private static String token(UUID userId) {
+        String secret = nodeB.getEnvironment().getProperty("auth.jwt.secret");
+        return Jwts.builder()
+                .claim("userId", userId.toString())
+                .signWith(Keys.hmacShaKeyFor(secret.getBytes()))
+                .compact();
+    }
+
+    private static ConfigurableApplicationContext startNode(String name) {
+        // аргументы командной строки – чтобы перекрыть application.properties
+        return new SpringApplicationBuilder(ChatMicroserviceApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:cluster-" + name,
+                "--spring.jpa.show-sql=false",
+                "--auth.service.url=http://localhost:5252",
+                "--chat.broker.mode=cluster",
+                "--chat.broker.transport=in-memory",
+                "--chat.broker.cluster-name=relay-test",
+                "--chat.broker.node-id=node-" + name);
+    }
+}
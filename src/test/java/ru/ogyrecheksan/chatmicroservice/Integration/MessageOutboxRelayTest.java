@@ -0,0 +1,156 @@
+package ru.ogyrecheksan.chatmicroservice.Integration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.model.MessageOutboxDeadLetter;
+import ru.ogyrecheksan.chatmicroservice.repository.MessageOutboxDeadLetterRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.MessageOutboxRepository;
+import ru.ogyrecheksan.chatmicroservice.service.MessageOutboxRelay;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Outbox: рассылка только после коммита, откат не виден клиентам, упавшая рассылка повторяется.
+ */
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:outbox",
+        "auth.service.url=http://localhost:5252",
+        "chat.outbox.poll-interval-ms=50",
+        "chat.outbox.retry-backoff-ms=50"
+})
+class MessageOutboxRelayTest {
+
+    @Autowired
+    private MessageOutboxRelay outboxRelay;
+
+    @Autowired
+    private MessageOutboxRepository outboxRepository;
+
+    @Autowired
+    private MessageOutboxDeadLetterRepository deadLetterRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @MockBean
+    private WebSocketService webSocketService;
+
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        outboxRepository.deleteAll();
+        deadLetterRepository.deleteAll();
+    }
+
+    @Test
+    void committedMessage_ShouldBeDeliveredAndRemovedFromOutbox() throws InterruptedException {
+        MessageResponse message = message("1");
+
+        transactionTemplate.executeWithoutResult(status -> outboxRelay.append(1L, UUID.randomUUID(), message));
+
+        verify(webSocketService, timeout(2000)).sendMessageToChat(eq(1L),
+                argThat(sent -> "1".equals(sent.getId()) && "Hello".equals(sent.getContent())));
+        awaitEmptyOutbox();
+        assertEquals(0, meterRegistry.get("chat.outbox.pending").gauge().value());
+    }
+
+    @Test
+    void rolledBackMessage_ShouldNeverBeDelivered() throws InterruptedException {
+        transactionTemplate.executeWithoutResult(status -> {
+            outboxRelay.append(2L, UUID.randomUUID(), message("2"));
+            status.setRollbackOnly();
+        });
+
+        Thread.sleep(300);
+        verify(webSocketService, never()).sendMessageToChat(eq(2L), any());
+        assertEquals(0, outboxRepository.count());
+    }
+
+    @Test
+    void failedDelivery_ShouldBeRetried() throws InterruptedException {
+        doThrow(new IllegalStateException("broker down"))
+                .doNothing()
+                .when(webSocketService).sendMessageToChat(eq(3L), any());
+
+        transactionTemplate.executeWithoutResult(status -> outboxRelay.append(3L, UUID.randomUUID(), message("3")));
+
+        verify(webSocketService, timeout(2000).times(2)).sendMessageToChat(eq(3L), any());
+        awaitEmptyOutbox();
+    }
+
+    @Test
+    void failedDelivery_ShouldHoldBackLaterMessagesOfSameChat() throws InterruptedException {
+        doThrow(new IllegalStateException("broker down"))
+                .doNothing()
+                .when(webSocketService).sendMessageToChat(eq(4L), argThat(sent -> "41".equals(sent.getId())));
+
+        UUID senderId = UUID.randomUUID();
+        transactionTemplate.executeWithoutResult(status -> {
+            outboxRelay.append(4L, senderId, message("41"));
+            outboxRelay.append(4L, senderId, message("42"));
+        });
+
+        verify(webSocketService, timeout(2000)).sendMessageToChat(eq(4L), argThat(sent -> "42".equals(sent.getId())));
+        awaitEmptyOutbox();
+        ArgumentCaptor<MessageResponse> sent = ArgumentCaptor.forClass(MessageResponse.class);
+        verify(webSocketService, atLeastOnce()).sendMessageToChat(eq(4L), sent.capture());
+        // 42 не обгоняет упавшее 41
+        assertEquals(List.of("41", "41", "42"), sent.getAllValues().stream().map(MessageResponse::getId).toList());
+    }
+
+    @Test
+    void exhaustedRetries_ShouldBackOffAndMoveEntryToDeadLetters() throws InterruptedException {
+        doThrow(new IllegalStateException("broker down")).when(webSocketService).sendMessageToChat(eq(5L), any());
+
+        long startedAt = System.currentTimeMillis();
+        transactionTemplate.executeWithoutResult(status -> outboxRelay.append(5L, UUID.randomUUID(), message("5")));
+
+        verify(webSocketService, timeout(5000).times(5)).sendMessageToChat(eq(5L), any());
+        awaitEmptyOutbox();
+        // паузы 50 + 100 + 200 + 400 мс между пятью попытками
+        assertTrue(System.currentTimeMillis() - startedAt >= 750, "retries were not backed off");
+
+        List<MessageOutboxDeadLetter> dead = deadLetterRepository.findAll();
+        assertEquals(1, dead.size());
+        assertEquals(5L, dead.get(0).getMessageId());
+        assertEquals(5, dead.get(0).getAttempts());
+        assertEquals(1, meterRegistry.get("chat.outbox.dead").gauge().value());
+    }
+
+    private MessageResponse message(String id) {
+        MessageResponse message = new MessageResponse();
+        message.setId(id);
+        message.setContent("Hello");
+        return message;
+    }
+
+    private void awaitEmptyOutbox() throws InterruptedException {
+        // без busy-wait: на одном ядре он отнимает процессор у воркеров relay
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outboxRepository.count() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "outbox was not drained");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ru.ogyrecheksan.chatmicroservice.Integration;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ogyrecheksan.chatmicroservice.dto.Request.CreateChatRequest;
+import ru.ogyrecheksan.chatmicroservice.dto.Request.SendMessageRequest;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.model.ChatParticipant;
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.MessageReadStatusRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.MessageRepository;
+import ru.ogyrecheksan.chatmicroservice.service.ChatService;
+import ru.ogyrecheksan.chatmicroservice.service.MessageCursor;
+import ru.ogyrecheksan.chatmicroservice.service.MessageService;
+import ru.ogyrecheksan.chatmicroservice.service.UnreadCountBackfillRunner;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Watermark'и доставки/прочтения: фиксированное число запросов независимо от количества сообщений.
+ */
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:receipts",
+        "auth.service.url=http://localhost:5252",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        // фоновый outbox-relay не должен попадать в счетчики запросов
+        "chat.outbox.parallelism=0",
+        "chat.receipts.per-message-status=true"
+})
+class MessageReceiptsIntegrationTest {
+
+    private static final int MESSAGES = 120;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ChatParticipantRepository participantRepository;
+
+    @Autowired
+    private MessageReadStatusRepository messageReadStatusRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private UnreadCountBackfillRunner unreadCountBackfillRunner;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    void markMessagesAsRead_ShouldAdvanceWatermarkWithConstantStatements() {
+        UUID ownerId = UUID.randomUUID();
+        UUID readerId = UUID.randomUUID();
+        Long chatId = createChat(ownerId, readerId);
+
+        Long lastId = null;
+        for (int i = 0; i < MESSAGES; i++) {
+            lastId = Long.valueOf(sendMessage(chatId, ownerId, "m" + i).getId());
+        }
+
+        statistics.clear();
+        messageService.markMessagesAsRead(chatId, readerId);
+        long statements = statistics.getPrepareStatementCount();
+
+        assertTrue(statements <= 5, "markMessagesAsRead used " + statements + " statements");
+        ChatParticipant reader = participantRepository.findByChatIdAndUserId(chatId, readerId).orElseThrow();
+        assertEquals(lastId, reader.getLastReadMessageId());
+        assertEquals(lastId, reader.getLastDeliveredMessageId());
+        assertEquals(0, reader.getUnreadCount());
+        assertEquals(MESSAGES, messageReadStatusRepository.findStatusesByChatAndUserSince(chatId, readerId, null).size());
+
+        // повторный вызов не двигает watermark и не пишет статусы
+        messageService.markMessagesAsRead(chatId, readerId);
+        assertEquals(MESSAGES, messageReadStatusRepository.findStatusesByChatAndUserSince(chatId, readerId, null).size());
+    }
+
+    @Test
+    void markMessagesAsRead_UpToMessage_ShouldRecountTail() {
+        UUID ownerId = UUID.randomUUID();
+        UUID readerId = UUID.randomUUID();
+        Long chatId = createChat(ownerId, readerId);
+
+        Long firstId = Long.valueOf(sendMessage(chatId, ownerId, "first").getId());
+        sendMessage(chatId, ownerId, "second");
+        sendMessage(chatId, ownerId, "third");
+
+        messageService.markMessagesAsRead(chatId, readerId, firstId);
+
+        ChatParticipant reader = participantRepository.findByChatIdAndUserId(chatId, readerId).orElseThrow();
+        assertEquals(firstId, reader.getLastReadMessageId());
+        assertEquals(2, reader.getUnreadCount());
+    }
+
+    @Test
+    void getChatMessages_ShouldAdvanceDeliveredWatermark() {
+        UUID ownerId = UUID.randomUUID();
+        UUID readerId = UUID.randomUUID();
+        Long chatId = createChat(ownerId, readerId);
+
+        sendMessage(chatId, ownerId, "one");
+        Long lastId = Long.valueOf(sendMessage(chatId, ownerId, "two").getId());
+
+        messageService.getChatMessages(chatId, readerId, MessageCursor.latest(), 50, null);
+
+        ChatParticipant reader = participantRepository.findByChatIdAndUserId(chatId, readerId).orElseThrow();
+        assertEquals(lastId, reader.getLastDeliveredMessageId());
+        assertNull(reader.getLastReadMessageId());
+        assertEquals(2, reader.getUnreadCount());
+    }
+
+    @Test
+    void olderMessageCommittedLater_ShouldNotMoveSenderWatermarksBack() {
+        UUID ownerId = UUID.randomUUID();
+        UUID readerId = UUID.randomUUID();
+        Long chatId = createChat(ownerId, readerId);
+
+        Long firstId = Long.valueOf(sendMessage(chatId, ownerId, "first").getId());
+        Long secondId = Long.valueOf(sendMessage(chatId, ownerId, "second").getId());
+        // транзакция первого сообщения закоммитилась после второго
+        transactionTemplate.executeWithoutResult(status ->
+                participantRepository.advanceUnreadCounters(chatId, ownerId, firstId));
+
+        ChatParticipant owner = participantRepository.findByChatIdAndUserId(chatId, ownerId).orElseThrow();
+        assertEquals(secondId, owner.getLastReadMessageId());
+        assertEquals(secondId, owner.getLastDeliveredMessageId());
+    }
+
+    @Test
+    void olderMessageCommittedAfterRead_ShouldNotCountAsUnread() {
+        UUID ownerId = UUID.randomUUID();
+        UUID readerId = UUID.randomUUID();
+        Long chatId = createChat(ownerId, readerId);
+
+        Long firstId = Long.valueOf(sendMessage(chatId, ownerId, "first").getId());
+        sendMessage(chatId, ownerId, "second");
+        messageService.markMessagesAsRead(chatId, readerId);
+        // +1 первого сообщения пришел уже после прочтения чата до второго
+        transactionTemplate.executeWithoutResult(status ->
+                participantRepository.advanceUnreadCounters(chatId, ownerId, firstId));
+
+        assertEquals(0, participantRepository.findByChatIdAndUserId(chatId, readerId).orElseThrow().getUnreadCount());
+    }
+
+    @Test
+    void legacyParticipants_ShouldGetUnreadCountersBackfilled() {
+        UUID ownerId = UUID.randomUUID();
+        UUID readerId = UUID.randomUUID();
+        Long chatId = createChat(ownerId, readerId);
+        Long firstId = Long.valueOf(sendMessage(chatId, ownerId, "first").getId());
+        sendMessage(chatId, ownerId, "second");
+        sendMessage(chatId, ownerId, "third");
+
+        // строка до появления счетчика: первое сообщение прочитано по старому read_at, watermark'а нет
+        transactionTemplate.executeWithoutResult(status -> {
+            ChatParticipant reader = participantRepository.findByChatIdAndUserId(chatId, readerId).orElseThrow();
+            reader.setUnreadCount(0);
+            reader.setLastReadMessageId(null);
+            messageRepository.findById(firstId).orElseThrow().setReadAt(LocalDateTime.now());
+        });
+
+        unreadCountBackfillRunner.run(null);
+        unreadCountBackfillRunner.run(null);
+
+        ChatParticipant reader = participantRepository.findByChatIdAndUserId(chatId, readerId).orElseThrow();
+        assertEquals(2, reader.getUnreadCount());
+        assertEquals(firstId, reader.getLastReadMessageId());
+        ChatParticipant owner = participantRepository.findByChatIdAndUserId(chatId, ownerId).orElseThrow();
+        assertEquals(0, owner.getUnreadCount());
+    }
+
+    private Long createChat(UUID ownerId, UUID memberId) {
+        CreateChatRequest request = new CreateChatRequest();
+        request.setName("receipts");
+        request.setType(ChatType.GROUP);
+        request.setParticipantIds(List.of(memberId));
+        return chatService.createGroupChat(request, ownerId, null).getId();
+    }
+
+    private MessageResponse sendMessage(Long chatId, UUID senderId, String content) {
+        SendMessageRequest message = new SendMessageRequest();
+        message.setChatId(chatId);
+        message.setContent(content);
+        return messageService.sendMessage(message, senderId, null);
+    }
+}
@@ -0,0 +1,239 @@
+package ru.ogyrecheksan.chatmicroservice.Integration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import ru.ogyrecheksan.chatmicroservice.config.UserServiceStub;
+import ru.ogyrecheksan.chatmicroservice.dto.Request.CreateChatRequest;
+import ru.ogyrecheksan.chatmicroservice.dto.Request.SendMessageRequest;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.ChatResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
+import ru.ogyrecheksan.chatmicroservice.service.ChatService;
+import ru.ogyrecheksan.chatmicroservice.service.MessageService;
+import ru.ogyrecheksan.chatmicroservice.service.UserProfileService;
+import ru.ogyrecheksan.chatmicroservice.service.UserServiceClient;
+import ru.ogyrecheksan.chatmicroservice.service.UserServiceGuard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Обогащение ответов именами и аватарами через заглушку user-service (UserServiceStub):
+ * один batch-запрос на ответ, повторные ответы – из кэша, параллельные промахи по одному id – один запрос,
+ * при отказе user-service – последние известные профили. Batch-запросы идут с сервисным токеном,
+ * без него – с токеном каждого вызывающего.
+ */
+@SpringBootTest
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:userprofiles",
+        "chat.outbox.parallelism=0",
+        "chat.users.lookup-timeout-ms=1000",
+        "chat.users.service-token=Bearer service"
+})
+class UserProfileEnrichmentTest {
+
+    private static final UserServiceStub USER_SERVICE = startStub();
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private UserProfileService userProfileService;
+
+    @Autowired
+    private UserServiceClient userServiceClient;
+
+    @Autowired
+    private UserServiceGuard userServiceGuard;
+
+    @DynamicPropertySource
+    static void userServiceUrl(DynamicPropertyRegistry registry) {
+        registry.add("auth.service.url", USER_SERVICE::url);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        USER_SERVICE.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        USER_SERVICE.reset();
+    }
+
+    @Test
+    void enrichChats_ShouldResolveDistinctParticipantsWithOneBatchAndCacheThem() {
+        UUID ownerId = UUID.randomUUID();
+        List<UUID> members = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        createGroupChat(ownerId, members);
+        createGroupChat(ownerId, members.subList(0, 2));
+
+        List<ChatResponse> chats = chatService.getUserChats(ownerId, "Bearer token");
+        userProfileService.enrichChats(chats, "Bearer token");
+
+        assertEquals(1, USER_SERVICE.batchRequests().size());
+        assertEquals(4, USER_SERVICE.batchRequests().get(0).size());
+        // общий для всех ждущих запрос не зависит от токена пользователя
+        assertEquals(List.of("Bearer service"), USER_SERVICE.batchAuthorizations());
+        for (ChatResponse chat : chats) {
+            for (ChatResponse.Participant participant : chat.getParticipants()) {
+                assertEquals(UserServiceStub.usernameOf(participant.getUserId()), participant.getUsername());
+                assertNotNull(participant.getAvatarUrl());
+            }
+        }
+
+        userProfileService.enrichChats(chatService.getUserChats(ownerId, "Bearer token"), "Bearer token");
+        assertEquals(1, USER_SERVICE.batchRequests().size(), "second response must be served from the cache");
+    }
+
+    @Test
+    void enrichMessages_ShouldFetchOnlyMissingSendersAndSkipUnknownUsers() {
+        UUID ownerId = UUID.randomUUID();
+        UUID memberId = UUID.randomUUID();
+        UUID deletedId = UUID.randomUUID();
+        USER_SERVICE.addUnknown(deletedId);
+        Long chatId = createGroupChat(ownerId, List.of(memberId, deletedId));
+        userProfileService.getUsers(new HashSet<>(Set.of(ownerId)), null);
+
+        List<MessageResponse> messages = new ArrayList<>();
+        messages.add(sendMessage(chatId, ownerId, "one"));
+        messages.add(sendMessage(chatId, memberId, "two"));
+        messages.add(sendMessage(chatId, deletedId, "three"));
+        messages.add(sendMessage(chatId, memberId, "four"));
+        userProfileService.enrichMessages(messages, null);
+
+        assertEquals(2, USER_SERVICE.batchRequests().size());
+        assertEquals(Set.of(memberId, deletedId), new HashSet<>(USER_SERVICE.batchRequests().get(1)));
+        assertEquals(UserServiceStub.usernameOf(ownerId), messages.get(0).getSenderName());
+        assertEquals(UserServiceStub.usernameOf(memberId), messages.get(3).getSenderName());
+        assertNull(messages.get(2).getSenderName());
+    }
+
+    @Test
+    void concurrentMisses_ShouldFetchEachUserOnce() throws Exception {
+        USER_SERVICE.setDelayMs(300);
+        Set<UUID> userIds = Set.of(UUID.randomUUID(), UUID.randomUUID());
+        int callers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return userProfileService.getUsers(new HashSet<>(userIds), null).size();
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(2, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // каждый id запрошен ровно один раз: параллельный вызов ждет чужой запрос, а не делает свой
+        List<UUID> requested = USER_SERVICE.batchRequests().stream().flatMap(List::stream).toList();
+        assertEquals(userIds, new HashSet<>(requested));
+        assertEquals(userIds.size(), requested.size());
+    }
+
+    @Test
+    void concurrentMissesWithoutServiceToken_ShouldUseEachCallersToken() throws Exception {
+        UserProfileService withoutServiceToken = new UserProfileService(userServiceClient, userServiceGuard,
+                new SimpleMeterRegistry(), 1000, 300, 86400, 1000, "");
+        USER_SERVICE.setDelayMs(300);
+        Set<UUID> userIds = Set.of(UUID.randomUUID(), UUID.randomUUID());
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (String token : List.of("Bearer first", "Bearer second")) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return withoutServiceToken.getUsers(new HashSet<>(userIds), token).size();
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(2, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+            withoutServiceToken.destroy();
+        }
+
+        // чужой токен не используется: каждый промах ушел со своим
+        assertEquals(Set.of("Bearer first", "Bearer second"), new HashSet<>(USER_SERVICE.batchAuthorizations()));
+    }
+
+    @Test
+    void slowUserService_ShouldNotFailResponse() {
+        USER_SERVICE.setDelayMs(1500);
+        ChatResponse chat = new ChatResponse();
+        ChatResponse.Participant participant = new ChatResponse.Participant();
+        participant.setUserId(UUID.randomUUID());
+        chat.setParticipants(List.of(participant));
+
+        userProfileService.enrichChats(List.of(chat), null);
+
+        assertNull(participant.getUsername());
+    }
+
+    @Test
+    void failingUserService_ShouldServeLastKnownProfiles() {
+        UUID knownId = UUID.randomUUID();
+        UUID newId = UUID.randomUUID();
+        userProfileService.getUsers(new HashSet<>(Set.of(knownId)), null);
+        USER_SERVICE.setFailureStatus(503);
+
+        var users = userProfileService.getUsers(new HashSet<>(Set.of(knownId, newId)), null);
+
+        assertEquals(Set.of(knownId), users.keySet());
+        assertEquals(UserServiceStub.usernameOf(knownId), users.get(knownId).getUsername());
+    }
+
+    private Long createGroupChat(UUID ownerId, List<UUID> members) {
+        CreateChatRequest request = new CreateChatRequest();
+        request.setName("profiles");
+        request.setType(ChatType.GROUP);
+        request.setParticipantIds(members);
+        return chatService.createGroupChat(request, ownerId, null).getId();
+    }
+
+    private MessageResponse sendMessage(Long chatId, UUID senderId, String content) {
+        SendMessageRequest request = new SendMessageRequest();
+        request.setChatId(chatId);
+        request.setContent(content);
+        return messageService.sendMessage(request, senderId, null);
+    }
+
+    private static UserServiceStub startStub() {
+        try {
+            return new UserServiceStub();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
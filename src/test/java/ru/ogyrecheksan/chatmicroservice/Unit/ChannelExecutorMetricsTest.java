@@ -0,0 +1,52 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import ru.ogyrecheksan.chatmicroservice.config.ChannelExecutorMetrics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelExecutorMetricsTest {
+
+    @Test
+    void platformExecutor_WhenQueueIsFull_ShouldRejectAndReportMetrics() throws InterruptedException {
+        ChannelExecutorMetrics metrics = new ChannelExecutorMetrics();
+        ThreadPoolTaskExecutor executor = metrics.platformExecutor("inbound", "test-inbound-", 1, 1);
+        executor.initialize();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        metrics.bindTo(registry);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                started.countDown();
+                awaitQuietly(release);
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            executor.execute(() -> { });
+            assertThrows(TaskRejectedException.class, () -> executor.execute(() -> { }));
+
+            assertEquals(1.0, registry.get("chat.websocket.executor.active").tag("channel", "inbound").gauge().value());
+            assertEquals(1.0, registry.get("chat.websocket.executor.queued").tag("channel", "inbound").gauge().value());
+            assertEquals(1.0, registry.get("chat.websocket.executor.rejected").tag("channel", "inbound")
+                    .functionCounter().count());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.service.ChatMembershipCache;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatMembershipCacheTest {
+
+    @Mock
+    private ChatParticipantRepository participantRepository;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ChatMembershipCache membershipCache;
+
+    @BeforeEach
+    void setUp() {
+        membershipCache = new ChatMembershipCache(participantRepository, event -> {
+        }, meterRegistry, 100, 300);
+    }
+
+    @Test
+    void isMember_ShouldHitDatabaseOnlyOnce() {
+        UUID userId = UUID.randomUUID();
+        when(participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(1L, userId)).thenReturn(true);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(membershipCache.isMember(1L, userId)); // например, typing на каждое нажатие
+        }
+
+        verify(participantRepository, times(1)).existsByChatIdAndUserIdAndLeftAtIsNull(1L, userId);
+        assertEquals(9, meterRegistry.get("cache.gets").tag("cache", "chat.membership")
+                .tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void invalidate_ShouldReloadMembership() {
+        UUID userId = UUID.randomUUID();
+        when(participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(1L, userId)).thenReturn(true, false);
+
+        assertTrue(membershipCache.isMember(1L, userId));
+        membershipCache.invalidate(1L, userId); // пользователя удалили из чата
+
+        assertFalse(membershipCache.isMember(1L, userId));
+        verify(participantRepository, times(2)).existsByChatIdAndUserIdAndLeftAtIsNull(1L, userId);
+    }
+}
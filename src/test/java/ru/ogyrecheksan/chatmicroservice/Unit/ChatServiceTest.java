@@ -14,12 +14,16 @@ import ru.ogyrecheksan.chatmicroservice.model.enums.ChatRole;
 import ru.ogyrecheksan.chatmicroservice.model.enums.ChatType;
 import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
 import ru.ogyrecheksan.chatmicroservice.repository.ChatRepository;
+import ru.ogyrecheksan.chatmicroservice.service.ChatListQueryService;
+import ru.ogyrecheksan.chatmicroservice.service.ChatMembershipCache;
 import ru.ogyrecheksan.chatmicroservice.service.ChatService;
-import ru.ogyrecheksan.chatmicroservice.service.MessageService;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
 
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -36,7 +40,16 @@ class ChatServiceTest {
     private ChatParticipantRepository participantRepository;
 
     @Mock
-    private MessageService messageService;
+    private WebSocketService webSocketService;
+
+    @Mock
+    private ChatListQueryService chatListQueryService;
+
+    @Mock
+    private ChatMembershipCache membershipCache;
+
+    @Mock
+    private WebSocketSubscriptionRegistry subscriptionRegistry;
 
     @InjectMocks
     private ChatService chatService;
@@ -110,8 +123,6 @@ class ChatServiceTest {
             chat.setId(1L);
             return chat;
         });
-        when(participantRepository.findActiveParticipantIds(anyLong())).thenReturn(Arrays.asList(testUserId1, testUserId2));
-        when(participantRepository.findByChatIdAndUserId(anyLong(), any(UUID.class))).thenReturn(Optional.of(createParticipant()));
 
         // Act
         ChatResponse response = chatService.createGroupChat(request, testUserId1, testAuthToken);
@@ -120,17 +131,20 @@ class ChatServiceTest {
         assertNotNull(response);
         assertEquals("Test Group", response.getName());
         assertEquals("group", response.getType());
+        assertEquals(2, response.getParticipants().size());
         verify(chatRepository, times(1)).save(any(Chat.class));
-        verify(participantRepository, times(2)).save(any(ChatParticipant.class)); // creator + 1 participant
+        verify(participantRepository, times(1)).saveAll(argThat(participants ->
+                ((List<ChatParticipant>) participants).size() == 2)); // creator + 1 participant, одним batch
+        verify(participantRepository, never()).findByChatIdAndUserId(anyLong(), any(UUID.class));
+        verify(membershipCache).invalidate(1L, Set.of(testUserId1, testUserId2));
     }
 
     @Test
     void testGetUserChats_Success() {
         // Arrange
-        List<Chat> chats = Arrays.asList(testChat);
-        when(chatRepository.findUserChats(testUserId1)).thenReturn(chats);
-        when(participantRepository.findActiveParticipantIds(anyLong())).thenReturn(Arrays.asList(testUserId1));
-        when(participantRepository.findByChatIdAndUserId(anyLong(), any(UUID.class))).thenReturn(Optional.of(createParticipant()));
+        ChatResponse chatResponse = new ChatResponse();
+        chatResponse.setId(1L);
+        when(chatListQueryService.getUserChats(testUserId1)).thenReturn(List.of(chatResponse));
 
         // Act
         List<ChatResponse> responses = chatService.getUserChats(testUserId1, testAuthToken);
@@ -138,14 +152,15 @@ class ChatServiceTest {
         // Assert
         assertNotNull(responses);
         assertEquals(1, responses.size());
-        verify(chatRepository, times(1)).findUserChats(testUserId1);
+        verify(chatListQueryService, times(1)).getUserChats(testUserId1);
+        verify(participantRepository, never()).findByChatIdAndUserId(anyLong(), any(UUID.class));
     }
 
     @Test
     void testGetChat_Success() {
         // Arrange
         when(chatRepository.findById(1L)).thenReturn(Optional.of(testChat));
-        when(participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(1L, testUserId1)).thenReturn(true);
+        when(membershipCache.isMember(1L, testUserId1)).thenReturn(true);
         when(participantRepository.findActiveParticipantIds(anyLong())).thenReturn(Arrays.asList(testUserId1));
         when(participantRepository.findByChatIdAndUserId(anyLong(), any(UUID.class))).thenReturn(Optional.of(createParticipant()));
 
@@ -173,7 +188,7 @@ class ChatServiceTest {
     void testGetChat_AccessDenied_ShouldThrowException() {
         // Arrange
         when(chatRepository.findById(1L)).thenReturn(Optional.of(testChat));
-        when(participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(1L, testUserId1)).thenReturn(false);
+        when(membershipCache.isMember(1L, testUserId1)).thenReturn(false);
 
         // Act & Assert
         assertThrows(RuntimeException.class, () -> {
@@ -0,0 +1,151 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.ogyrecheksan.chatmicroservice.cluster.ChatEventBus;
+import ru.ogyrecheksan.chatmicroservice.cluster.ClusterEvent;
+import ru.ogyrecheksan.chatmicroservice.cluster.ClusterPresence;
+import ru.ogyrecheksan.chatmicroservice.cluster.InMemoryChatEventBus;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterPresenceTest {
+
+    private final WebSocketSubscriptionRegistry registryA = new WebSocketSubscriptionRegistry();
+    private final WebSocketSubscriptionRegistry registryB = new WebSocketSubscriptionRegistry();
+    private final UUID userId = UUID.randomUUID();
+
+    private String cluster;
+    private InMemoryChatEventBus busA;
+    private InMemoryChatEventBus busB;
+    private ClusterPresence presenceA;
+    private ClusterPresence presenceB;
+
+    @BeforeEach
+    void setUp() {
+        cluster = "presence-test-" + UUID.randomUUID();
+        busA = bus();
+        busB = bus();
+        presenceA = new ClusterPresence("node-a", busA, registryA, 60_000);
+        presenceB = new ClusterPresence("node-b", busB, registryB, 60_000);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        presenceA.destroy();
+        presenceB.destroy();
+        busA.destroy();
+        busB.destroy();
+    }
+
+    @Test
+    void sessionsOnNodeB_ShouldBeSeenOnNodeA() {
+        registryB.registerSession("s1", userId);
+        registryB.subscribeToChat("s1", "sub-1", 1L, userId);
+
+        await(() -> registryA.isOnline(userId) && registryA.getOnlineUsers(1L).equals(Set.of(userId)));
+        assertTrue(registryA.getOnlineUsers(2L).isEmpty());
+
+        registryB.unsubscribe("s1", "sub-1");
+        await(() -> registryA.getOnlineUsers(1L).isEmpty());
+        assertTrue(registryA.isOnline(userId));           // сессия на B еще открыта
+
+        registryB.unregisterSession("s1");
+        await(() -> !registryA.isOnline(userId));
+    }
+
+    @Test
+    void nodeJoiningLater_ShouldRequestSnapshots() throws InterruptedException {
+        registryA.registerSession("s1", userId);
+        registryA.subscribeToChat("s1", "sub-1", 1L, userId);
+
+        // переходы узла A случились до старта узла C – он узнает о них из снимка, запрошенного при старте
+        WebSocketSubscriptionRegistry registryC = new WebSocketSubscriptionRegistry();
+        InMemoryChatEventBus busC = bus();
+        ClusterPresence presenceC = new ClusterPresence("node-c", busC, registryC, 60_000);
+        try {
+            await(() -> registryC.isOnline(userId) && registryC.getOnlineUsers(1L).equals(Set.of(userId)));
+        } finally {
+            presenceC.destroy();
+            busC.destroy();
+        }
+    }
+
+    @Test
+    void versionGap_ShouldBeRepairedBySnapshotOnRequest() {
+        // узел X – "вручную" через свою шину: видно, что публикует A
+        InMemoryChatEventBus busX = bus();
+        List<ClusterEvent> fromA = new CopyOnWriteArrayList<>();
+        busX.subscribe(event -> {
+            if ("node-a".equals(event.originNodeId())) {
+                fromA.add(event);
+            }
+        });
+        try {
+            // heartbeat без известного состояния – A запрашивает снимок у X
+            busX.publish(ChatEventBus.CONTROL_PARTITION, ClusterEvent.presenceHeartbeat("node-x", 5));
+            await(() -> syncRequests(fromA) == 1);
+
+            busX.publish(ChatEventBus.CONTROL_PARTITION,
+                    ClusterEvent.presenceSnapshot("node-x", 5, List.of(userId), Map.of(1L, List.of(userId))));
+            assertTrue(registryA.isOnline(userId));
+            assertEquals(Set.of(userId), registryA.getOnlineUsers(1L));
+
+            // переход 6 потерян: 7 не применяется, A снова просит снимок
+            busX.publish(ChatEventBus.CONTROL_PARTITION, ClusterEvent.presenceChanged("node-x", 7, 1L, userId, false));
+            assertEquals(Set.of(userId), registryA.getOnlineUsers(1L));
+            await(() -> syncRequests(fromA) == 2);
+
+            // heartbeat с известным номером снимка не запрашивает
+            busX.publish(ChatEventBus.CONTROL_PARTITION,
+                    ClusterEvent.presenceSnapshot("node-x", 7, List.of(userId), Map.of()));
+            busX.publish(ChatEventBus.CONTROL_PARTITION, ClusterEvent.presenceHeartbeat("node-x", 7));
+            assertTrue(registryA.getOnlineUsers(1L).isEmpty());
+            assertEquals(2, syncRequests(fromA));
+        } finally {
+            busX.destroy();
+        }
+    }
+
+    @Test
+    void stoppedNode_ShouldPublishEmptySnapshot() throws InterruptedException {
+        registryB.registerSession("s1", userId);
+        registryB.subscribeToChat("s1", "sub-1", 1L, userId);
+        await(() -> registryA.isOnline(userId));
+
+        presenceB.destroy();
+
+        await(() -> !registryA.isOnline(userId) && registryA.getOnlineUsers(1L).isEmpty());
+    }
+
+    // запросы снимка, адресованные X (широковещательный запрос A при старте может прийти позже подписки X)
+    private static long syncRequests(List<ClusterEvent> events) {
+        return events.stream()
+                .filter(event -> event.kind() == ClusterEvent.Kind.PRESENCE_SYNC_REQUEST)
+                .filter(event -> "node-x".equals(event.targetNodeId()))
+                .count();
+    }
+
+    private InMemoryChatEventBus bus() {
+        InMemoryChatEventBus bus = new InMemoryChatEventBus(cluster);
+        bus.joinPartition(ChatEventBus.CONTROL_PARTITION);
+        return bus;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "presence was not propagated");
+            Thread.onSpinWait();
+        }
+    }
+}
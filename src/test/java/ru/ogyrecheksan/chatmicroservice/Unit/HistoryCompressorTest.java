@@ -0,0 +1,90 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.WebSocketMessage;
+import ru.ogyrecheksan.chatmicroservice.service.HistoryCompressor;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryCompressorTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void compress_AboveThreshold_ShouldReturnGzippedJsonAndRecordMetrics() throws Exception {
+        HistoryCompressor compressor = new HistoryCompressor(objectMapper, meterRegistry, 1024);
+        WebSocketService.HistoryPayload payload = history(100);
+
+        String compressed = compressor.compress(payload).compressed();
+
+        assertNotNull(compressed);
+        byte[] json;
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(compressed)))) {
+            json = gzip.readAllBytes();
+        }
+        assertEquals(objectMapper.writeValueAsString(payload), new String(json, StandardCharsets.UTF_8));
+        assertEquals(1, meterRegistry.get("chat.websocket.history.compression.cpu").timer().count());
+        // повторяющийся JSON сжимается в разы даже с учетом base64
+        assertTrue(meterRegistry.get("chat.websocket.history.compression.ratio").summary().max() > 3);
+    }
+
+    @Test
+    void compress_BelowThresholdOrDisabled_ShouldReturnOnlyJson() throws Exception {
+        WebSocketService.HistoryPayload payload = history(10);
+        HistoryCompressor.Encoded belowThreshold = new HistoryCompressor(objectMapper, meterRegistry, 1024 * 1024)
+                .compress(payload);
+        assertNull(belowThreshold.compressed());
+        assertArrayEquals(objectMapper.writeValueAsBytes(payload), belowThreshold.json());
+        assertNull(new HistoryCompressor(objectMapper, meterRegistry, 0).compress(history(100)).compressed());
+
+        // размер учитывается и без сжатия – по нему подбирается порог
+        assertEquals(1, meterRegistry.get("chat.websocket.history.payload.size").summary().count());
+        assertEquals(0, meterRegistry.get("chat.websocket.history.compression.cpu").timer().count());
+    }
+
+    @Test
+    void uncompressedJson_EmbeddedAsRawValue_ShouldMatchRegularFrame() throws Exception {
+        WebSocketService.HistoryPayload payload = history(10);
+        byte[] json = new HistoryCompressor(objectMapper, meterRegistry, 1024 * 1024).compress(payload).json();
+
+        WebSocketMessage frame = new WebSocketMessage();
+        frame.setType("HISTORY");
+        frame.setChatId(1L);
+        frame.setTimestamp(1L);
+        frame.setPayload(payload);
+        String regular = objectMapper.writeValueAsString(frame);
+        frame.setPayload(new RawValue(new String(json, StandardCharsets.UTF_8)));
+
+        assertEquals(regular, objectMapper.writeValueAsString(frame));
+    }
+
+    private static WebSocketService.HistoryPayload history(int size) {
+        List<MessageResponse> messages = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            MessageResponse message = new MessageResponse();
+            message.setId(String.valueOf(i));
+            message.setConversationId("1");
+            message.setSenderId("00000000-0000-0000-0000-00000000000" + (i % 3));
+            message.setContent("сообщение " + i);
+            messages.add(message);
+        }
+        WebSocketService.HistoryPayload payload = new WebSocketService.HistoryPayload();
+        payload.setChatId(1L);
+        payload.setLimit(size);
+        payload.setMessages(messages);
+        return payload;
+    }
+}
@@ -0,0 +1,72 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import ru.ogyrecheksan.chatmicroservice.config.JwtTokenValidator;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtTokenValidatorTest {
+
+    private static final String SECRET = "Peanut_Butter_Jelly_The_Long_Way_Secret_Key_123";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JwtTokenValidator validator = new JwtTokenValidator(SECRET, meterRegistry, 100, 600);
+
+    @Test
+    void authenticate_RepeatedToken_ShouldVerifyOnce() {
+        UUID userId = UUID.randomUUID();
+        String token = token(userId, new Date(System.currentTimeMillis() + 60_000));
+
+        for (int i = 0; i < 5; i++) {
+            UsernamePasswordAuthenticationToken auth = validator.authenticate("Bearer " + token);
+            assertNotNull(auth);
+            assertEquals(userId.toString(), auth.getName());
+            assertTrue(auth.isAuthenticated());
+        }
+
+        assertEquals(1, cacheGets("miss"));
+        assertEquals(4, cacheGets("hit"));
+    }
+
+    @Test
+    void authenticate_ShouldNotOutliveTokenExpiration() throws Exception {
+        String token = token(UUID.randomUUID(), new Date(System.currentTimeMillis() + 1_500));
+        assertNotNull(validator.authenticate("Bearer " + token));
+
+        Thread.sleep(2_000);
+
+        assertNull(validator.authenticate("Bearer " + token));
+    }
+
+    @Test
+    void authenticate_InvalidToken_ShouldNotBeCached() {
+        String token = token(UUID.randomUUID(), null);
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+
+        assertNull(validator.authenticate("Bearer " + tampered));
+        assertNull(validator.authenticate("Bearer " + tampered));
+        assertNull(validator.authenticate(token));
+
+        assertEquals(2, cacheGets("miss"));
+        assertEquals(0, meterRegistry.get("cache.size").tag("cache", "chat.jwt").gauge().value());
+    }
+
+    private double cacheGets(String result) {
+        return meterRegistry.get("cache.gets").tag("cache", "chat.jwt").tag("result", result).functionCounter().count();
+    }
+
+    private static String token(UUID userId, Date expiration) {
+        return Jwts.builder()
+                .claim("userId", userId.toString())
+                .expiration(expiration)
+                .signWith(Keys.hmacShaKeyFor(SECRET.getBytes()))
+                .compact();
+    }
+}
@@ -0,0 +1,107 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.service.MessageFanoutService;
+import ru.ogyrecheksan.chatmicroservice.service.MessageSentEvent;
+import ru.ogyrecheksan.chatmicroservice.service.ReceiptEvent;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MessageFanoutServiceTest {
+
+    @Mock
+    private WebSocketService webSocketService;
+
+    @Mock
+    private WebSocketSubscriptionRegistry subscriptionRegistry;
+
+    @Mock
+    private ChatParticipantRepository participantRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Test
+    void deliver_ShouldNotifyOnlyOnlineRecipients() {
+        MessageFanoutService fanoutService = fanoutService();
+        MessageSentEvent event = event();
+        UUID online = event.participantIds().get(0);
+        when(subscriptionRegistry.isOnline(any())).thenAnswer(inv -> online.equals(inv.getArgument(0)));
+
+        List<UUID> delivered = fanoutService.deliver(event);
+
+        verify(webSocketService).sendMessageToChat(1L, event.message());
+        // офлайн-участнику уведомление не шлется и доставка не засчитывается
+        verify(webSocketService).sendNewMessageNotifications(1L, event.senderId(), event.message(), List.of(online));
+        assertEquals(List.of(online), delivered);
+    }
+
+    @Test
+    void deliver_WithoutOnlineRecipients_ShouldSkipNotifications() {
+        MessageFanoutService fanoutService = fanoutService();
+        MessageSentEvent event = event();
+        // реестр учитывает все узлы кластера: офлайн – значит, нет сессий нигде
+        when(subscriptionRegistry.isOnline(any())).thenReturn(false);
+
+        List<UUID> delivered = fanoutService.deliver(event);
+
+        verify(webSocketService).sendMessageToChat(1L, event.message());
+        verify(webSocketService, never()).sendNewMessageNotifications(anyLong(), any(), any(), any());
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    void recordDelivered_ShouldPersistWatermarksBeforePublishingReceipts() {
+        MessageFanoutService fanoutService = fanoutService();
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        UUID carol = UUID.randomUUID();
+
+        fanoutService.recordDelivered(1L, Map.of(alice, 12L, bob, 12L, carol, 11L));
+
+        // по одному UPDATE на сообщение, а не на получателя
+        verify(participantRepository).advanceDeliveredWatermarks(eq(1L),
+                argThat(users -> Set.copyOf(users).equals(Set.of(alice, bob))), eq(12L));
+        verify(participantRepository).advanceDeliveredWatermarks(1L, List.of(carol), 11L);
+        verify(eventPublisher).publishEvent(new ReceiptEvent(1L, alice, 12L, false));
+        verify(eventPublisher).publishEvent(new ReceiptEvent(1L, bob, 12L, false));
+        verify(eventPublisher).publishEvent(new ReceiptEvent(1L, carol, 11L, false));
+        verifyNoInteractions(webSocketService);
+    }
+
+    @Test
+    void deliver_WhenBrokerFails_ShouldPropagate() {
+        MessageFanoutService fanoutService = fanoutService();
+        doThrow(new IllegalStateException("broker down")).when(webSocketService).sendMessageToChat(anyLong(), any());
+
+        // запись outbox должна остаться для повтора
+        assertThrows(IllegalStateException.class, () -> fanoutService.deliver(event()));
+    }
+
+    private MessageFanoutService fanoutService() {
+        return new MessageFanoutService(webSocketService, subscriptionRegistry, participantRepository, eventPublisher);
+    }
+
+    private MessageSentEvent event() {
+        MessageResponse message = new MessageResponse();
+        message.setId("10");
+        message.setContent("Hello");
+        return new MessageSentEvent(1L, UUID.randomUUID(), message, List.of(UUID.randomUUID(), UUID.randomUUID()));
+    }
+}
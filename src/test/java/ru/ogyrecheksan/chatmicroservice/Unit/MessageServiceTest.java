@@ -8,13 +8,21 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import ru.ogyrecheksan.chatmicroservice.service.MessageService;
 import ru.ogyrecheksan.chatmicroservice.repository.MessageRepository;
 import ru.ogyrecheksan.chatmicroservice.repository.ChatRepository;
-import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.repository.MessageReadStatusRepository;
+import ru.ogyrecheksan.chatmicroservice.service.MessageCursor;
+import ru.ogyrecheksan.chatmicroservice.service.MessageOutboxRelay;
 import ru.ogyrecheksan.chatmicroservice.dto.Request.SendMessageRequest;
 import ru.ogyrecheksan.chatmicroservice.model.Chat;
 import ru.ogyrecheksan.chatmicroservice.model.Message;
 import ru.ogyrecheksan.chatmicroservice.model.enums.MessageType;
 import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageSliceResponse;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -32,7 +40,16 @@ class MessageServiceTest {
     private ChatRepository chatRepository;
 
     @Mock
-    private WebSocketService webSocketService;
+    private ChatParticipantRepository chatParticipantRepository;
+
+    @Mock
+    private MessageReadStatusRepository messageReadStatusRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private MessageOutboxRelay outboxRelay;
 
     @InjectMocks
     private MessageService messageService;
@@ -54,11 +71,64 @@ class MessageServiceTest {
             return m;
         });
 
-        MessageResponse resp = messageService.sendMessage(req, UUID.randomUUID(), "Bearer token");
+        UUID senderId = UUID.randomUUID();
+        MessageResponse resp = messageService.sendMessage(req, senderId, "Bearer token");
 
         assertNotNull(resp);
         assertEquals("Hello", resp.getContent());
         assertEquals("1", resp.getConversationId());
-        verify(webSocketService).sendMessageToChat(eq(1L), any(MessageResponse.class));
+        // снимок – условным UPDATE, загруженная сущность не меняется
+        verify(chatRepository).advanceLastMessage(eq(1L), eq(10L), eq(senderId), eq("Hello"), any());
+        assertNull(chat.getLastMessageId());
+        // рассылка по WebSocket – только через outbox в транзакции отправки
+        verify(outboxRelay).append(1L, senderId, resp);
+    }
+
+    @Test
+    void getChatMessages_WithCursor_ShouldUseKeysetQueryAndReturnNextCursor() {
+        Chat chat = new Chat();
+        chat.setId(1L);
+        Message m1 = createMessage(chat, 90L);
+        Message m2 = createMessage(chat, 89L);
+
+        when(chatRepository.existsById(1L)).thenReturn(true);
+        when(messageRepository.findByChatIdBefore(eq(1L), eq(91L), any()))
+                .thenReturn(new SliceImpl<>(List.of(m1, m2), PageRequest.of(0, 2), true));
+
+        MessageSliceResponse slice = messageService.getChatMessages(
+                1L, UUID.randomUUID(), MessageCursor.before(91L), 2, null);
+
+        assertEquals(2, slice.getMessages().size());
+        assertTrue(slice.isHasMore());
+        MessageCursor next = MessageCursor.decode(slice.getNextCursor());
+        assertEquals(MessageCursor.Direction.BEFORE, next.getDirection());
+        assertEquals(89L, next.getMessageId());
+        verify(messageRepository, never()).findByChatIdOrderBySentAtDesc(anyLong(), any());
+    }
+
+    @Test
+    void getChatMessages_LastPage_ShouldNotReturnCursor() {
+        Chat chat = new Chat();
+        chat.setId(1L);
+
+        when(chatRepository.existsById(1L)).thenReturn(true);
+        when(messageRepository.findByChatIdAfter(eq(1L), eq(5L), any()))
+                .thenReturn(new SliceImpl<>(List.of(createMessage(chat, 6L)), PageRequest.of(0, 50), false));
+
+        MessageSliceResponse slice = messageService.getChatMessages(
+                1L, UUID.randomUUID(), MessageCursor.after(5L), 50, null);
+
+        assertEquals(1, slice.getMessages().size());
+        assertFalse(slice.isHasMore());
+        assertNull(slice.getNextCursor());
+    }
+
+    private Message createMessage(Chat chat, Long id) {
+        Message message = new Message();
+        message.setId(id);
+        message.setChat(chat);
+        message.setContent("msg-" + id);
+        message.setType(MessageType.TEXT);
+        return message;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.ogyrecheksan.chatmicroservice.cluster.ChatEventBus;
+import ru.ogyrecheksan.chatmicroservice.cluster.ClusterEvent;
+import ru.ogyrecheksan.chatmicroservice.cluster.EventPartitioner;
+import ru.ogyrecheksan.chatmicroservice.cluster.InMemoryChatEventBus;
+import ru.ogyrecheksan.chatmicroservice.cluster.PartitionSubscriptionManager;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionSubscriptionManagerTest {
+
+    private final EventPartitioner partitioner = new EventPartitioner(16);
+    private final WebSocketSubscriptionRegistry registry = new WebSocketSubscriptionRegistry();
+    private final List<ClusterEvent> received = new CopyOnWriteArrayList<>();
+
+    private InMemoryChatEventBus publisherBus;
+    private InMemoryChatEventBus subscriberBus;
+    private PartitionSubscriptionManager manager;
+
+    @BeforeEach
+    void setUp() {
+        String cluster = "partition-test-" + UUID.randomUUID();
+        publisherBus = new InMemoryChatEventBus(cluster);
+        subscriberBus = new InMemoryChatEventBus(cluster);
+        subscriberBus.subscribe(received::add);
+        manager = new PartitionSubscriptionManager(subscriberBus, partitioner, registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        publisherBus.destroy();
+        subscriberBus.destroy();
+    }
+
+    @Test
+    void nodeShouldReceiveOnlyPartitionsOfItsChats() {
+        // партиция пользователя тоже слушается – она не должна совпасть с партицией чата 2
+        UUID userId = new UUID(0, 1);
+        assertNotEquals(partitioner.forChat(2L), partitioner.forUser(userId));
+        registry.subscribeToChat("s1", "sub-1", 1L, userId);
+
+        publisherBus.publish(partitioner.forChat(1L), frame("/topic/chat/1"));
+        publisherBus.publish(partitioner.forChat(2L), frame("/topic/chat/2"));
+
+        assertEquals(1, received.size());
+        assertEquals("/topic/chat/1", received.get(0).destination());
+    }
+
+    @Test
+    void partitionShouldBeLeftWhenLastChatInItIsGone() {
+        // 1 и 17 попадают в одну партицию
+        registry.subscribeToChat("s1", "sub-1", 1L, UUID.randomUUID());
+        registry.subscribeToChat("s2", "sub-2", 17L, UUID.randomUUID());
+        int partition = partitioner.forChat(1L);
+        assertEquals(partition, partitioner.forChat(17L));
+
+        registry.unregisterSession("s1");
+        assertTrue(manager.isJoined(partition));
+
+        registry.unsubscribe("s2", "sub-2");
+        assertFalse(manager.isJoined(partition));
+    }
+
+    @Test
+    void userPartitionShouldFollowUserSessions() {
+        UUID userId = UUID.randomUUID();
+        int partition = partitioner.forUser(userId);
+
+        registry.registerSession("s1", userId);
+        registry.registerSession("s2", userId);
+        registry.unregisterSession("s1");
+        assertTrue(manager.isJoined(partition));
+
+        registry.unregisterSession("s2");
+        assertFalse(manager.isJoined(partition));
+    }
+
+    @Test
+    void controlPartitionShouldAlwaysBeDelivered() {
+        publisherBus.publish(ChatEventBus.CONTROL_PARTITION,
+                ClusterEvent.membershipChanged("node-a", 5L, List.of(UUID.randomUUID())));
+
+        assertEquals(1, received.size());
+        assertEquals(ClusterEvent.Kind.MEMBERSHIP_CHANGED, received.get(0).kind());
+    }
+
+    private ClusterEvent frame(String destination) {
+        return ClusterEvent.brokerFrame("node-a", destination, "application/json", new byte[]{1});
+    }
+}
@@ -0,0 +1,63 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.ogyrecheksan.chatmicroservice.service.ReceiptAggregator;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReceiptAggregatorTest {
+
+    // таймер заведомо не срабатывает в тестах – сбрасываем вручную
+    private static final long NO_TIMER_MS = 60_000;
+
+    @Mock
+    private WebSocketService webSocketService;
+
+    private ReceiptAggregator aggregator;
+
+    @AfterEach
+    void tearDown() {
+        aggregator.destroy();
+    }
+
+    @Test
+    void flush_ShouldPublishOneFramePerChatWithWatermarks() {
+        aggregator = new ReceiptAggregator(webSocketService, NO_TIMER_MS, 100);
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+
+        aggregator.recordDelivered(1L, List.of(alice, bob), 10L);
+        aggregator.recordDelivered(1L, List.of(alice, bob), 11L);
+        aggregator.recordRead(1L, alice, 11L);
+        aggregator.recordDelivered(2L, List.of(bob), 5L);
+        verifyNoInteractions(webSocketService);
+
+        aggregator.flush();
+
+        verify(webSocketService).sendReceipts(1L, Map.of(alice, 11L, bob, 11L), Map.of(alice, 11L));
+        verify(webSocketService).sendReceipts(2L, Map.of(bob, 5L), Map.of());
+        verifyNoMoreInteractions(webSocketService);
+    }
+
+    @Test
+    void recordDelivered_WhenBufferReachesFlushSize_ShouldFlushImmediately() {
+        aggregator = new ReceiptAggregator(webSocketService, NO_TIMER_MS, 2);
+
+        aggregator.recordDelivered(1L, List.of(UUID.randomUUID()), 10L);
+        verifyNoInteractions(webSocketService);
+        aggregator.recordDelivered(1L, List.of(UUID.randomUUID()), 10L);
+
+        verify(webSocketService).sendReceipts(eq(1L), argThat(delivered -> delivered.size() == 2), eq(Map.of()));
+    }
+}
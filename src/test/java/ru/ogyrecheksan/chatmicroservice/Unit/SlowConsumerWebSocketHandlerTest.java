@@ -0,0 +1,169 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import ru.ogyrecheksan.chatmicroservice.config.SlowConsumerWebSocketHandler;
+import ru.ogyrecheksan.chatmicroservice.config.SlowConsumerWebSocketHandler.OverflowPolicy;
+import ru.ogyrecheksan.chatmicroservice.config.WireFormatCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Медленный клиент: первая отправка в сокет зависает, следующие кадры копятся в буфере сессии
+ * (кадр, который уже пишется в сокет, в буфере не учитывается).
+ */
+class SlowConsumerWebSocketHandlerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final CountDownLatch sendStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseSend = new CountDownLatch(1);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private WebSocketSession socket;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        socket = mock(WebSocketSession.class);
+        when(socket.getId()).thenReturn("s1");
+        when(socket.isOpen()).thenReturn(true);
+        when(socket.getAttributes()).thenReturn(new HashMap<>());
+        doAnswer(invocation -> {
+            sent.add(invocation.getArgument(0) instanceof BinaryMessage binary
+                    ? HexFormat.of().formatHex(binary.getPayload().array())
+                    : ((TextMessage) invocation.getArgument(0)).getPayload());
+            if (sendStarted.getCount() > 0) {
+                sendStarted.countDown();
+                releaseSend.await(5, TimeUnit.SECONDS);
+            }
+            return null;
+        }).when(socket).sendMessage(any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseSend.countDown();
+        writer.shutdownNow();
+    }
+
+    @Test
+    void underPressure_ShouldDropTypingAndCoalesceReceipts() throws Exception {
+        SlowConsumerWebSocketHandler handler = handler(OverflowPolicy.COALESCE, 100);
+        blockFirstSend(handler);
+        handler.handleMessage(frame("{\"type\":\"MESSAGE\",\"chatId\":1,\"payload\":{}}"));
+
+        handler.handleMessage(frame("{\"type\":\"TYPING\",\"chatId\":1,\"payload\":{}}"));
+        handler.handleMessage(frame("{\"type\":\"RECEIPTS\",\"chatId\":1,\"timestamp\":1,"
+                + "\"payload\":{\"delivered\":{\"u1\":5},\"read\":{}}}"));
+        handler.handleMessage(frame("{\"type\":\"RECEIPTS\",\"chatId\":1,\"timestamp\":2,"
+                + "\"payload\":{\"delivered\":{\"u1\":4,\"u2\":7},\"read\":{\"u1\":3}}}"));
+        releaseSend.countDown();
+
+        // склеенные RECEIPTS уходят, как только буфер разгрузился, без следующего кадра сессии
+        awaitSent(3);
+        assertTrue(sent.get(2).contains("\"delivered\":{\"u1\":5,\"u2\":7}"), sent.get(2));
+        assertTrue(sent.get(2).contains("\"read\":{\"u1\":3}"), sent.get(2));
+        assertEquals(1.0, meterRegistry.get("chat.websocket.slow-consumer.dropped").tag("reason", "ephemeral")
+                .counter().count());
+        assertEquals(1.0, meterRegistry.get("chat.websocket.slow-consumer.dropped").tag("reason", "coalesced")
+                .counter().count());
+    }
+
+    @Test
+    void overMaxBufferedMessages_ShouldCloseSessionWithResyncStatus() throws Exception {
+        SlowConsumerWebSocketHandler handler = handler(OverflowPolicy.COALESCE, 2);
+        blockFirstSend(handler);
+
+        for (int i = 0; i < 3; i++) {
+            handler.handleMessage(frame("{\"type\":\"MESSAGE\",\"chatId\":1,\"payload\":{}}"));
+        }
+
+        verify(socket).close(SlowConsumerWebSocketHandler.SLOW_CONSUMER);
+        assertEquals(1.0, meterRegistry.get("chat.websocket.slow-consumer.evicted").counter().count());
+    }
+
+    @Test
+    void sessionRequestingCbor_ShouldReceiveBinaryFrames() throws Exception {
+        releaseSend.countDown();
+        SlowConsumerWebSocketHandler handler = handler(OverflowPolicy.COALESCE, 100);
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.setNativeHeader(WireFormatCodec.FORMAT_HEADER, "cbor");
+        SimpMessageHeaderAccessor connectAck = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT_ACK);
+        connectAck.setSessionId("s1");
+        connectAck.setHeader(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER,
+                MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+        handler.handleMessage(MessageBuilder.createMessage(new byte[0], connectAck.getMessageHeaders()));
+
+        handler.handleMessage(frame("{\"type\":\"MESSAGE\",\"chatId\":1,\"payload\":{}}"));
+
+        // MESSAGE-кадр STOMP целиком в binary-сообщении: заголовки текстом, тело в CBOR
+        awaitSent(1);
+        byte[] stompFrame = HexFormat.of().parseHex(sent.get(0));
+        String frame = new String(stompFrame, StandardCharsets.ISO_8859_1);
+        assertTrue(frame.contains("content-type:application/octet-stream;format=cbor"), frame);
+        byte[] body = Arrays.copyOfRange(stompFrame, frame.indexOf("\n\n") + 2,
+                frame.length() - 1);
+        assertEquals(new ObjectMapper().readTree("{\"type\":\"MESSAGE\",\"chatId\":1,\"payload\":{}}"),
+                new CBORMapper().readTree(body));
+    }
+
+    private SlowConsumerWebSocketHandler handler(OverflowPolicy policy, int maxBufferedMessages) throws Exception {
+        SlowConsumerWebSocketHandler handler = new SlowConsumerWebSocketHandler(
+                mock(MessageChannel.class), new ExecutorSubscribableChannel(), policy,
+                0, 0, maxBufferedMessages, new ObjectMapper(), new WireFormatCodec(16), meterRegistry);
+        handler.setDefaultProtocolHandler(new StompSubProtocolHandler());
+        handler.setSendTimeLimit(60_000);
+        handler.setSendBufferSizeLimit(1024 * 1024);
+        handler.afterConnectionEstablished(socket);
+        return handler;
+    }
+
+    // первый кадр зависает в сокете в отдельном потоке – дальше буфер сессии не пуст
+    private void blockFirstSend(SlowConsumerWebSocketHandler handler) throws InterruptedException {
+        writer.execute(() -> handler.handleMessage(frame("{\"type\":\"MESSAGE\",\"chatId\":1,\"payload\":{}}")));
+        assertTrue(sendStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        for (int i = 0; i < 50 && sent.size() < count; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(count, sent.size(), sent.toString());
+    }
+
+    private static Message<byte[]> frame(String json) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId("s1");
+        accessor.setSubscriptionId("sub-1");
+        accessor.setDestination("/topic/chat/1");
+        return MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+}
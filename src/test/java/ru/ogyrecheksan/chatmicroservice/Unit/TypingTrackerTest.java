@@ -0,0 +1,112 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import ru.ogyrecheksan.chatmicroservice.service.TypingTracker;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TypingTrackerTest {
+
+    // таймер без ApplicationReadyEvent не запускается – сбрасываем вручную
+    private static final long NO_TIMER_MS = 60_000;
+    private static final String NODE = "node-1";
+
+    @Mock
+    private WebSocketService webSocketService;
+
+    private TypingTracker tracker;
+
+    @Test
+    void flush_ShouldPublishOneFramePerChangedChat() {
+        tracker = new TypingTracker(webSocketService, NODE, NO_TIMER_MS, 60_000, 1_000);
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+
+        for (int keystroke = 0; keystroke < 20; keystroke++) {
+            tracker.onTyping(1L, alice, true);
+        }
+        tracker.onTyping(1L, bob, true);
+        tracker.onTyping(2L, bob, true);
+        tracker.onTyping(2L, bob, false);
+        verifyNoInteractions(webSocketService);
+
+        tracker.flush();
+
+        verify(webSocketService).sendTypingUsers(eq(1L), eq(NODE), argThat(users ->
+                users.size() == 2 && users.containsAll(List.of(alice, bob))));
+        verify(webSocketService).sendTypingUsers(2L, NODE, List.of());
+        verifyNoMoreInteractions(webSocketService);
+
+        // без изменений повторный flush ничего не шлет
+        tracker.onTyping(1L, alice, true);
+        tracker.flush();
+        verifyNoMoreInteractions(webSocketService);
+    }
+
+    @Test
+    void flush_WhenTypingTimesOut_ShouldPublishWithoutUser() throws InterruptedException {
+        tracker = new TypingTracker(webSocketService, NODE, NO_TIMER_MS, 50, 0);
+        UUID alice = UUID.randomUUID();
+
+        tracker.onTyping(1L, alice, true);
+        tracker.flush();
+        verify(webSocketService).sendTypingUsers(1L, NODE, List.of(alice));
+
+        Thread.sleep(100);
+        tracker.flush();
+
+        verify(webSocketService).sendTypingUsers(1L, NODE, List.of());
+        tracker.flush();
+        verifyNoMoreInteractions(webSocketService);
+    }
+
+    @Test
+    void flush_WhileUserKeepsTyping_ShouldRepeatNodeListBeforeClientsExpireIt() throws InterruptedException {
+        tracker = new TypingTracker(webSocketService, NODE, NO_TIMER_MS, 200, 0);
+        UUID alice = UUID.randomUUID();
+
+        tracker.onTyping(1L, alice, true);
+        tracker.flush();
+        tracker.flush();
+        verify(webSocketService).sendTypingUsers(1L, NODE, List.of(alice));
+
+        // список не менялся, но с последней публикации прошло больше половины timeout-ms
+        Thread.sleep(120);
+        tracker.onTyping(1L, alice, true);
+        tracker.flush();
+        verify(webSocketService, times(2)).sendTypingUsers(1L, NODE, List.of(alice));
+    }
+
+    @Test
+    void timer_ShouldRunOnlyBetweenReadyAndClosedEvents() {
+        tracker = new TypingTracker(webSocketService, NODE, 20, 60_000, 0);
+        ConfigurableApplicationContext context = mock(ConfigurableApplicationContext.class);
+        tracker.onTyping(1L, UUID.randomUUID(), true);
+
+        tracker.start(new ApplicationReadyEvent(new SpringApplication(), new String[0], context, Duration.ZERO));
+        verify(webSocketService, timeout(1_000)).sendTypingUsers(eq(1L), eq(NODE), anyList());
+
+        // чужой контекст таймер не останавливает, свой – останавливает
+        tracker.stop(new ContextClosedEvent(mock(ConfigurableApplicationContext.class)));
+        tracker.onTyping(2L, UUID.randomUUID(), true);
+        verify(webSocketService, timeout(1_000)).sendTypingUsers(eq(2L), eq(NODE), anyList());
+
+        tracker.stop(new ContextClosedEvent(context));
+        tracker.onTyping(3L, UUID.randomUUID(), true);
+        verify(webSocketService, after(200).never()).sendTypingUsers(eq(3L), any(), anyList());
+    }
+}
@@ -0,0 +1,131 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import feign.FeignException;
+import feign.Request;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.ogyrecheksan.chatmicroservice.exception.UserServiceUnavailableException;
+import ru.ogyrecheksan.chatmicroservice.service.UserServiceGuard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserServiceGuardTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void consecutiveFailures_ShouldOpenCircuitAndProbeAfterOpenDuration() throws Exception {
+        UserServiceGuard guard = new UserServiceGuard(meterRegistry, 10, 100, 3, 200);
+        AtomicInteger calls = new AtomicInteger();
+
+        // 4xx – сервис ответил, breaker не открывается
+        for (int i = 0; i < 5; i++) {
+            assertThrows(FeignException.NotFound.class, () -> guard.call(() -> {
+                throw new FeignException.NotFound("not found", request(), null, Map.of());
+            }));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IllegalStateException.class, () -> guard.call(() -> {
+                calls.incrementAndGet();
+                throw new IllegalStateException("connection refused");
+            }));
+        }
+        assertEquals(1, circuitState());
+
+        assertThrows(UserServiceUnavailableException.class, () -> guard.call(calls::incrementAndGet));
+        assertEquals(3, calls.get(), "open circuit must not reach user-service");
+        assertEquals(1, meterRegistry.get("chat.users.client.calls").tag("outcome", "short_circuited").counter().count());
+
+        Thread.sleep(250);
+        assertEquals(4, guard.call(calls::incrementAndGet));
+        assertEquals(0, circuitState());
+    }
+
+    @Test
+    void fullBulkhead_ShouldRejectExtraCalls() throws Exception {
+        UserServiceGuard guard = new UserServiceGuard(meterRegistry, 1, 10, 5, 10_000);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> slowCall = CompletableFuture.supplyAsync(() -> guard.call(() -> {
+            entered.countDown();
+            await(release);
+            return "slow";
+        }));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        assertThrows(UserServiceUnavailableException.class, () -> guard.call(() -> "second"));
+        assertEquals(1, meterRegistry.get("chat.users.client.calls").tag("outcome", "rejected").counter().count());
+        assertEquals(1, meterRegistry.get("chat.users.client.in.flight").gauge().value());
+
+        release.countDown();
+        assertEquals("slow", slowCall.get(5, TimeUnit.SECONDS));
+        assertEquals("third", guard.call(() -> "third"));
+    }
+
+    @Test
+    void errorDuringProbe_ShouldLetNextCallProbeAgain() throws Exception {
+        UserServiceGuard guard = new UserServiceGuard(meterRegistry, 10, 100, 1, 100);
+        assertThrows(IllegalStateException.class, () -> guard.call(() -> {
+            throw new IllegalStateException("connection refused");
+        }));
+        Thread.sleep(150);
+
+        assertThrows(StackOverflowError.class, () -> guard.call(() -> {
+            throw new StackOverflowError();
+        }));
+
+        assertEquals("probe", guard.call(() -> "probe"));
+        assertEquals(0, circuitState());
+    }
+
+    @Test
+    void probeInFlight_ShouldShortCircuitWithoutWaitingForBulkhead() throws Exception {
+        UserServiceGuard guard = new UserServiceGuard(meterRegistry, 1, 1_000, 1, 100);
+        assertThrows(IllegalStateException.class, () -> guard.call(() -> {
+            throw new IllegalStateException("connection refused");
+        }));
+        Thread.sleep(150);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> probe = CompletableFuture.supplyAsync(() -> guard.call(() -> {
+            entered.countDown();
+            await(release);
+            return "probe";
+        }));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // проба держит единственное место в bulkhead: отказ breaker'а приходит сразу, а не через acquire-timeout
+        long start = System.nanoTime();
+        assertThrows(UserServiceUnavailableException.class, () -> guard.call(() -> "second"));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(1, meterRegistry.get("chat.users.client.calls").tag("outcome", "short_circuited").counter().count());
+        assertEquals(0, meterRegistry.get("chat.users.client.calls").tag("outcome", "rejected").counter().count());
+
+        release.countDown();
+        assertEquals("probe", probe.get(5, TimeUnit.SECONDS));
+        assertEquals(0, circuitState());
+    }
+
+    private double circuitState() {
+        return meterRegistry.get("chat.users.client.circuit.state").gauge().value();
+    }
+
+    private static Request request() {
+        return Request.create(Request.HttpMethod.POST, "/api/users/batch", Map.of(), null, StandardCharsets.UTF_8, null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
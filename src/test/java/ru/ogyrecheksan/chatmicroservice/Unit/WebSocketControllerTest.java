@@ -6,16 +6,24 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import ru.ogyrecheksan.chatmicroservice.config.ChatPrincipal;
 import ru.ogyrecheksan.chatmicroservice.controller.WebSocketController;
 import ru.ogyrecheksan.chatmicroservice.dto.Request.SendMessageRequest;
 import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageResponse;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.MessageSliceResponse;
+import ru.ogyrecheksan.chatmicroservice.exception.AccessDeniedException;
+import ru.ogyrecheksan.chatmicroservice.service.MessageCursor;
 import ru.ogyrecheksan.chatmicroservice.service.MessageService;
+import ru.ogyrecheksan.chatmicroservice.service.TypingTracker;
+import ru.ogyrecheksan.chatmicroservice.service.UserProfileService;
 import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
 
 import java.security.Principal;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -28,6 +36,12 @@ class WebSocketControllerTest {
     @Mock
     private WebSocketService webSocketService;
 
+    @Mock
+    private TypingTracker typingTracker;
+
+    @Mock
+    private UserProfileService userProfileService;
+
     @InjectMocks
     private WebSocketController webSocketController;
 
@@ -38,8 +52,8 @@ class WebSocketControllerTest {
 
     @BeforeEach
     void setUp() {
-        principal = () -> "test@example.com";
-        userId = UUID.nameUUIDFromBytes("test@example.com".getBytes());
+        userId = UUID.randomUUID();
+        principal = new ChatPrincipal(userId, new long[]{1L, 5L, 99L}, 0, System.nanoTime(), "Bearer token");
 
         sendMessageRequest = new SendMessageRequest();
         sendMessageRequest.setContent("Hello WebSocket");
@@ -85,7 +99,7 @@ class WebSocketControllerTest {
     }
 
     @Test
-    void handleTyping_WithTrue_ShouldSendTypingIndicator() {
+    void handleTyping_WithTrue_ShouldTrackTyping() {
         // Arrange
         Long chatId = 1L;
         Boolean typing = true;
@@ -94,12 +108,12 @@ class WebSocketControllerTest {
         webSocketController.handleTyping(chatId, typing, principal);
 
         // Assert
-        verify(webSocketService).sendTypingIndicator(chatId, userId, typing);
-        verify(webSocketService, times(1)).sendTypingIndicator(anyLong(), any(UUID.class), anyBoolean());
+        verify(typingTracker).onTyping(chatId, userId, typing);
+        verify(typingTracker, times(1)).onTyping(anyLong(), any(UUID.class), anyBoolean());
     }
 
     @Test
-    void handleTyping_WithFalse_ShouldSendStopTypingIndicator() {
+    void handleTyping_WithFalse_ShouldTrackStop() {
         // Arrange
         Long chatId = 1L;
         Boolean typing = false;
@@ -108,7 +122,7 @@ class WebSocketControllerTest {
         webSocketController.handleTyping(chatId, typing, principal);
 
         // Assert
-        verify(webSocketService).sendTypingIndicator(chatId, userId, typing);
+        verify(typingTracker).onTyping(chatId, userId, typing);
     }
 
     @Test
@@ -121,21 +135,50 @@ class WebSocketControllerTest {
         webSocketController.handleTyping(differentChatId, typing, principal);
 
         // Assert
-        verify(webSocketService).sendTypingIndicator(differentChatId, userId, typing);
-        verify(webSocketService, never()).sendTypingIndicator(eq(1L), any(UUID.class), anyBoolean());
+        verify(typingTracker).onTyping(differentChatId, userId, typing);
+        verify(typingTracker, never()).onTyping(eq(1L), any(UUID.class), anyBoolean());
     }
 
     @Test
-    void handleTyping_WithNullPrincipal_ShouldHandleGracefully() {
+    void handleTyping_WithoutChatPrincipal_ShouldBeDenied() {
         // Arrange
         Long chatId = 1L;
         Boolean typing = true;
 
+        // Act & Assert
+        // Пользователь сессии создается только на CONNECT – без него никакого userId "по умолчанию"
+        assertThrows(AccessDeniedException.class, () -> webSocketController.handleTyping(chatId, typing, null));
+        assertThrows(AccessDeniedException.class,
+                () -> webSocketController.handleTyping(chatId, typing, () -> "test@example.com"));
+        verifyNoInteractions(typingTracker);
+    }
+
+    @Test
+    void loadHistory_ShouldEnrichWithTokenFromConnect() {
+        // Arrange
+        MessageSliceResponse slice = new MessageSliceResponse();
+        slice.setMessages(List.of(messageResponse));
+        when(messageService.getChatMessages(eq(1L), eq(userId), (MessageCursor) isNull(), eq(50), eq("Bearer token")))
+                .thenReturn(slice);
+
+        // Act
+        webSocketController.loadHistory(1L, new WebSocketController.LoadHistoryRequest(), principal);
+
+        // Assert
+        verify(userProfileService).enrichMessages(slice.getMessages(), "Bearer token");
+    }
+
+    @Test
+    void loadHistory_WithMalformedCursor_ShouldSendError() {
+        // Arrange
+        WebSocketController.LoadHistoryRequest request = new WebSocketController.LoadHistoryRequest();
+        request.setCursor("not-a-cursor");
+
         // Act
-        webSocketController.handleTyping(chatId, typing, null);
+        webSocketController.loadHistory(1L, request, principal);
 
         // Assert
-        // Should use fallback UUID when principal is null
-        verify(webSocketService).sendTypingIndicator(eq(chatId), any(UUID.class), eq(typing));
+        verify(webSocketService).sendErrorToUser(userId, 1L, "Invalid cursor: not-a-cursor");
+        verifyNoInteractions(messageService, userProfileService);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,78 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import ru.ogyrecheksan.chatmicroservice.config.ChatPrincipal;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketPresenceListener;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketService;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WebSocketPresenceListenerTest {
+
+    @Mock
+    private WebSocketService webSocketService;
+
+    private final WebSocketSubscriptionRegistry registry = new WebSocketSubscriptionRegistry();
+    private final UUID userId = UUID.randomUUID();
+    private final ChatPrincipal principal = new ChatPrincipal(userId, new long[]{1L}, 0, System.nanoTime(), null);
+
+    @Test
+    void statusChanges_ShouldBeSentOnlyWhenUserIsNotInChatOnAnotherNode() {
+        WebSocketPresenceListener listener = new WebSocketPresenceListener(registry, webSocketService);
+        Set<UUID> remoteChatUsers = new HashSet<>(Set.of(userId));
+        registry.setRemotePresence(new WebSocketSubscriptionRegistry.RemotePresence() {
+            @Override
+            public Set<UUID> onlineUsers(Long chatId) {
+                return Set.copyOf(remoteChatUsers);
+            }
+
+            @Override
+            public boolean isOnline(UUID user) {
+                return remoteChatUsers.contains(user);
+            }
+        });
+
+        // пользователь уже в чате на другом узле: ни USER_ONLINE, ни ложного USER_OFFLINE
+        listener.onSubscribe(subscribeEvent("s1"));
+        listener.onDisconnect(new SessionDisconnectEvent(this, disconnectFrame("s1"), "s1", CloseStatus.NORMAL));
+        verifyNoInteractions(webSocketService);
+
+        remoteChatUsers.clear();
+        listener.onSubscribe(subscribeEvent("s2"));
+        verify(webSocketService).sendUserStatus(1L, userId, true);
+        listener.onDisconnect(new SessionDisconnectEvent(this, disconnectFrame("s2"), "s2", CloseStatus.NORMAL));
+        verify(webSocketService).sendUserStatus(1L, userId, false);
+    }
+
+    private SessionSubscribeEvent subscribeEvent(String sessionId) {
+        registry.registerSession(sessionId, userId);
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-1");
+        accessor.setDestination("/topic/chat/1");
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        return new SessionSubscribeEvent(this, message, principal);
+    }
+
+    private static Message<byte[]> disconnectFrame(String sessionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.DISCONNECT);
+        accessor.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,170 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import ru.ogyrecheksan.chatmicroservice.config.ChatDestinations;
+import ru.ogyrecheksan.chatmicroservice.config.ChatPrincipal;
+import ru.ogyrecheksan.chatmicroservice.config.JwtTokenValidator;
+import ru.ogyrecheksan.chatmicroservice.config.WebSocketSecurityInterceptor;
+import ru.ogyrecheksan.chatmicroservice.exception.AccessDeniedException;
+import ru.ogyrecheksan.chatmicroservice.repository.ChatParticipantRepository;
+import ru.ogyrecheksan.chatmicroservice.service.ChatMembershipCache;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WebSocketSecurityInterceptorTest {
+
+    private static final String SECRET = "Peanut_Butter_Jelly_The_Long_Way_Secret_Key_123";
+
+    @Mock
+    private ChatParticipantRepository participantRepository;
+
+    private ChatMembershipCache membershipCache;
+    private WebSocketSecurityInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        membershipCache = new ChatMembershipCache(participantRepository, event -> {
+        }, new SimpleMeterRegistry(), 100, 300);
+        interceptor = new WebSocketSecurityInterceptor(membershipCache,
+                new JwtTokenValidator(SECRET, new SimpleMeterRegistry(), 100, 600));
+    }
+
+    @Test
+    void connect_ShouldValidateJwtOnceAndCheckFramesAgainstSnapshot() {
+        UUID userId = UUID.randomUUID();
+        when(participantRepository.findActiveChatIds(userId)).thenReturn(List.of(7L, 3L));
+
+        String authorization = "Bearer " + token(userId);
+        ChatPrincipal principal = connect(authorization, null);
+
+        assertEquals(userId, principal.getUserId());
+        assertEquals(authorization, principal.getAuthorization());
+        assertEquals(userId.toString(), principal.getName());
+        for (int i = 0; i < 10; i++) {
+            send(StompCommand.SEND, "/app/chat/3/typing", principal);
+            send(StompCommand.SUBSCRIBE, "/topic/chat/7", principal);
+        }
+        assertThrows(AccessDeniedException.class, () -> send(StompCommand.SUBSCRIBE, "/topic/chat/4", principal));
+
+        // Снимок актуален – ни одного обращения к членству после CONNECT
+        verify(participantRepository, never()).existsByChatIdAndUserIdAndLeftAtIsNull(any(), any());
+    }
+
+    @Test
+    void membershipChangeAfterConnect_ShouldBypassSnapshot() {
+        UUID userId = UUID.randomUUID();
+        when(participantRepository.findActiveChatIds(userId)).thenReturn(List.of(3L));
+        ChatPrincipal principal = connect(null, () -> userId.toString());
+
+        membershipCache.invalidate(3L, userId); // пользователя удалили из чата
+        when(participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(3L, userId)).thenReturn(false);
+        assertThrows(AccessDeniedException.class, () -> send(StompCommand.SEND, "/app/chat/3/sendMessage", principal));
+
+        membershipCache.invalidate(9L, userId); // и добавили в новый
+        when(participantRepository.existsByChatIdAndUserIdAndLeftAtIsNull(9L, userId)).thenReturn(true);
+        send(StompCommand.SUBSCRIBE, "/topic/chat/9", principal);
+
+        // Изменения других пользователей снимок не сбрасывают
+        UUID otherId = UUID.randomUUID();
+        when(participantRepository.findActiveChatIds(otherId)).thenReturn(List.of(3L));
+        ChatPrincipal other = connect(null, () -> otherId.toString());
+        membershipCache.invalidate(3L, userId);
+        send(StompCommand.SEND, "/app/chat/3/typing", other);
+        verify(participantRepository, never()).existsByChatIdAndUserIdAndLeftAtIsNull(3L, otherId);
+    }
+
+    @Test
+    void connectWithoutValidUserId_ShouldBeRejected() {
+        String tampered = token(UUID.randomUUID()) + "x";
+
+        assertThrows(AccessDeniedException.class, () -> connect("Bearer " + tampered, null));
+        assertThrows(AccessDeniedException.class, () -> connect(null, null));
+        assertThrows(AccessDeniedException.class, () -> connect(null, () -> "test@example.com"));
+        // Кадр в чат без пользователя, созданного на CONNECT
+        assertThrows(AccessDeniedException.class, () -> send(StompCommand.SEND, "/app/chat/3/typing", () -> "test@example.com"));
+        verifyNoInteractions(participantRepository);
+    }
+
+    @Test
+    void chatDestinations_ShouldMatchRegexParsing() {
+        Pattern topic = Pattern.compile("^/topic/chat/(\\d+)$");
+        Pattern app = Pattern.compile("^/app/chat/(\\d+).*$");
+        List<String> destinations = List.of("/topic/chat/42", "/topic/chat/0", "/topic/chat/42/", "/topic/chat/",
+                "/topic/chat/4x", "/topic/chats/42", "/app/chat/7/typing", "/app/chat/7", "/app/chat/7abc",
+                "/app/chat//typing", "/app/chats/7", "/user/queue/history", "/queue/x", "/", "", "topic/chat/1",
+                "/topic/chat/9223372036854775807", "/app/chat/123456789012/sendMessage");
+
+        for (String destination : destinations) {
+            Matcher topicMatcher = topic.matcher(destination);
+            Matcher appMatcher = app.matcher(destination);
+            long expected = topicMatcher.matches() ? Long.parseLong(topicMatcher.group(1))
+                    : appMatcher.matches() ? Long.parseLong(appMatcher.group(1))
+                    : ChatDestinations.NONE;
+            assertEquals(expected, ChatDestinations.chatId(destination), destination);
+        }
+        // regex здесь бросал NumberFormatException – кадр отклоняется
+        assertEquals(ChatDestinations.MALFORMED, ChatDestinations.chatId("/topic/chat/9223372036854775808"));
+        assertEquals(ChatDestinations.MALFORMED, ChatDestinations.chatId("/app/chat/99999999999999999999/typing"));
+    }
+
+    @Test
+    void malformedChatId_ShouldBeDenied() {
+        UUID userId = UUID.randomUUID();
+        ChatPrincipal principal = new ChatPrincipal(userId, new long[]{3L}, membershipCache.currentEpoch(), System.nanoTime(), null);
+
+        send(StompCommand.SUBSCRIBE, "/user/queue/history", principal);
+        send(StompCommand.UNSUBSCRIBE, "/topic/chat/99999999999999999999", principal);
+        assertThrows(AccessDeniedException.class,
+                () -> send(StompCommand.SUBSCRIBE, "/topic/chat/99999999999999999999", principal));
+    }
+
+    private ChatPrincipal connect(String authorization, Principal handshakeUser) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId("s1");
+        accessor.setUser(handshakeUser);
+        if (authorization != null) {
+            accessor.setNativeHeader("Authorization", authorization);
+        }
+        accessor.setLeaveMutable(true);
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+
+        interceptor.preSend(message, null);
+        return assertInstanceOf(ChatPrincipal.class, accessor.getUser());
+    }
+
+    private void send(StompCommand command, String destination, Principal user) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId("s1");
+        accessor.setDestination(destination);
+        accessor.setUser(user);
+        accessor.setLeaveMutable(true);
+        interceptor.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+    }
+
+    private static String token(UUID userId) {
+        return Jwts.builder()
+                .claim("userId", userId.toString())
+                .signWith(Keys.hmacShaKeyFor(SECRET.getBytes()))
+                .compact();
+    }
+}
@@ -0,0 +1,106 @@
+package ru.ogyrecheksan.chatmicroservice.Unit;
+
+import org.junit.jupiter.api.Test;
+import ru.ogyrecheksan.chatmicroservice.service.WebSocketSubscriptionRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebSocketSubscriptionRegistryTest {
+
+    private final WebSocketSubscriptionRegistry registry = new WebSocketSubscriptionRegistry();
+    private final UUID userId = UUID.randomUUID();
+
+    @Test
+    void multipleTabs_ShouldReportOnlyFirstAndLastSessionTransitions() {
+        assertTrue(registry.registerSession("s1", userId));
+        assertFalse(registry.registerSession("s2", userId));
+
+        assertTrue(registry.subscribeToChat("s1", "sub-1", 1L, userId));   // online
+        assertFalse(registry.subscribeToChat("s2", "sub-1", 1L, userId));  // вторая вкладка – без события
+        assertEquals(Set.of(userId), registry.getOnlineUsers(1L));
+
+        assertEquals(List.of(), registry.unregisterSession("s1"));         // еще есть s2
+        assertTrue(registry.isOnline(userId));
+        assertEquals(Set.of(userId), registry.getOnlineUsers(1L));
+
+        assertEquals(List.of(1L), registry.unregisterSession("s2"));       // offline
+        assertFalse(registry.isOnline(userId));
+        assertTrue(registry.getOnlineUsers(1L).isEmpty());
+    }
+
+    @Test
+    void unsubscribe_ShouldResolveChatBySubscriptionId() {
+        registry.registerSession("s1", userId);
+        registry.subscribeToChat("s1", "sub-1", 1L, userId);
+        registry.subscribeToChat("s1", "sub-2", 1L, userId);
+        registry.subscribeToChat("s1", "sub-3", 2L, userId);
+
+        assertNull(registry.unsubscribe("s1", "sub-1"));        // та же сессия все еще подписана через sub-2
+        assertEquals(1L, registry.unsubscribe("s1", "sub-2"));
+        assertTrue(registry.getOnlineUsers(1L).isEmpty());
+        assertEquals(Set.of(userId), registry.getOnlineUsers(2L));
+        assertTrue(registry.isOnline(userId));                   // сессия жива
+    }
+
+    @Test
+    void chatPresenceTransitions_ShouldReachListenersOncePerUser() {
+        List<String> transitions = new ArrayList<>();
+        registry.addListener(new WebSocketSubscriptionRegistry.ActivityListener() {
+            @Override
+            public void userJoinedChat(Long chatId, UUID user) {
+                transitions.add("joined " + chatId);
+            }
+
+            @Override
+            public void userLeftChat(Long chatId, UUID user) {
+                transitions.add("left " + chatId);
+            }
+        });
+        UUID otherId = UUID.randomUUID();
+
+        registry.subscribeToChat("s1", "sub-1", 1L, userId);
+        registry.subscribeToChat("s2", "sub-1", 1L, userId);     // вторая вкладка – без перехода
+        registry.subscribeToChat("s3", "sub-1", 1L, otherId);
+        registry.unregisterSession("s1");
+        registry.unsubscribe("s2", "sub-1");
+        registry.unregisterSession("s3");
+
+        assertEquals(List.of("joined 1", "joined 1", "left 1", "left 1"), transitions);
+    }
+
+    @Test
+    void remotePresence_ShouldBeMergedWithLocalSessions() {
+        UUID remoteId = UUID.randomUUID();
+        registry.subscribeToChat("s1", "sub-1", 1L, userId);
+        registry.registerSession("s1", userId);
+        registry.setRemotePresence(new WebSocketSubscriptionRegistry.RemotePresence() {
+            @Override
+            public Set<UUID> onlineUsers(Long chatId) {
+                return chatId == 1L ? Set.of(remoteId, userId) : Set.of();
+            }
+
+            @Override
+            public boolean isOnline(UUID user) {
+                return remoteId.equals(user);
+            }
+        });
+
+        assertEquals(Set.of(userId, remoteId), registry.getOnlineUsers(1L));
+        assertTrue(registry.getOnlineUsers(2L).isEmpty());
+        assertTrue(registry.isOnline(userId));
+        assertTrue(registry.isOnline(remoteId));
+        assertFalse(registry.isOnline(UUID.randomUUID()));
+        assertTrue(registry.isOnlineElsewhere(1L, remoteId));
+        assertFalse(registry.isOnlineElsewhere(2L, remoteId));
+
+        registry.withLocalPresence((users, chats) -> {
+            assertEquals(Set.of(userId), users);               // только сессии этого узла
+            assertEquals(Set.of(userId), chats.get(1L));
+        });
+    }
+}
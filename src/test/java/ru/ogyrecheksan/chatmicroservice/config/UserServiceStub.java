@@ -0,0 +1,136 @@
+package ru.ogyrecheksan.chatmicroservice.config;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ru.ogyrecheksan.chatmicroservice.dto.Response.UserInfoResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+/**
+ * Локальная заглушка user-service для тестов: POST /api/users/batch и GET /api/users/{userId}.
+ *
+ * Знает любого пользователя (username = "user-" + первые 8 символов id), кроме перечисленных в unknown.
+ * Запоминает каждый batch-запрос и его заголовок Authorization – тесты проверяют число вызовов, состав id и токен.
+ * delayMs – искусственная задержка ответа (для проверки объединения параллельных запросов и таймаутов),
+ * failureStatus – код ошибки вместо ответа (0 – отвечать нормально).
+ */
+public class UserServiceStub implements AutoCloseable {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final List<List<UUID>> batchRequests = new CopyOnWriteArrayList<>();
+    private final List<String> batchAuthorizations = new CopyOnWriteArrayList<>();
+    private final List<UUID> unknown = new CopyOnWriteArrayList<>();
+    private volatile long delayMs;
+    private volatile int failureStatus;
+
+    public UserServiceStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/users/batch", this::handleBatch);
+        server.createContext("/api/users/", this::handleSingle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    public String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public List<List<UUID>> batchRequests() {
+        return batchRequests;
+    }
+
+    public List<String> batchAuthorizations() {
+        return batchAuthorizations;
+    }
+
+    public void setDelayMs(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    public void setFailureStatus(int failureStatus) {
+        this.failureStatus = failureStatus;
+    }
+
+    public void addUnknown(UUID userId) {
+        unknown.add(userId);
+    }
+
+    public void reset() {
+        batchRequests.clear();
+        batchAuthorizations.clear();
+        unknown.clear();
+        delayMs = 0;
+        failureStatus = 0;
+    }
+
+    public static String usernameOf(UUID userId) {
+        return "user-" + userId.toString().substring(0, 8);
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        List<UUID> userIds = objectMapper.readValue(exchange.getRequestBody(), new TypeReference<List<UUID>>() {});
+        batchRequests.add(userIds);
+        batchAuthorizations.add(String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+        List<UserInfoResponse> users = new ArrayList<>();
+        for (UUID userId : userIds) {
+            if (!unknown.contains(userId)) {
+                users.add(user(userId));
+            }
+        }
+        respond(exchange, 200, users);
+    }
+
+    private void handleSingle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        UUID userId = UUID.fromString(path.substring(path.lastIndexOf('/') + 1));
+        if (unknown.contains(userId)) {
+            respond(exchange, 404, null);
+        } else {
+            respond(exchange, 200, user(userId));
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        try {
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failureStatus > 0) {
+            status = failureStatus;
+            body = null;
+        }
+        byte[] json = body != null ? objectMapper.writeValueAsBytes(body) : new byte[0];
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length > 0 ? json.length : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+
+    private static UserInfoResponse user(UUID userId) {
+        UserInfoResponse user = new UserInfoResponse();
+        user.setId(userId);
+        user.setUsername(usernameOf(userId));
+        user.setEmail(usernameOf(userId) + "@example.com");
+        user.setProfilePicture("https://cdn.example.com/avatars/" + userId + ".png");
+        return user;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}